@@ -17,6 +17,7 @@
 package com.googlecode.fightinglayoutbugs;
 
 import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,6 +26,8 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 
 /**
@@ -41,6 +44,15 @@ public abstract class AbstractLayoutBugDetector implements LayoutBugDetector {
         this.screenshotDir = screenshotDir;
     }
 
+    /**
+     * Returns the {@link WebPage} artifacts this detector will ask for -- {@link FightingLayoutBugs}
+     * pins them until this detector has finished, so that they are not evicted before it runs.
+     * Override this method, if your detector uses artifacts (including your own ones).
+     */
+    public Collection<Artifact<?>> getArtifactsNeeded() {
+        return Collections.emptyList();
+    }
+
     protected LayoutBug createLayoutBug(String message, WebPage webPage, boolean saveScreenshot) {
         return createLayoutBug(message, webPage, null, saveScreenshot, null);
     }
@@ -62,7 +74,7 @@ public abstract class AbstractLayoutBugDetector implements LayoutBugDetector {
             if (marker == null) {
                 screenshotFile = saveScreenshot(screenshot.pixels);
             } else {
-                final int[][] screenshotPixels = ImageHelper.copyOf(screenshot.pixels);
+                final PixelBuffer screenshotPixels = screenshot.pixels.copy();
                 try {
                     marker.mark(screenshotPixels);
                 } catch (Exception e) {
@@ -74,7 +86,7 @@ public abstract class AbstractLayoutBugDetector implements LayoutBugDetector {
         return new LayoutBug(message, webPage, screenshotFile);
     }
 
-    private File saveScreenshot(int[][] pixels) {
+    private File saveScreenshot(PixelBuffer pixels) {
         File screenshotFile = null;
         final DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
         String prefix = getClass().getSimpleName();
@@ -16,6 +16,7 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
 
 import java.util.Collection;
@@ -44,7 +45,7 @@ import static com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition.*;
  */
 public class AnimationAwareTextDetector extends AbstractTextDetector {
 
-    public boolean[][] detectTextPixelsIn(WebPage webPage) throws AnimationDetectedException {
+    public BitMask detectTextPixelsIn(WebPage webPage) throws AnimationDetectedException {
         long startTime = System.currentTimeMillis();
         // 1.) Take initial screenshot of web page with no images ...
         Screenshot screenshot1 = webPage.takeScreenshot(WITH_NO_IMAGES);
@@ -52,11 +53,11 @@ public class AnimationAwareTextDetector extends AbstractTextDetector {
         // 2.) Take a screenshot with all text colored black ...
         Screenshot screenshotWithAllTextColoredBlack = webPage.getScreenshot(WITH_NO_IMAGES_AND_ALL_TEXT_BLACK);
         Visualization.algorithmStepFinished("2.) Took a screenshot with no images and all text colored black.", webPage, screenshotWithAllTextColoredBlack);
-        // 3.) Take another screenshot with all text colored white ...
-        Screenshot screenshotWithAllTextColoredWhite = webPage.getScreenshot(WITH_NO_IMAGES_AND_ALL_TEXT_WHITE);
-        Visualization.algorithmStepFinished("3.) Took another screenshot with no images and all text colored white.", webPage, screenshotWithAllTextColoredWhite);
-        // 4.) Determine potential text pixels by comparing the last two screenshots ...
-        CompareScreenshots diff1 = new CompareScreenshots(screenshotWithAllTextColoredBlack, screenshotWithAllTextColoredWhite);
+        // 3.) Take another screenshot with all text colored white and
+        // 4.) determine potential text pixels by comparing the last two screenshots -- the second one
+        //     is scanned row by row, so it is not restored completely, if it has been evicted from memory ...
+        CompareScreenshots diff1 = new CompareScreenshots(screenshotWithAllTextColoredBlack, webPage, WITH_NO_IMAGES_AND_ALL_TEXT_WHITE);
+        Visualization.algorithmStepFinished("3.) Took another screenshot with no images and all text colored white.", webPage, WITH_NO_IMAGES_AND_ALL_TEXT_WHITE);
         Visualization.algorithmStepFinished("4.) Determined potential text pixels by comparing the last two screenshots.", webPage, diff1);
         // 5.) Determine regions of Java Applets, embedded objects like Flash movies, videos, iframes, and other ignored elements ...
         Collection<RectangularRegion> ignoredRegions = getIgnoredRegions(webPage);
@@ -66,10 +67,14 @@ public class AnimationAwareTextDetector extends AbstractTextDetector {
         Screenshot screenshot2 = webPage.takeScreenshot(WITH_NO_IMAGES);
         Visualization.algorithmStepFinished("6.) Took another screenshot of the web page (with text colors restored).", webPage, screenshot2);
         // 7.) Compare the last screenshot with the initial screenshot (ignoring ignored regions) to find animated pixels ...
-        CompareScreenshots diff2 = new CompareScreenshots(screenshot1, screenshot2).ignore(ignoredRegions);
-        Visualization.algorithmStepFinished("7.) Compared the last screenshot with the initial screenshot (ignoring ignored regions) to find more animated pixels.", webPage, diff2);
-        boolean[][] textPixels;
-        if (diff2.noDifferencesFound()) {
+        //     (stopping at the first animated pixel, the animated pixels themselves are only determined for visualization) ...
+        boolean animatedPixelsFound = CompareScreenshots.differencesFound(screenshot1, screenshot2, ignoredRegions);
+        if (Visualization.hasListeners()) {
+            Visualization.algorithmStepFinished("7.) Compared the last screenshot with the initial screenshot (ignoring ignored regions) to find more animated pixels.", webPage,
+                animatedPixelsFound ? new CompareScreenshots(screenshot1, screenshot2).ignore(ignoredRegions) : new BitMask(screenshot2.width, screenshot2.height));
+        }
+        BitMask textPixels;
+        if (!animatedPixelsFound) {
             // 8.) No animated pixels found, remove potential text pixels inside ignored regions ...
             textPixels = diff1.ignore(ignoredRegions).differentPixels;
             Visualization.algorithmFinished("8.) Done: No animated pixels found, removed potential text pixels inside ignored regions.", webPage, textPixels);
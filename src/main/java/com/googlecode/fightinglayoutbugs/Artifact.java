@@ -0,0 +1,163 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The key for an intermediate result of the analysis of a {@link WebPage}, which
+ * is computed lazily -- at most once as long as it is not evicted from the
+ * {@link com.googlecode.fightinglayoutbugs.helpers.ArtifactCache ArtifactCache} --
+ * and shared by all {@link LayoutBugDetector}s via {@link WebPage#get(Artifact)}.
+ * An artifact declares the artifacts it depends on, which are computed before it.
+ * <p>
+ * Artifacts are compared by identity, so declare your own artifacts as constants, e.g.
+ * <pre>
+ * public static final Artifact&lt;BitMask&gt; DILATED_TEXT = new Artifact&lt;BitMask&gt;("dilated text", Artifact.TEXT_PIXELS) {
+ *     protected BitMask computeFor(WebPage webPage) {
+ *         return webPage.get(Artifact.TEXT_PIXELS).dilate();
+ *     }
+ *     protected long sizeInBytes(BitMask dilatedText) {
+ *         return dilatedText.sizeInBytes();
+ *     }
+ * };
+ * </pre>
+ * and return them from {@link AbstractLayoutBugDetector#getArtifactsNeeded} of the
+ * detectors using them, so that they are not evicted before these detectors have finished.
+ */
+public abstract class Artifact<T> {
+
+    /** The source HTML of a web page. */
+    public static final Artifact<String> HTML = new Artifact<String>("HTML") {
+        @Override
+        protected String computeFor(WebPage webPage) {
+            return webPage.getDriver().getPageSource();
+        }
+
+        @Override
+        protected long sizeInBytes(String html) {
+            return html.length() * 2L;
+        }
+    };
+
+    /** The pixels belonging to displayed text, see {@link WebPage#getTextPixels()}. */
+    public static final Artifact<BitMask> TEXT_PIXELS = new BitMaskArtifact("text pixels") {
+        @Override
+        protected BitMask computeFor(WebPage webPage) {
+            return webPage.getTextDetector().detectTextPixelsIn(webPage);
+        }
+    };
+
+    /** The pixels surrounding the {@link #TEXT_PIXELS text pixels}, see {@link ImageHelper#findOutlines}. */
+    public static final Artifact<BitMask> TEXT_OUTLINES = new BitMaskArtifact("text outlines", TEXT_PIXELS) {
+        @Override
+        protected BitMask computeFor(WebPage webPage) {
+            return ImageHelper.findOutlines(webPage.get(TEXT_PIXELS));
+        }
+    };
+
+    /** The 4-connected components of the {@link #TEXT_PIXELS text pixels}, see {@link TextComponent#findIn}. */
+    public static final Artifact<List<TextComponent>> TEXT_COMPONENTS = new Artifact<List<TextComponent>>("text components", TEXT_PIXELS) {
+        @Override
+        protected List<TextComponent> computeFor(WebPage webPage) {
+            final BitMask text = webPage.get(TEXT_PIXELS);
+            return TextComponent.findIn(text, text.width, text.height);
+        }
+
+        @Override
+        protected long sizeInBytes(List<TextComponent> textComponents) {
+            long sizeInBytes = 16 + textComponents.size() * 8L;
+            for (TextComponent textComponent : textComponents) {
+                sizeInBytes += textComponent.sizeInBytes();
+            }
+            return sizeInBytes;
+        }
+    };
+
+    /** The pixels belonging to a horizontal edge, see {@link WebPage#getHorizontalEdges()}. */
+    public static final Artifact<BitMask> HORIZONTAL_EDGES = new BitMaskArtifact("horizontal edges") {
+        @Override
+        protected BitMask computeFor(WebPage webPage) {
+            final EdgeDetector edgeDetector = webPage.getEdgeDetector();
+            if (edgeDetector instanceof HorizontalAndVerticalEdgeDetector) {
+                return webPage.detectHorizontalAndVerticalEdges().horizontalEdges;
+            } else {
+                return edgeDetector.detectHorizontalEdgesIn(webPage);
+            }
+        }
+    };
+
+    /** The pixels belonging to a vertical edge, see {@link WebPage#getVerticalEdges()}. */
+    public static final Artifact<BitMask> VERTICAL_EDGES = new BitMaskArtifact("vertical edges") {
+        @Override
+        protected BitMask computeFor(WebPage webPage) {
+            final EdgeDetector edgeDetector = webPage.getEdgeDetector();
+            if (edgeDetector instanceof HorizontalAndVerticalEdgeDetector) {
+                return webPage.detectHorizontalAndVerticalEdges().verticalEdges;
+            } else {
+                return edgeDetector.detectVerticalEdgesIn(webPage);
+            }
+        }
+    };
+
+    private abstract static class BitMaskArtifact extends Artifact<BitMask> {
+        private BitMaskArtifact(String name, Artifact<?>... dependencies) {
+            super(name, dependencies);
+        }
+
+        @Override
+        protected long sizeInBytes(BitMask bitMask) {
+            return bitMask.sizeInBytes();
+        }
+    }
+
+    private final String _name;
+    private final List<Artifact<?>> _dependencies;
+
+    protected Artifact(String name, Artifact<?>... dependencies) {
+        _name = name;
+        _dependencies = Collections.unmodifiableList(Arrays.asList(dependencies.clone()));
+    }
+
+    /**
+     * Returns the artifacts, which are needed to compute this artifact.
+     */
+    public List<Artifact<?>> getDependencies() {
+        return _dependencies;
+    }
+
+    /**
+     * Computes this artifact for the given web page, when this method is called,
+     * all {@link #getDependencies dependencies} are available via {@link WebPage#get(Artifact)}.
+     */
+    protected abstract T computeFor(WebPage webPage);
+
+    /**
+     * Returns the (approximate) number of bytes occupied by the given value of this artifact.
+     */
+    protected abstract long sizeInBytes(T value);
+
+    @Override
+    public String toString() {
+        return _name;
+    }
+}
@@ -16,66 +16,191 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.PixelKernels;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
+import com.googlecode.fightinglayoutbugs.helpers.ScanlineSink;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public class CompareScreenshots {
 
+    /**
+     * Returns <code>true</code> if the given screenshots differ in at least one pixel
+     * outside of the given regions. Stops comparing at the first such pixel and does not
+     * allocate a bit mask, use this method instead of {@link #differencesFound()} if you
+     * do not need to know which pixels are different.
+     */
+    public static boolean differencesFound(Screenshot screenshot1, Screenshot screenshot2, Collection<RectangularRegion> regionsToIgnore) {
+        final PixelBuffer pixels1 = screenshot1.pixels;
+        final PixelBuffer pixels2 = screenshot2.pixels;
+        final int[] data1 = pixels1.data;
+        final int[] data2 = pixels2.data;
+        final int width = Math.min(screenshot1.width, screenshot2.width);
+        final int height = Math.min(screenshot1.height, screenshot2.height);
+        for (int y = 0; y < height; ++y) {
+            final int o1 = y * pixels1.stride;
+            final int o2 = y * pixels2.stride;
+            int x = 0;
+            while (x < width) {
+                if (data1[o1 + x] == data2[o2 + x]) {
+                    ++x;
+                } else {
+                    // Skip all ignored regions containing the different pixel ...
+                    int x2 = -1;
+                    for (RectangularRegion r : regionsToIgnore) {
+                        if (r.x1 <= x && x <= r.x2 && r.y1 <= y && y <= r.y2) {
+                            x2 = Math.max(x2, r.x2);
+                        }
+                    }
+                    if (x2 < 0) {
+                        return true;
+                    }
+                    x = x2 + 1;
+                }
+            }
+        }
+        return false;
+    }
+
     public final int width;
     public final int height;
-    public final boolean[][] differentPixels;
+    public final BitMask differentPixels;
 
-    private boolean foundDifferences;
+    private int numDifferentPixels;
 
     public CompareScreenshots(Screenshot screenshot1, Screenshot screenshot2) {
-        int[][] pixels1 = screenshot1.pixels;
-        int[][] pixels2 = screenshot2.pixels;
+        final PixelBuffer pixels1 = screenshot1.pixels;
+        final PixelBuffer pixels2 = screenshot2.pixels;
         width = Math.min(screenshot1.width, screenshot2.width);
         height = Math.min(screenshot1.height, screenshot2.height);
-        differentPixels = new boolean[width][height];
-        foundDifferences = false;
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                if (pixels1[x][y] != pixels2[x][y]) {
-                    foundDifferences = true;
-                    differentPixels[x][y] = true;
-                }
+        differentPixels = new BitMask(width, height);
+        numDifferentPixels = 0;
+        final PixelKernels kernels = PixelKernels.get();
+        for (int y = 0; y < height; ++y) {
+            numDifferentPixels += compareRow(kernels, pixels1.data, y * pixels1.stride, pixels2.data, y * pixels2.stride, width, y, differentPixels);
+        }
+    }
+
+    /**
+     * Compares the given screenshot with the screenshot of the given web page for the given condition,
+     * which is {@link WebPage#scanScreenshot scanned} row by row, so that it is not restored
+     * completely, if it has been evicted from memory.
+     */
+    public CompareScreenshots(Screenshot screenshot1, WebPage webPage, ScreenshotCache.Condition condition2) {
+        final RowComparison rowComparison = new RowComparison(screenshot1.pixels);
+        webPage.scanScreenshot(condition2, rowComparison);
+        differentPixels = rowComparison._differentPixels;
+        width = differentPixels.width;
+        height = differentPixels.height;
+        numDifferentPixels = rowComparison._numDifferentPixels;
+    }
+
+    /**
+     * Compares each scanline with the corresponding row of the given pixels.
+     */
+    private static class RowComparison implements ScanlineSink {
+        private final PixelBuffer _pixels1;
+        private final PixelKernels _kernels = PixelKernels.get();
+        private int _width;
+        private int _height;
+        private BitMask _differentPixels;
+        private int _numDifferentPixels;
+
+        private RowComparison(PixelBuffer pixels1) {
+            _pixels1 = pixels1;
+        }
+
+        @Override
+        public void startImage(int width, int height) {
+            _width = Math.min(_pixels1.width, width);
+            _height = Math.min(_pixels1.height, height);
+            _differentPixels = new BitMask(_width, _height);
+        }
+
+        @Override
+        public boolean wantsScanline(int y) {
+            return y < _height;
+        }
+
+        @Override
+        public boolean scanline(int y, int[] rgb) {
+            _numDifferentPixels += compareRow(_kernels, _pixels1.data, y * _pixels1.stride, rgb, 0, _width, y, _differentPixels);
+            return y + 1 < _height;
+        }
+    }
+
+    /**
+     * Compares the first <code>width</code> pixels starting at <code>o1</code> and <code>o2</code>,
+     * marks the different ones in row <code>y</code> of the given bit mask, and returns their number.
+     */
+    private static int compareRow(PixelKernels kernels, int[] data1, int o1, int[] data2, int o2, int width, int y, BitMask differentPixels) {
+        int numDifferentPixels = 0;
+        // Compare 64 pixels at a time and write them as one word into the bit mask ...
+        for (int x = 0; x < width; x += 64) {
+            final long word = kernels.compare(data1, o1 + x, data2, o2 + x, Math.min(64, width - x));
+            if (word != 0) {
+                differentPixels.setWord(x, y, word);
+                numDifferentPixels += Long.bitCount(word);
             }
         }
+        return numDifferentPixels;
     }
 
     /**
      * Updates and returns this {@code CompareScreenshots} object.
+     * Only the pixels inside the given regions are visited.
      */
     public CompareScreenshots ignore(Collection<RectangularRegion> regionsToIgnore) {
         for (RectangularRegion ignoredRegion : regionsToIgnore) {
-            int x2 = Math.min(width - 1, ignoredRegion.x2);
-            int y2 = Math.min(height - 1, ignoredRegion.y2);
-            for (int x = ignoredRegion.x1; x <= x2; ++x) {
-                for (int y = ignoredRegion.y1; y <= y2; ++y) {
-                    differentPixels[x][y] = false;
-                }
-            }
-        }
-        foundDifferences = false;
-        outerLoop:
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                if (differentPixels[x][y]) {
-                    foundDifferences = true;
-                    break outerLoop;
-                }
-            }
+            numDifferentPixels -= differentPixels.cardinality(ignoredRegion);
+            differentPixels.clear(ignoredRegion);
         }
         return this;
     }
 
     public boolean noDifferencesFound() {
-        return !foundDifferences;
+        return numDifferentPixels == 0;
     }
 
     public boolean differencesFound() {
-        return foundDifferences;
+        return numDifferentPixels > 0;
+    }
+
+    /**
+     * Returns the number of (not ignored) different pixels.
+     */
+    public int getNumDifferentPixels() {
+        return numDifferentPixels;
+    }
+
+    /**
+     * Returns the bounding rectangles of all (not ignored) different pixels:
+     * one rectangle for each group of consecutive rows containing different pixels.
+     */
+    public List<RectangularRegion> getDirtyRegions() {
+        final List<RectangularRegion> dirtyRegions = new ArrayList<RectangularRegion>();
+        int y1 = -1;
+        int x1 = width;
+        int x2 = -1;
+        for (int y = 0; y <= height; ++y) {
+            final int x = (y < height ? differentPixels.nextSetBit(0, y) : -1);
+            if (x >= 0) {
+                if (y1 < 0) {
+                    y1 = y;
+                }
+                x1 = Math.min(x1, x);
+                x2 = Math.max(x2, differentPixels.previousSetBit(width - 1, y));
+            } else if (y1 >= 0) {
+                dirtyRegions.add(new RectangularRegion(x1, y1, x2, y - 1));
+                y1 = -1;
+                x1 = width;
+                x2 = -1;
+            }
+        }
+        return dirtyRegions;
     }
 }
@@ -17,6 +17,7 @@
 package com.googlecode.fightinglayoutbugs;
 
 import com.google.gson.Gson;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,7 +37,9 @@ import java.util.*;
  * see, which element is currently focused.
  * </p><p>
  * Attention: This detector is very slow, because it needs to take
- * a screenshot after each simulated press on the TAB key.
+ * a screenshot after each simulated press on the TAB key. To keep
+ * the costs down, the screenshots are not decoded completely,
+ * only the regions around the focused elements are decoded.
  * </p>
  */
 public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector {
@@ -52,7 +55,7 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
         if (focusedElement1 != null) {
             Set<WebElement> visitedElements = new HashSet<WebElement>();
             visitedElements.add(focusedElement1.element);
-            Screenshot screenshot1 = webPage.takeScreenshot();
+            EncodedScreenshot screenshot1 = webPage.takeEncodedScreenshot();
             List<RectangularRegion> focusOrder = new ArrayList<RectangularRegion>();
             focusOrder.add(focusedElement1.region);
             // 2.) Focus next elements and compare screenshots (restrict detection to first 99 focusable elements) ...
@@ -62,7 +65,7 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
                     break;
                 }
                 focusOrder.add(focusedElement2.region);
-                Screenshot screenshot2 = webPage.takeScreenshot();
+                EncodedScreenshot screenshot2 = webPage.takeEncodedScreenshot();
                 if (i == 2 && focusedElement1.hasInvisibleFocus(screenshot1, screenshot2)) {
                     result.add(createLayoutBug(focusedElement1, focusOrder, webPage, screenshot1));
                 }
@@ -105,23 +108,8 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
     }
 
     private FocusedElement toFocusedElement(@Nonnull WebElement activeElement, WebPage webPage) {
-        // I don't trust WebDriver, that's why I determine the offset, width and height with jQuery too ...
-        Map temp = new Gson().fromJson((String) webPage.executeJavaScript(
-            "var $element = jQuery(arguments[0]);\n" +
-            "var offset = $element.offset();\n" +
-            "var $temp = $element.clone(false).wrap('<div></div>').parent();\n" +
-            "try {\n" +
-            "    return JSON.stringify({\n" +
-            "        x: offset.left,\n" +
-            "        y: offset.top,\n" +
-            "        w: $element.width(),\n" +
-            "        h: $element.height(),\n" +
-            "        html: $temp.html()\n" +
-            "    });\n" +
-            "} finally {\n" +
-            "    $temp.remove();\n" +
-            "}", activeElement
-        ), Map.class);
+        // I don't trust WebDriver, that's why I determine the offset, width and height via JavaScript too ...
+        Map temp = new Gson().fromJson((String) webPage.executeJavaScript("return __flb.describe(arguments[0]);", activeElement), Map.class);
         int x = ((Number) temp.get("x")).intValue();
         int y = ((Number) temp.get("y")).intValue();
         int w = ((Number) temp.get("w")).intValue();
@@ -152,13 +140,13 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
         }
     }
 
-    private LayoutBug createLayoutBug(FocusedElement focusedElement, List<RectangularRegion> focusOrder, WebPage webPage, Screenshot screenshotWithFocus) {
+    private LayoutBug createLayoutBug(FocusedElement focusedElement, List<RectangularRegion> focusOrder, WebPage webPage, EncodedScreenshot screenshotWithFocus) {
         return createLayoutBug(
                 "Detected element with invisible focus -- i.e. the element does not change its appearance when it gets the focus.\n" +
                         "- Element: " + focusedElement.html.replace("\n", "\n           ") + "\n" +
                         "- Region: " + focusedElement.region,
                 webPage,
-                screenshotWithFocus,
+                screenshotWithFocus.decode(),
                 new InvisibleFocusMarker(focusedElement, focusOrder)
         );
     }
@@ -174,7 +162,7 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
             this.html = html;
         }
 
-        private boolean hasInvisibleFocus(Screenshot screenshotWithFocus, Screenshot screenshotWithoutFocus) {
+        private boolean hasInvisibleFocus(EncodedScreenshot screenshotWithFocus, EncodedScreenshot screenshotWithoutFocus) {
             // Ignore text input fields, they should have a blinking cursor ...
             if (isTextInputField(element)) {
                 return false;
@@ -183,11 +171,17 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
             if (!isDisplayed()) {
                 return false;
             }
+            // Ignore elements, which are completely outside of the screenshot ...
+            if (region.x1 >= screenshotWithFocus.width || region.y1 >= screenshotWithFocus.height) {
+                return false;
+            }
             // To prevent false alarms we extend the region to analyze by 4 pixels in each direction ...
             RectangularRegion regionToAnalyze = addBorder(region, 4, screenshotWithFocus);
-            ScreenshotRegion screenshotRegionWithFocus = new ScreenshotRegion(screenshotWithFocus, regionToAnalyze);
-            ScreenshotRegion screenshotRegionWithoutFocus = new ScreenshotRegion(screenshotWithoutFocus, regionToAnalyze);
-            return screenshotRegionWithFocus.equals(screenshotRegionWithoutFocus);
+            // Decode only the region to analyze and compare it pixel by pixel,
+            // which stops at the first difference ...
+            PixelBuffer pixelsWithFocus = screenshotWithFocus.decode(regionToAnalyze);
+            PixelBuffer pixelsWithoutFocus = screenshotWithoutFocus.decode(regionToAnalyze);
+            return pixelsWithFocus.equals(pixelsWithoutFocus);
         }
 
         private boolean isDisplayed() {
@@ -204,11 +198,11 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
             }
         }
 
-        private RectangularRegion addBorder(RectangularRegion region, int border, Screenshot screenshot) {
+        private RectangularRegion addBorder(RectangularRegion region, int border, EncodedScreenshot screenshot) {
             final int x1 = Math.max(0, region.x1 - border);
             final int y1 = Math.max(0, region.y1 - border);
-            final int x2 = Math.max(screenshot.width - 1, region.x2 + border);
-            final int y2 = Math.max(screenshot.height - 1, region.y2 + border);
+            final int x2 = Math.min(screenshot.width - 1, region.x2 + border);
+            final int y2 = Math.min(screenshot.height - 1, region.y2 + border);
             return new RectangularRegion(x1, y1, x2, y2);
         }
     }
@@ -223,14 +217,14 @@ public class DetectElementsWithInvisibleFocus extends AbstractLayoutBugDetector
         }
 
         @Override
-        public void mark(int[][] screenshot) {
-            final int w = screenshot.length;
-            final int h = screenshot[0].length;
+        public void mark(PixelBuffer screenshot) {
+            final int w = screenshot.width;
+            final int h = screenshot.height;
             // TODO: add numbers to indicate focus order
             for (int x = focusedElement.region.x1; x <= focusedElement.region.x2 && x < w; ++x) {
                 for (int y = focusedElement.region.y1; y <= focusedElement.region.y2 && y < h; ++y) {
                     if ((x + y) % 2 == 0) {
-                        screenshot[x][y] = 0xFF0000;
+                        screenshot.set(x, y, 0xFF0000);
                     }
                 }
             }
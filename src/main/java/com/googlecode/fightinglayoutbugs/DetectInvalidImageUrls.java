@@ -16,14 +16,13 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.google.gson.Gson;
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.WebElement;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
@@ -47,6 +46,41 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
 
     private static final Log LOG = LogFactory.getLog(DetectInvalidImageUrls.class);
 
+    /**
+     * Everything referenced by the analyzed web page, which needs to be checked --
+     * collected by a single JavaScript call, see <code>__flb.harvestResources()</code>.
+     */
+    static class PageResources {
+        String charset;
+        /** The src attribute of each visible &lt;img&gt; element, <code>null</code> if not present. */
+        List<String> visibleImgSrcs;
+        List<StyleAttribute> styleAttributes;
+        /** The content of each &lt;style&gt; element. */
+        List<String> styleElements;
+        List<Link> links;
+        /** Only present if the browser resource status is used, see {@link DetectInvalidImageUrls#setUseBrowserResourceStatus}. */
+        Map<String, ResourceStatus> resourceStatus;
+    }
+
+    static class StyleAttribute {
+        String tagName;
+        String css;
+    }
+
+    static class Link {
+        String rel;
+        String type;
+        String href;
+        String charset;
+    }
+
+    static class ResourceStatus {
+        /** Whether the browser has successfully decoded an &lt;img&gt; element with this URL. */
+        boolean decoded;
+        /** The HTTP response status code the browser received for this URL, <code>0</code> if unknown. */
+        int responseStatus;
+    }
+
     static String stripCommentsFrom(String css) {
         final int n = css.length();
         int j = css.indexOf("/*");
@@ -105,12 +139,16 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
     private List<LayoutBug> _layoutBugs;
     private HttpClient _httpClient;
     private MockBrowser _mockBrowser;
+    private boolean _useBrowserResourceStatus;
+    private Map<String, ResourceStatus> _resourceStatus;
 
     public Collection<LayoutBug> findLayoutBugsIn(@Nonnull WebPage webPage) {
         try {
             _webPage = webPage;
             _baseUrl = _webPage.getUrl();
-            _documentCharset = (String) _webPage.executeJavaScript("return document.characterSet");
+            final PageResources pageResources = new Gson().fromJson((String) _webPage.executeJavaScript("return __flb.harvestResources(arguments[0]);", _useBrowserResourceStatus), PageResources.class);
+            _documentCharset = pageResources.charset;
+            _resourceStatus = pageResources.resourceStatus;
             _screenshotTaken = false;
             _checkedCssUrls = new ConcurrentSkipListSet<String>();
             _faviconUrl = "/favicon.ico";
@@ -118,13 +156,13 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
             _mockBrowser = new MockBrowser(_httpClient == null ? new HttpClient(new MultiThreadedHttpConnectionManager()) : _httpClient);
             try {
                 // 1. Check the src attribute of all visible <img> elements ...
-                checkVisibleImgElements();
+                checkVisibleImgElements(pageResources.visibleImgSrcs);
                 // 2. Check the style attribute of all elements ...
-                checkStyleAttributes();
+                checkStyleAttributes(pageResources.styleAttributes);
                 // 3. Check all <style> elements ...
-                checkStyleElements();
+                checkStyleElements(pageResources.styleElements);
                 // 4. Check all linked CSS resources ...
-                checkLinkedCss();
+                checkLinkedCss(pageResources.links);
                 // 5. Check favicon ...
                 checkFavicon();
                 // 6. Wait until all asynchronous checks are finished ...
@@ -136,6 +174,7 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
         } finally {
             // Free resources for garbage collection ...
             _mockBrowser = null;
+            _resourceStatus = null;
             _layoutBugs = null;
             _faviconUrl = null;
             _checkedCssUrls = null;
@@ -152,24 +191,34 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
         _httpClient = httpClient;
     }
 
-    private void checkVisibleImgElements() {
+    /**
+     * Sets whether image URLs, which the browser has already loaded, should be classified
+     * by what the browser knows about them instead of checking them via HTTP, default is <code>false</code>.
+     * An image URL is considered valid, if the browser has decoded an &lt;img&gt; element with this URL,
+     * and considered invalid, if the browser received an HTTP response status code &gt;= 400 (except 401).
+     * All other image URLs (for example CSS background images which are not used) are still checked via HTTP.
+     * Note: Images the browser decoded are accepted without checking the Content-Type header of their HTTP response,
+     * so images served with a wrong or missing image Content-Type are not reported in this mode.
+     */
+    public void setUseBrowserResourceStatus(boolean useBrowserResourceStatus) {
+        _useBrowserResourceStatus = useBrowserResourceStatus;
+    }
+
+    private void checkVisibleImgElements(List<String> visibleImgSrcs) {
         int numImgElementsWithoutSrcAttribute = 0;
         int numImgElementsWithEmptySrcAttribute = 0;
         final Set<String> seen = new HashSet<String>();
-        for (WebElement img : _webPage.findElements(By.tagName("img"))) {
-            if (img.isDisplayed()) {
-                final String src = img.getAttribute("src");
-                if (src == null) {
-                    ++numImgElementsWithoutSrcAttribute;
-                } else if ("".equals(src)) {
-                    ++numImgElementsWithEmptySrcAttribute;
-                } else {
-                    if (seen.add(src)) {
-                        try {
-                            checkImageUrl(src, "Detected visible <img> element with invalid src attribute \"" + src + "\"");
-                        } catch (MalformedURLException e) {
-                            addLayoutBugIfNotPresent("Detected visible <img> element with invalid src attribute \"" + src + "\" -- " + e.getMessage());
-                        }
+        for (String src : visibleImgSrcs) {
+            if (src == null) {
+                ++numImgElementsWithoutSrcAttribute;
+            } else if ("".equals(src)) {
+                ++numImgElementsWithEmptySrcAttribute;
+            } else {
+                if (seen.add(src)) {
+                    try {
+                        checkImageUrl(src, "Detected visible <img> element with invalid src attribute \"" + src + "\"");
+                    } catch (MalformedURLException e) {
+                        addLayoutBugIfNotPresent("Detected visible <img> element with invalid src attribute \"" + src + "\" -- " + e.getMessage());
                     }
                 }
             }
@@ -190,25 +239,24 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
         }
     }
 
-    private void checkStyleAttributes() {
-        for (WebElement element : _webPage.findElements(By.xpath("//*[@style]"))) {
-            final String css = element.getAttribute("style");
+    private void checkStyleAttributes(List<StyleAttribute> styleAttributes) {
+        for (StyleAttribute styleAttribute : styleAttributes) {
+            final String css = styleAttribute.css;
             for (String importUrl : getImportUrlsFrom(css)) {
-                checkCssResourceAsync(importUrl + " (imported in style attribute of <" + element.getTagName() + "> element)", importUrl, _baseUrl, _documentCharset);
+                checkCssResourceAsync(importUrl + " (imported in style attribute of <" + styleAttribute.tagName + "> element)", importUrl, _baseUrl, _documentCharset);
             }
             for (String url : extractUrlsFrom(css)) {
                 try {
-                    checkImageUrl(url, "Detected <" + element.getTagName() + "> element with invalid image URL \"" + url + "\" in its style attribute");
+                    checkImageUrl(url, "Detected <" + styleAttribute.tagName + "> element with invalid image URL \"" + url + "\" in its style attribute");
                 } catch (MalformedURLException e) {
-                    addLayoutBugIfNotPresent("Detected <" + element.getTagName() + "> element with invalid image URL \"" + url + "\" in its style attribute -- " + e.getMessage());
+                    addLayoutBugIfNotPresent("Detected <" + styleAttribute.tagName + "> element with invalid image URL \"" + url + "\" in its style attribute -- " + e.getMessage());
                 }
             }
         }
     }
 
-    private void checkStyleElements() {
-        for (WebElement styleElement : _webPage.findElements(By.tagName("style"))) {
-            final String css = (String) _webPage.executeJavaScript("return arguments[0].innerHTML", styleElement);
+    private void checkStyleElements(List<String> styleElements) {
+        for (String css : styleElements) {
             for (String importUrl : getImportUrlsFrom(css)) {
                 checkCssResourceAsync(importUrl + " (imported in <style> element)", importUrl, _baseUrl, _documentCharset);
             }
@@ -222,17 +270,17 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
         }
     }
 
-    private void checkLinkedCss() {
-        for (WebElement link : _webPage.findElements(By.tagName("link"))) {
-            String rel = link.getAttribute("rel");
+    private void checkLinkedCss(List<Link> links) {
+        for (Link link : links) {
+            String rel = link.rel;
             if (rel != null) {
                 rel = rel.toLowerCase(Locale.ENGLISH);
             }
-            final String type = link.getAttribute("type");
-            final String href = link.getAttribute("href");
+            final String type = link.type;
+            final String href = link.href;
             if ((rel != null && rel.contains("stylesheet")) || (type != null && type.startsWith("text/css"))) {
                 if (href != null) {
-                    String charset = link.getAttribute("charset");
+                    String charset = link.charset;
                     if (!isValidCharset(charset)) {
                         charset = _documentCharset;
                     }
@@ -405,45 +453,68 @@ public class DetectInvalidImageUrls extends AbstractLayoutBugDetector {
         final String completeUrlAsString = completeUrl.toExternalForm();
         String error = _checkedImageUrls.putIfAbsent(completeUrlAsString, "");
         if (error == null) {
-            _mockBrowser.downloadAsync(completeUrl, new DownloadCallback() {
-                @Override
-                public void onSuccess(GetMethod getMethod) {
-                    if (getMethod.getStatusCode() >= 400) {
-                        if (getMethod.getStatusCode() == 401) {
-                            LOG.info("Ignoring HTTP response status code 401 (" + getMethod.getStatusText() + ") for image URL " + completeUrlAsString);
-                        } else {
-                            handleError("HTTP server responded with: " + getMethod.getStatusCode() + " " + getMethod.getStatusText());
-                        }
-                    } else {
-                        final Header contentTypeHeader = getMethod.getResponseHeader("Content-Type");
-                        if (contentTypeHeader == null) {
-                            handleError("HTTP response did not contain Content-Type header.");
+            final String errorKnownByBrowser = getErrorKnownByBrowser(completeUrlAsString);
+            if (errorKnownByBrowser == null) {
+                _mockBrowser.downloadAsync(completeUrl, new DownloadCallback() {
+                    @Override
+                    public void onSuccess(GetMethod getMethod) {
+                        if (getMethod.getStatusCode() >= 400) {
+                            if (getMethod.getStatusCode() == 401) {
+                                LOG.info("Ignoring HTTP response status code 401 (" + getMethod.getStatusText() + ") for image URL " + completeUrlAsString);
+                            } else {
+                                handleError("HTTP server responded with: " + getMethod.getStatusCode() + " " + getMethod.getStatusText());
+                            }
                         } else {
-                            final String contentType = contentTypeHeader.getValue();
-                            if (!contentType.startsWith("image/")) {
-                                handleError("Content-Type HTTP response header \"" + contentType + "\" does not start with \"image/\".");
+                            final Header contentTypeHeader = getMethod.getResponseHeader("Content-Type");
+                            if (contentTypeHeader == null) {
+                                handleError("HTTP response did not contain Content-Type header.");
                             } else {
-                                // TODO: check if the response body is a valid image
+                                final String contentType = contentTypeHeader.getValue();
+                                if (!contentType.startsWith("image/")) {
+                                    handleError("Content-Type HTTP response header \"" + contentType + "\" does not start with \"image/\".");
+                                } else {
+                                    // TODO: check if the response body is a valid image
+                                }
                             }
                         }
                     }
-                }
 
-                @Override
-                public void onFailure(IOException e) {
-                    handleError("HTTP GET failed: " + e.getMessage());
-                }
+                    @Override
+                    public void onFailure(IOException e) {
+                        handleError("HTTP GET failed: " + e.getMessage());
+                    }
 
-                private void handleError(String error) {
-                    _checkedImageUrls.put(completeUrlAsString, error);
-                    addLayoutBugIfNotPresent(errorDescriptionPrefix + " -- " + error);
-                }
-            });
+                    private void handleError(String error) {
+                        _checkedImageUrls.put(completeUrlAsString, error);
+                        addLayoutBugIfNotPresent(errorDescriptionPrefix + " -- " + error);
+                    }
+                });
+            } else if (errorKnownByBrowser.length() > 0) {
+                _checkedImageUrls.put(completeUrlAsString, errorKnownByBrowser);
+                addLayoutBugIfNotPresent(errorDescriptionPrefix + " -- " + errorKnownByBrowser);
+            }
         } else if (error.length() > 0) {
             addLayoutBugIfNotPresent(errorDescriptionPrefix + " -- " + error);
         }
     }
 
+    /**
+     * Returns <code>""</code> if the browser has proven the given image URL to be valid,
+     * an error message if the browser has proven it to be invalid, and <code>null</code> otherwise.
+     */
+    private String getErrorKnownByBrowser(String completeUrl) {
+        final ResourceStatus status = (_resourceStatus == null ? null : _resourceStatus.get(completeUrl));
+        String error = null;
+        if (status != null) {
+            if (status.decoded) {
+                error = "";
+            } else if (status.responseStatus >= 400 && status.responseStatus != 401) {
+                error = "HTTP server responded with: " + status.responseStatus;
+            }
+        }
+        return error;
+    }
+
     private void checkCssResourceAsync(final String pathToCssResource, String url, URL baseUrl, final String fallBackCharset) {
         try {
             final URL cssUrl = getCompleteUrlFor(baseUrl, url);
@@ -16,9 +16,14 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+
 import javax.annotation.Nonnull;
+import java.util.Arrays;
 import java.util.Collection;
 
+import static com.googlecode.fightinglayoutbugs.Artifact.HORIZONTAL_EDGES;
+import static com.googlecode.fightinglayoutbugs.Artifact.TEXT_PIXELS;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singleton;
 
@@ -34,25 +39,21 @@ import static java.util.Collections.singleton;
  */
 public class DetectTextNearOrOverlappingHorizontalEdge extends AbstractLayoutBugDetector {
 
+    @Override
+    public Collection<Artifact<?>> getArtifactsNeeded() {
+        return Arrays.<Artifact<?>>asList(TEXT_PIXELS, HORIZONTAL_EDGES);
+    }
+
     public Collection<LayoutBug> findLayoutBugsIn(@Nonnull WebPage webPage) {
-        final boolean[][] text = webPage.getTextPixels();
-        final int w = text.length;
-        final int h = text[0].length;
+        final BitMask text = webPage.getTextPixels();
+        final int w = text.width;
+        final int h = text.height;
         if (w > 0 && h > 0) {
-            final boolean[][] horizontalEdges = webPage.getHorizontalEdges();
-            assert horizontalEdges.length == w;
-            assert horizontalEdges[0].length == h;
-            final boolean[][] buggyPixels = new boolean[w][h];
-            boolean foundBuggyPixel = false;
-            for (int x = 0; x < w; ++x) {
-                for (int y = 0; y < h; ++y) {
-                    if (text[x][y] && horizontalEdges[x][y]) {
-                        buggyPixels[x][y] = true;
-                        foundBuggyPixel = true;
-                    }
-                }
-            }
-            if (foundBuggyPixel) {
+            final BitMask horizontalEdges = webPage.getHorizontalEdges();
+            assert horizontalEdges.width == w;
+            assert horizontalEdges.height == h;
+            final BitMask buggyPixels = text.copy().and(horizontalEdges);
+            if (buggyPixels.any()) {
                 final LayoutBug layoutBug = createLayoutBug("Detected text near or overlapping horizontal edge.", webPage, new SurroundBuggyPixels(buggyPixels));
                 return singleton(layoutBug);
             } else {
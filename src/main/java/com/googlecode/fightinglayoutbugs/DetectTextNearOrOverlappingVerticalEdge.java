@@ -16,11 +16,15 @@
 
 package com.googlecode.fightinglayoutbugs;
 
-import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 
 import javax.annotation.Nonnull;
+import java.util.Arrays;
 import java.util.Collection;
 
+import static com.googlecode.fightinglayoutbugs.Artifact.TEXT_OUTLINES;
+import static com.googlecode.fightinglayoutbugs.Artifact.TEXT_PIXELS;
+import static com.googlecode.fightinglayoutbugs.Artifact.VERTICAL_EDGES;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singleton;
 
@@ -36,26 +40,22 @@ import static java.util.Collections.singleton;
  */
 public class DetectTextNearOrOverlappingVerticalEdge extends AbstractLayoutBugDetector {
 
+    @Override
+    public Collection<Artifact<?>> getArtifactsNeeded() {
+        return Arrays.<Artifact<?>>asList(TEXT_PIXELS, TEXT_OUTLINES, VERTICAL_EDGES);
+    }
+
     public Collection<LayoutBug> findLayoutBugsIn(@Nonnull WebPage webPage) {
-        final boolean[][] text = webPage.getTextPixels();
-        final int w = text.length;
-        final int h = text[0].length;
-        final boolean[][] textOutlines = ImageHelper.findOutlines(text);
+        final BitMask text = webPage.getTextPixels();
+        final int w = text.width;
+        final int h = text.height;
         if (w > 0 && h > 0) {
-            final boolean[][] verticalEdges = webPage.getVerticalEdges();
-            assert verticalEdges.length == w;
-            assert verticalEdges[0].length == h;
-            final boolean[][] buggyPixels = new boolean[w][h];
-            boolean foundBuggyPixel = false;
-            for (int x = 0; x < w; ++x) {
-                for (int y = 0; y < h; ++y) {
-                    if ((text[x][y] || textOutlines[x][y]) && verticalEdges[x][y]) {
-                        buggyPixels[x][y] = true;
-                        foundBuggyPixel = true;
-                    }
-                }
-            }
-            if (foundBuggyPixel) {
+            final BitMask textOutlines = webPage.get(TEXT_OUTLINES);
+            final BitMask verticalEdges = webPage.getVerticalEdges();
+            assert verticalEdges.width == w;
+            assert verticalEdges.height == h;
+            final BitMask buggyPixels = textOutlines.copy().or(text).and(verticalEdges);
+            if (buggyPixels.any()) {
                 final LayoutBug layoutBug = createLayoutBug("Detected text near or overlapping vertical edge.", webPage, new SurroundBuggyPixels(buggyPixels));
                 return singleton(layoutBug);
             } else {
@@ -16,14 +16,17 @@
 
 package com.googlecode.fightinglayoutbugs;
 
-import com.googlecode.fightinglayoutbugs.helpers.Point;
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+import com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.BandTask;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.PixelContrasts;
 
 import javax.annotation.Nonnull;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.Queue;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
 
-import static com.googlecode.fightinglayoutbugs.helpers.ImageHelper.getContrast;
+import static com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.forEachBand;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singleton;
 
@@ -38,195 +41,155 @@ import static java.util.Collections.singleton;
  */
 public class DetectTextWithTooLowContrast extends AbstractLayoutBugDetector {
 
+    /** Analyzing fewer text areas is not worth a task of its own. */
+    private static final int MIN_TEXT_AREAS_PER_TASK = 256;
+
     private class Analyzer {
-        private final int[][] screenshot;
+        private final WebPage webPage;
+        private final PixelBuffer screenshot;
+        private final PixelContrasts contrasts;
         private final int w;
         private final int h;
-        private final boolean[][] text;
-        private final boolean[][] handled;
-        private final int[] minY;
-        private final int[] maxY;
-        private final int w1;
-        private final int h1;
-        private int minX;
-        private int maxX;
+        private final BitMask text;
 
         public boolean foundBuggyPixels;
-        public final boolean[][] buggyPixels;
+        public final BitMask buggyPixels;
 
         private Analyzer(WebPage webPage) {
-            screenshot = webPage.getScreenshot().pixels;
+            this.webPage = webPage;
+            Screenshot unmodifiedScreenshot = webPage.getScreenshot();
+            screenshot = unmodifiedScreenshot.pixels;
+            contrasts = unmodifiedScreenshot.getPixelContrasts(_minReadableContrast);
             text = webPage.getTextPixels();
-            w = Math.min(screenshot.length, text.length);
-            h = Math.min(screenshot[0].length, text[0].length);
-            handled = new boolean[w][h];
-            buggyPixels = new boolean[w][h];
-            minY = new int[w];
-            maxY = new int[w];
-            w1 = w - 1;
-            h1 = h - 1;
+            w = Math.min(screenshot.width, text.width);
+            h = Math.min(screenshot.height, text.height);
+            buggyPixels = new BitMask(w, h);
         }
 
         private void run() {
+            // Text components are shared with other detectors, unless the text pixels do not match the screenshot ...
+            final List<TextComponent> textAreas = (w == text.width && h == text.height ? webPage.get(Artifact.TEXT_COMPONENTS) : TextComponent.findIn(text, w, h));
+            // The text areas are analyzed independently (and maybe in parallel),
+            // the buggy columns of each text area are marked afterwards ...
+            final boolean[][] buggyColumns = new boolean[textAreas.size()][];
+            forEachBand(_executorService, textAreas.size(), MIN_TEXT_AREAS_PER_TASK, 1, new BandTask() {
+                @Override
+                public void process(int from, int to) {
+                    for (int i = from; i < to; ++i) {
+                        buggyColumns[i] = findBuggyColumns(textAreas.get(i));
+                    }
+                }
+            });
             foundBuggyPixels = false;
-            for (int x = 0; x < w; ++x) {
-                for (int y = 0; y < h; ++y) {
-                    if (text[x][y] && !handled[x][y]) {
-                        handleTextArea(x, y);
+            for (int i = 0; i < buggyColumns.length; ++i) {
+                if (buggyColumns[i] != null) {
+                    foundBuggyPixels = true;
+                    final TextComponent textArea = textAreas.get(i);
+                    for (int x = textArea.minX; x <= textArea.maxX; ++x) {
+                        if (buggyColumns[i][x - textArea.minX]) {
+                            markTextPixelsAsBuggyInColumn(textArea, x);
+                        }
                     }
                 }
             }
         }
 
         /**
-         * @param x0 horizontal coordinate of the starting point of an unhandled text area
-         * @param y0 vertical coordinate of the starting point of an unhandled text area
+         * Returns for each column of the given text area, if it has to be marked as buggy,
+         * or <code>null</code> if the given text area has no buggy columns.
          */
-        private void handleTextArea(int x0, int y0) {
-            // Determine min and max y for each column as well as min and max x ...
-            findAllConnectedTextPixelsStartingFrom(x0, y0);
+        private boolean[] findBuggyColumns(TextComponent textArea) {
+            final int minX = textArea.minX;
+            final int maxX = textArea.maxX;
+            boolean[] buggyColumns = null;
             // Prevent false alarms because of anti aliasing ...
             if (maxX - minX >= 4) {
                 int minNumberOfColumnsWithTooLowContrastBeforeBugIsReported = Math.min(10, (maxX - minX) + 1);
                 // Check for too low contrast in each column ...
-                int buggyColumns = 0;
+                int n = 0;
                 int x = minX;
                 do {
-                    if (tooLowContrastInColumn(x)) {
-                        ++buggyColumns;
-                        if (buggyColumns == minNumberOfColumnsWithTooLowContrastBeforeBugIsReported) {
-                            foundBuggyPixels = true;
+                    if (tooLowContrastInColumn(textArea, x)) {
+                        ++n;
+                        if (n == minNumberOfColumnsWithTooLowContrastBeforeBugIsReported) {
+                            if (buggyColumns == null) {
+                                buggyColumns = new boolean[maxX - minX + 1];
+                            }
                             // Mark previous columns as well as current column as buggy ...
                             for (int i = (x - minNumberOfColumnsWithTooLowContrastBeforeBugIsReported) + 1; i <= x; ++i) {
-                                markTextPixelsAsBuggyInColumn(i);
+                                buggyColumns[i - minX] = true;
                             }
                             ++x;
-                            while (x <= maxX && tooLowContrastInColumn(x)) {
-                                markTextPixelsAsBuggyInColumn(x);
+                            while (x <= maxX && tooLowContrastInColumn(textArea, x)) {
+                                buggyColumns[x - minX] = true;
                                 ++x;
                             }
-                            buggyColumns = 0;
+                            n = 0;
                         } else {
                             ++x;
                         }
                     } else {
-                        buggyColumns = 0;
+                        n = 0;
                         ++x;
                     }
                 } while (x <= maxX);
             }
+            return buggyColumns;
         }
 
-        private void findAllConnectedTextPixelsStartingFrom(int x0, int y0) {
-            minX = x0;
-            maxX = x0;
-            for (int x = 0; x < w; ++x) {
-                minY[x] = h;
-                maxY[x] = -1;
-            }
-            final Queue<Point> todo = new LinkedList<Point>();
-            todo.add(new Point(x0, y0));
-            while (!todo.isEmpty()) {
-                final Point p = todo.poll();
-                final int x = p.x;
-                final int y = p.y;
-                if (!handled[x][y]) {
-                    if (y < minY[x]) {
-                        minY[x] = y;
-                    }
-                    if (y > maxY[x]) {
-                        maxY[x] = y;
-                    }
-                    if (x < minX) {
-                        minX = x;
-                    }
-                    if (x > maxX) {
-                        maxX = x;
-                    }
-                    handled[x][y] = true;
-                    // Do we need to visit the pixel above? ...
-                    if (y > 0) {
-                        final int y1 = y - 1;
-                        if (!handled[x][y1] && text[x][y1]){
-                            todo.add(new Point(x, y1));
-                        }
-                    }
-                    // Do we need to visit the pixel to the right? ...
-                    if (x < w1) {
-                        final int x1 = x + 1;
-                        if (!handled[x1][y] && text[x1][y]) {
-                            todo.add(new Point(x1, y));
-                        }
-                    }
-                    // Do we need to visit the pixel below? ...
-                    if (y < h1) {
-                        final int y1 = y + 1;
-                        if (!handled[x][y1] && text[x][y1]) {
-                            todo.add(new Point(x, y1));
-                        }
-                    }
-                    // Do we need to visit the pixel to the left? ...
-                    if (x > 0) {
-                        final int x1 = x - 1;
-                        if (!handled[x1][y] && text[x1][y]){
-                            todo.add(new Point(x1, y));
-                        }
-                    }
-                }
-            }
-        }
-
-        private boolean tooLowContrastInColumn(int x) {
-            int y = minY[x];
-            int backgroundColor;
+        private boolean tooLowContrastInColumn(TextComponent textArea, int x) {
+            int y = textArea.minY[x - textArea.minX];
+            final int maxY = textArea.maxY[x - textArea.minX];
+            int background;
             while (true) {
                 if (y > 0) {
-                    assert !text[x][y - 1] && text[x][y];
-                    backgroundColor = screenshot[x][y - 1];
+                    assert !text.get(x, y - 1) && text.get(x, y);
+                    background = screenshot.indexOf(x, y - 1);
                     // Check contrast to background color above text pixels ...
-                    if (getContrast(screenshot[x][y], backgroundColor) >= _minReadableContrast) {
+                    if (contrasts.atLeast(screenshot.indexOf(x, y), background)) {
                         return false;
                     }
                     ++y;
-                    if (y < h && text[x][y] && getContrast(screenshot[x][y], backgroundColor) >= _minReadableContrast) {
+                    if (y < h && text.get(x, y) && contrasts.atLeast(screenshot.indexOf(x, y), background)) {
                         return false;
                     }
                 }
                 // Go to last compound text pixel in current column ...
-                while (y < h && text[x][y]) {
+                while (y < h && text.get(x, y)) {
                     ++y;
                 }
                 if (y < h) {
-                    assert text[x][y - 1] && !text[x][y];
-                    backgroundColor = screenshot[x][y];
+                    assert text.get(x, y - 1) && !text.get(x, y);
+                    background = screenshot.indexOf(x, y);
                     // Check contrast to background color below text pixels ...
-                    if (getContrast(screenshot[x][y - 1], backgroundColor) >= _minReadableContrast) {
+                    if (contrasts.atLeast(screenshot.indexOf(x, y - 1), background)) {
                         return false;
                     }
-                    if (y >= 2 && text[x][y - 2] && getContrast(screenshot[x][y - 2], backgroundColor) >= _minReadableContrast) {
+                    if (y >= 2 && text.get(x, y - 2) && contrasts.atLeast(screenshot.indexOf(x, y - 2), background)) {
                         return false;
                     }
                 }
-                if (y > maxY[x]) {
+                if (y > maxY) {
                     return true;
                 }
                 // Go to next text pixel in current column ...
-                while (!text[x][y]) {
+                while (!text.get(x, y)) {
                     ++y;
                 }
             }
         }
 
-        private void markTextPixelsAsBuggyInColumn(int x) {
-            for (int y = minY[x]; y <= maxY[x]; ++y) {
-                if (text[x][y]) {
-                    buggyPixels[x][y] = true;
+        private void markTextPixelsAsBuggyInColumn(TextComponent textArea, int x) {
+            for (int y = textArea.minY[x - textArea.minX], maxY = textArea.maxY[x - textArea.minX]; y <= maxY; ++y) {
+                if (text.get(x, y)) {
+                    buggyPixels.set(x, y);
                 }
             }
         }
     }
 
     private double _minReadableContrast = 1.5;
+    private ExecutorService _executorService;
 
     /**
      * Sets the minimal contrast considered to be readable, default is <code>1&#46;5</code>.
@@ -235,14 +198,37 @@ public class DetectTextWithTooLowContrast extends AbstractLayoutBugDetector {
         _minReadableContrast = minReadableContrast;
     }
 
+    /**
+     * Sets the executor service used to analyze the text areas of large pages in parallel,
+     * default is <code>null</code>, which means that all text areas are analyzed in the calling thread.
+     */
+    public void setExecutorService(@Nullable ExecutorService executorService) {
+        _executorService = executorService;
+    }
+
+    @Override
+    public Collection<Artifact<?>> getArtifactsNeeded() {
+        return Arrays.<Artifact<?>>asList(Artifact.TEXT_PIXELS, Artifact.TEXT_COMPONENTS);
+    }
+
     public Collection<LayoutBug> findLayoutBugsIn(@Nonnull WebPage webPage) {
-        Analyzer analyzer = new Analyzer(webPage);
-        analyzer.run();
-        if (analyzer.foundBuggyPixels) {
-            final LayoutBug layoutBug = createLayoutBug("Detected text with too low contrast.", webPage, new SurroundBuggyPixels(analyzer.buggyPixels));
+        final BitMask buggyPixels = findBuggyPixelsIn(webPage);
+        if (buggyPixels != null) {
+            final LayoutBug layoutBug = createLayoutBug("Detected text with too low contrast.", webPage, new SurroundBuggyPixels(buggyPixels));
             return singleton(layoutBug);
         } else {
             return emptyList();
         }
     }
+
+    /**
+     * Returns the text pixels of the given web page, which have too low contrast
+     * to their background, or <code>null</code> if there are no such pixels.
+     */
+    @Nullable
+    BitMask findBuggyPixelsIn(@Nonnull WebPage webPage) {
+        Analyzer analyzer = new Analyzer(webPage);
+        analyzer.run();
+        return (analyzer.foundBuggyPixels ? analyzer.buggyPixels : null);
+    }
 }
@@ -16,13 +16,15 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+
 /**
  * Detects horizontal and vertical edges in a web page.
  */
 public interface EdgeDetector {
 
-    boolean[][] detectHorizontalEdgesIn(WebPage webPage);
+    BitMask detectHorizontalEdgesIn(WebPage webPage);
 
-    boolean[][] detectVerticalEdgesIn(WebPage webPage);
+    BitMask detectVerticalEdgesIn(WebPage webPage);
 
 }
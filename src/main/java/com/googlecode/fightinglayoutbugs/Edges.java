@@ -0,0 +1,33 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+
+/**
+ * The horizontal and vertical edges detected by a {@link HorizontalAndVerticalEdgeDetector}.
+ */
+public class Edges {
+
+    public final BitMask horizontalEdges;
+    public final BitMask verticalEdges;
+
+    public Edges(BitMask horizontalEdges, BitMask verticalEdges) {
+        this.horizontalEdges = horizontalEdges;
+        this.verticalEdges = verticalEdges;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.PngDecoder;
+import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
+
+import java.io.IOException;
+
+/**
+ * A screenshot of an entire {@link WebPage}, which is kept as PNG image
+ * and only decoded on demand -- either completely via {@link #decode()}
+ * or only a {@link RectangularRegion} of it via {@link #decode(RectangularRegion)},
+ * which is much faster if only a small part of the screenshot is needed.
+ */
+public class EncodedScreenshot {
+
+    private final byte[] _png;
+    public final int width;
+    public final int height;
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("EI2")
+    public EncodedScreenshot(byte[] png) {
+        // The width and height are stored in the IHDR chunk, which always starts at offset 8 ...
+        if (png.length < 24) {
+            throw new IllegalArgumentException("Not a PNG image.");
+        }
+        _png = png;
+        width = getInt(png, 16);
+        height = getInt(png, 20);
+    }
+
+    /**
+     * Decodes the entire screenshot.
+     */
+    public Screenshot decode() {
+        try {
+            return new Screenshot(PngDecoder.decode(_png));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode screenshot.", e);
+        }
+    }
+
+    /**
+     * Decodes only the pixels inside the given region, the returned
+     * {@link PixelBuffer} has the width and height of the given region
+     * (or less if the region exceeds the screenshot).
+     */
+    public PixelBuffer decode(RectangularRegion region) {
+        try {
+            return PngDecoder.decode(_png, region);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode region " + region + " of screenshot.", e);
+        }
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+}
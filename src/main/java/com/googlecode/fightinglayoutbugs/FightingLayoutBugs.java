@@ -16,8 +16,10 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.ArtifactCache;
 import com.googlecode.fightinglayoutbugs.helpers.DebugHelper;
 import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.logging.impl.*;
@@ -31,6 +33,7 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -179,11 +182,31 @@ public class FightingLayoutBugs extends AbstractLayoutBugDetector {
                 webPage.setTextDetector(textDetector);
                 webPage.setEdgeDetector(edgeDetector);
                 final Collection<LayoutBug> result = new ArrayList<LayoutBug>();
+                // Pin all artifacts needed by the registered detectors, each detector unpins its artifacts after it has finished ...
+                final List<Artifact<?>> pinnedArtifacts = new ArrayList<Artifact<?>>();
                 for (LayoutBugDetector detector : _detectors) {
-                    detector.setScreenshotDir(screenshotDir);
-                    LOG.debug("Running " + detector.getClass().getSimpleName() + " ...");
-                    result.addAll(detector.findLayoutBugsIn(webPage));
+                    for (Artifact<?> artifact : getArtifactsNeededBy(detector)) {
+                        webPage.pin(artifact);
+                        pinnedArtifacts.add(artifact);
+                    }
+                }
+                try {
+                    for (LayoutBugDetector detector : _detectors) {
+                        detector.setScreenshotDir(screenshotDir);
+                        LOG.debug("Running " + detector.getClass().getSimpleName() + " ...");
+                        result.addAll(detector.findLayoutBugsIn(webPage));
+                        for (Artifact<?> artifact : getArtifactsNeededBy(detector)) {
+                            webPage.unpin(artifact);
+                            pinnedArtifacts.remove(artifact);
+                        }
+                    }
+                } finally {
+                    for (Artifact<?> artifact : pinnedArtifacts) {
+                        webPage.unpin(artifact);
+                    }
                 }
+                final ArtifactCache artifactCache = ArtifactCache.getSharedInstance();
+                LOG.debug("ArtifactCache: " + artifactCache.getHits() + " hits, " + artifactCache.getMisses() + " misses, " + artifactCache.getEvictions() + " evictions, " + artifactCache.getSizeInBytes() + " of " + artifactCache.getMaxSizeInBytes() + " bytes used");
                 if (!result.isEmpty()) {
                     StringBuilder sb = new StringBuilder();
                     sb.append("Detected layout bug(s) on ").append(webPage.getUrl()).append("\n");
@@ -236,6 +259,19 @@ public class FightingLayoutBugs extends AbstractLayoutBugDetector {
         }
     }
 
+    /**
+     * Returns the {@link WebPage} artifacts the given detector will ask for, see
+     * {@link AbstractLayoutBugDetector#getArtifactsNeeded}, or an empty collection
+     * if the given detector does not extend <code>AbstractLayoutBugDetector</code>.
+     */
+    private static Collection<Artifact<?>> getArtifactsNeededBy(LayoutBugDetector detector) {
+        if (detector instanceof AbstractLayoutBugDetector) {
+            return ((AbstractLayoutBugDetector) detector).getArtifactsNeeded();
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
     private void setLogLevelToDebug() {
         String name = FightingLayoutBugs.class.getPackage().getName();
         final Log log = LogFactory.getLog(name);
@@ -291,14 +327,14 @@ public class FightingLayoutBugs extends AbstractLayoutBugDetector {
         final File screenshotDir = this.screenshotDir;
         final Visualization.Listener debugListener = new Visualization.Listener() {
             @Override
-            public void algorithmStepFinished(String algorithm, String stepDescription, int[][] tempResult) {
+            public void algorithmStepFinished(String algorithm, String stepDescription, PixelBuffer tempResult) {
                 File pngFile = new File(screenshotDir, nf.format(i.incrementAndGet()) + "_" + algorithm + ".png");
                 ImageHelper.pixelsToPngFile(tempResult, pngFile);
                 LOG.debug(pngFile.getName() + " -- " + stepDescription);
             }
 
             @Override
-            public void algorithmFinished(String algorithm, String stepDescription, int[][] result) {
+            public void algorithmFinished(String algorithm, String stepDescription, PixelBuffer result) {
                 File pngFile = new File(screenshotDir, nf.format(i.incrementAndGet()) + "_" + algorithm + ".png");
                 ImageHelper.pixelsToPngFile(result, pngFile);
                 LOG.debug(pngFile.getName() + " -- " + stepDescription);
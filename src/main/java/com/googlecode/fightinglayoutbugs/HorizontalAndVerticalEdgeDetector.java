@@ -0,0 +1,28 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+/**
+ * An {@link EdgeDetector}, which can detect horizontal and vertical edges
+ * at once -- {@link WebPage} uses {@link #detectEdgesIn} instead of calling
+ * {@link #detectHorizontalEdgesIn} and {@link #detectVerticalEdgesIn} separately.
+ */
+public interface HorizontalAndVerticalEdgeDetector extends EdgeDetector {
+
+    Edges detectEdgesIn(WebPage webPage);
+
+}
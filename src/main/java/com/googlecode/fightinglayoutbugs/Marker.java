@@ -16,11 +16,13 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+
 /**
  * Used to mark layout bugs in a screenshot.
  */
 public interface Marker {
 
-    void mark(int[][] screenshot);
+    void mark(PixelBuffer screenshot);
 
 }
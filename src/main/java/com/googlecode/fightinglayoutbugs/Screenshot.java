@@ -18,30 +18,133 @@ package com.googlecode.fightinglayoutbugs;
 
 import com.googlecode.fightinglayoutbugs.helpers.Dimension;
 import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
+import com.googlecode.fightinglayoutbugs.helpers.IndexedPixels;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.PixelContrasts;
 
+import javax.annotation.Nullable;
 import java.awt.image.BufferedImage;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Represents a screenshot of an entire {@link WebPage}.
  */
 public class Screenshot implements Serializable {
 
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
-    public int[][] pixels;
+    public final PixelBuffer pixels;
     public final int width;
     public final int height;
     public final Dimension dimension;
 
+    private transient float[] _luminancePlane;
+    private transient boolean _indexedPixelsDetermined;
+    private transient IndexedPixels _indexedPixels;
+    private transient Map<Double, PixelContrasts> _pixelContrasts;
+
     @edu.umd.cs.findbugs.annotations.SuppressWarnings("EI2")
-    public Screenshot(int[][] pixels) {
+    public Screenshot(PixelBuffer pixels) {
         this.pixels = pixels;
-        width = pixels.length;
-        height = pixels[0].length;
+        width = pixels.width;
+        height = pixels.height;
         dimension = new Dimension(width, height);
     }
 
+    /**
+     * Creates a screenshot with an already calculated {@link #getLuminancePlane luminance plane},
+     * for example by a {@link com.googlecode.fightinglayoutbugs.helpers.LuminancePlaneSink}
+     * while the pixels were decoded.
+     */
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("EI2")
+    public Screenshot(PixelBuffer pixels, float[] luminancePlane) {
+        this(pixels);
+        if (luminancePlane.length < pixels.data.length) {
+            throw new IllegalArgumentException("luminancePlane.length (" + luminancePlane.length + ") is less than pixels.data.length (" + pixels.data.length + ").");
+        }
+        _luminancePlane = luminancePlane;
+    }
+
+    /**
+     * Creates a screenshot from the given two dimensional array <tt>a</tt>,
+     * whereby <tt>a[x][y]</tt> is the pixel with the coordinates x,y.
+     */
+    public Screenshot(int[][] pixels) {
+        this(PixelBuffer.fromArray(pixels));
+    }
+
+    /**
+     * Returns the {@link ImageHelper#getLuminance luminance} of each pixel of this screenshot,
+     * the luminance of the pixel with the coordinates x,y is stored at index
+     * <code>pixels.indexOf(x, y)</code>. The returned array is calculated
+     * only once and must not be modified.
+     */
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("EI")
+    public synchronized float[] getLuminancePlane() {
+        if (_luminancePlane == null) {
+            _luminancePlane = ImageHelper.calculateLuminancePlane(pixels);
+        }
+        return _luminancePlane;
+    }
+
+    /**
+     * Returns the pixels of this screenshot as palette indices, or <code>null</code>
+     * if this screenshot has more than {@link IndexedPixels#MAX_PALETTE_SIZE} distinct colors.
+     * The returned object is calculated only once and must not be modified.
+     */
+    @Nullable
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("EI")
+    public synchronized IndexedPixels getIndexedPixels() {
+        if (!_indexedPixelsDetermined) {
+            _indexedPixels = IndexedPixels.fromPixelBuffer(pixels);
+            _indexedPixelsDetermined = true;
+        }
+        return _indexedPixels;
+    }
+
+    /**
+     * Returns a {@link PixelContrasts} instance for the given threshold, which uses the
+     * {@link #getLuminancePlane luminance plane}, if it has been calculated already,
+     * otherwise it looks up the contrast of two pixels by their palette indices, if this
+     * screenshot has {@link #getIndexedPixels indexed pixels}, and falls back to the luminance plane.
+     * The returned instance is shared by all callers asking for the same threshold.
+     */
+    public synchronized PixelContrasts getPixelContrasts(double threshold) {
+        if (_pixelContrasts == null) {
+            _pixelContrasts = new HashMap<Double, PixelContrasts>();
+        }
+        PixelContrasts pixelContrasts = _pixelContrasts.get(threshold);
+        if (pixelContrasts == null) {
+            final IndexedPixels indexedPixels = (_luminancePlane == null ? getIndexedPixels() : null);
+            pixelContrasts = (indexedPixels != null ? PixelContrasts.of(indexedPixels, threshold) : PixelContrasts.of(pixels, getLuminancePlane(), threshold));
+            _pixelContrasts.put(threshold, pixelContrasts);
+        }
+        return pixelContrasts;
+    }
+
+    /**
+     * Returns the (approximate) number of bytes occupied by this screenshot, including
+     * the {@link #getLuminancePlane luminance plane}, the {@link #getIndexedPixels indexed pixels},
+     * and the {@link #getPixelContrasts pixel contrasts}, if they have been calculated already.
+     */
+    public synchronized long sizeInBytes() {
+        long sizeInBytes = pixels.data.length * 4L;
+        if (_luminancePlane != null) {
+            sizeInBytes += _luminancePlane.length * 4L;
+        }
+        if (_indexedPixels != null) {
+            sizeInBytes += _indexedPixels.sizeInBytes();
+        }
+        if (_pixelContrasts != null) {
+            for (PixelContrasts pixelContrasts : _pixelContrasts.values()) {
+                sizeInBytes += pixelContrasts.sizeInBytes();
+            }
+        }
+        return sizeInBytes;
+    }
+
     public BufferedImage toBufferedImage() {
         return ImageHelper.pixelsToImage(pixels);
     }
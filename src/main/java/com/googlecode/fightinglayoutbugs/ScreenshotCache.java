@@ -16,20 +16,32 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.ArtifactCache;
+import com.googlecode.fightinglayoutbugs.helpers.CompressedPixels;
 import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBufferSink;
+import com.googlecode.fightinglayoutbugs.helpers.PngDecoder;
+import com.googlecode.fightinglayoutbugs.helpers.ScanlineSink;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
 
 import javax.annotation.Nonnull;
-import java.io.*;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static com.google.common.io.Closeables.closeQuietly;
 import static com.google.common.primitives.Bytes.asList;
 import static com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition.UNMODIFIED;
 import static com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition.WITH_ALL_TEXT_TRANSPARENT;
@@ -56,79 +68,479 @@ public class ScreenshotCache {
 
     private static List<Byte> PNG_SIGNATURE = asList(new byte[]{ (byte) 0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A });
 
+    private static final Log LOG = LogFactory.getLog(ScreenshotCache.class);
+
+    private static final String TEXT_COLOR_STYLE_ID_PREFIX = "flb_text_color_";
+    private static final String HIDE_IMAGES_STYLE_ID = "flb_hide_images";
+
+    /**
+     * Enables the <code>&lt;style&gt;</code> element with the id <code>arguments[0]</code>
+     * (which is injected with the CSS <code>arguments[1]</code> if not present yet), and disables
+     * all other <code>&lt;style&gt;</code> elements, whose id starts with <code>arguments[2]</code>.
+     */
+    private static final String TOGGLE_STYLE_ELEMENTS = "__flb.toggleStyle(arguments[0], arguments[1], arguments[2]);";
+
+    /**
+     * Writes evicted screenshots to disk in the background, shared by all
+     * <code>ScreenshotCache</code>s, uses a daemon thread so that it
+     * never prevents the JVM from exiting.
+     */
+    private static final ExecutorService SPILLER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "flb-screenshot-spiller");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Bytes occupied by the pixels of evicted screenshots (and by evicted compressed pixels),
+     * which are still referenced by a {@link BackupTask}, because their backup is not created yet.
+     */
+    private static final AtomicLong PENDING_BACKUP_BYTES = new AtomicLong();
+
+    /**
+     * A cached screenshot is either kept in the shared {@link ArtifactCache} (while it is in the memory tier),
+     * or backed by its run-length compressed pixels (after it was evicted from the memory tier), which are
+     * kept in the same <code>ArtifactCache</code>, so that one budget covers the screenshots of all
+     * <code>ScreenshotCache</code>s in both forms, or backed by a raw pixel file (if the compressed pixels
+     * were evicted too, or if they would not have been much smaller than the screenshot).
+     * {@link #evicted} is called while the shared <code>ArtifactCache</code> is locked (maybe from
+     * another thread), therefore it only submits a task to the {@link #SPILLER}, which creates the backup.
+     * The owner of the <code>ArtifactCache</code> entries is only weakly referenced, so that
+     * they are still removed, after the <code>ScreenshotCache</code> has been garbage collected.
+     * <code>compressedPixels</code>, <code>spilledFile</code>, <code>pendingBackup</code>,
+     * and <code>disposed</code> are guarded by the entry.
+     */
+    private static class CacheEntry implements ArtifactCache.EvictionListener<Screenshot> {
+        private final WeakReference<Object> owner;
+        private final ArtifactCache artifactCache;
+        private final long costInNanos;
+        private ArtifactCache.Entry<Screenshot> screenshot;
+        private ArtifactCache.Entry<CompressedPixels> compressedPixels;
+        private File spilledFile;
+        private Future<?> pendingBackup;
+        private boolean disposed;
+
+        private final ArtifactCache.EvictionListener<CompressedPixels> compressedPixelsEvicted = new ArtifactCache.EvictionListener<CompressedPixels>() {
+            @Override
+            public void evicted(CompressedPixels compressed) {
+                synchronized (CacheEntry.this) {
+                    if (!disposed) {
+                        pendingBackup = submitBackup(new BackupTask(CacheEntry.this, null, compressed));
+                    }
+                }
+            }
+        };
+
+        /**
+         * @param costInNanos the time it took to take the screenshot of this entry
+         */
+        private CacheEntry(Object owner, ArtifactCache artifactCache, long costInNanos) {
+            this.owner = new WeakReference<Object>(owner);
+            this.artifactCache = artifactCache;
+            this.costInNanos = costInNanos;
+        }
+
+        @Override
+        public synchronized void evicted(Screenshot screenshot) {
+            if (spilledFile == null && !disposed) {
+                pendingBackup = submitBackup(new BackupTask(this, screenshot.pixels, null));
+            }
+        }
+
+        /**
+         * Accounts for data the screenshot of this entry has built lazily since it entered the memory tier.
+         */
+        private void updateSizeInBytes() {
+            final Screenshot s = screenshot.peek();
+            if (s != null) {
+                screenshot.setSizeInBytes(s.sizeInBytes());
+            }
+        }
+
+        /**
+         * Only called by the {@link #SPILLER} thread.
+         */
+        private void backUp(PixelBuffer pixels) throws IOException {
+            // Only keep the compressed pixels, if they are much smaller than the screenshot ...
+            final CompressedPixels compressed = CompressedPixels.compress(pixels, pixels.data.length);
+            if (compressed != null) {
+                final Object o = owner.get();
+                if (o == null) {
+                    // The ScreenshotCache has been garbage collected ...
+                    return;
+                }
+                // Must not be called while this entry is locked, because the shared ArtifactCache locks itself first ...
+                final ArtifactCache.Entry<CompressedPixels> entry = artifactCache.put(o, compressed, compressed.sizeInBytes(), costInNanos, compressedPixelsEvicted);
+                final boolean wasDisposed;
+                synchronized (this) {
+                    wasDisposed = disposed;
+                    if (!disposed) {
+                        compressedPixels = entry;
+                    }
+                }
+                if (wasDisposed) {
+                    entry.remove();
+                }
+            } else {
+                spill(pixels);
+            }
+        }
+
+        /**
+         * Only called by the {@link #SPILLER} thread.
+         */
+        private void spill(PixelBuffer pixels) throws IOException {
+            final File tempFile = createTempFile();
+            ImageHelper.pixelsToRawFile(pixels, tempFile);
+            spilled(tempFile);
+        }
+
+        /**
+         * Only called by the {@link #SPILLER} thread.
+         */
+        private void spill(CompressedPixels compressedPixels) throws IOException {
+            final File tempFile = createTempFile();
+            ImageHelper.compressedPixelsToRawFile(compressedPixels, tempFile);
+            spilled(tempFile);
+        }
+
+        private File createTempFile() throws IOException {
+            final File tempFile = File.createTempFile("flb-cached-screenshot-", ".raw");
+            tempFile.deleteOnExit();
+            return tempFile;
+        }
+
+        private void spilled(File tempFile) {
+            synchronized (this) {
+                if (disposed) {
+                    deleteQuietly(tempFile);
+                } else {
+                    spilledFile = tempFile;
+                }
+            }
+        }
+
+        /**
+         * Removes the screenshot of this entry from the memory tier and releases its backup.
+         */
+        private void dispose() {
+            final ArtifactCache.Entry<CompressedPixels> compressed;
+            synchronized (this) {
+                disposed = true;
+                compressed = compressedPixels;
+                compressedPixels = null;
+                if (spilledFile != null) {
+                    deleteQuietly(spilledFile);
+                    spilledFile = null;
+                }
+            }
+            // Must not be called while this entry is locked, because the shared ArtifactCache locks itself first ...
+            screenshot.remove();
+            if (compressed != null) {
+                compressed.remove();
+            }
+        }
+
+        /**
+         * Returns the pixels of the evicted screenshot of this entry from its backup
+         * or <code>null</code> if there is no backup.
+         */
+        @Nullable
+        private PixelBuffer restorePixels() throws ExecutionException {
+            final Object backup = getBackup(true);
+            if (backup instanceof CompressedPixels) {
+                return ((CompressedPixels) backup).decompress();
+            } else if (backup instanceof File) {
+                return ImageHelper.rawFileToPixels((File) backup);
+            } else {
+                return null;
+            }
+        }
+
+        /**
+         * Delivers the pixels of the evicted screenshot of this entry row by row from its backup
+         * to the given sink, returns <code>false</code> if there is no backup.
+         */
+        private boolean scanBackup(ScanlineSink sink) throws ExecutionException {
+            final Object backup = getBackup(false);
+            if (backup instanceof CompressedPixels) {
+                ((CompressedPixels) backup).writeTo(sink);
+            } else if (backup instanceof File) {
+                ImageHelper.scanRawFile((File) backup, sink);
+            }
+            return (backup != null);
+        }
+
+        /**
+         * Waits until the backup of the evicted screenshot of this entry has been created and returns it:
+         * either its {@link CompressedPixels} (which are removed from the shared <code>ArtifactCache</code>,
+         * if <code>take</code> is <code>true</code>), or its temporary file, or <code>null</code> if there is no backup.
+         */
+        @Nullable
+        private Object getBackup(boolean take) throws ExecutionException {
+            for (;;) {
+                final Future<?> awaitedBackup = awaitPendingBackup();
+                final ArtifactCache.Entry<CompressedPixels> compressed;
+                synchronized (this) {
+                    compressed = compressedPixels;
+                    if (take) {
+                        compressedPixels = null;
+                    }
+                }
+                if (compressed != null) {
+                    // Must not be called while this entry is locked, because the shared ArtifactCache locks itself first ...
+                    final CompressedPixels result = compressed.get();
+                    if (take) {
+                        compressed.remove();
+                    }
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                final File file;
+                synchronized (this) {
+                    if (spilledFile == null && pendingBackup == awaitedBackup) {
+                        return null;
+                    }
+                    file = spilledFile;
+                }
+                if (file != null) {
+                    return file;
+                }
+                // The compressed pixels have been evicted in the meantime, wait until they are written to disk ...
+            }
+        }
+
+        /**
+         * Waits until the backup of the evicted screenshot of this entry has been created,
+         * so that the evicted screenshot can be garbage collected, and returns the awaited backup task.
+         */
+        @Nullable
+        private Future<?> awaitPendingBackup() throws ExecutionException {
+            final Future<?> backup;
+            synchronized (this) {
+                backup = pendingBackup;
+            }
+            if (backup != null) {
+                try {
+                    backup.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Got interrupted.", e);
+                }
+            }
+            return backup;
+        }
+    }
+
+    private static Future<?> submitBackup(BackupTask backupTask) {
+        PENDING_BACKUP_BYTES.addAndGet(backupTask._sizeInBytes);
+        return SPILLER.submit(backupTask);
+    }
+
+    /**
+     * Waits until the evicted screenshots of all <code>ScreenshotCache</code>s have been
+     * compressed or written to disk, so that they can be garbage collected.
+     */
+    static void awaitPendingBackups() {
+        while (PENDING_BACKUP_BYTES.get() > 0) {
+            try {
+                // The SPILLER has a single thread, so all backups submitted before are done afterwards ...
+                SPILLER.submit(new Runnable() { @Override public void run() {} }).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Got interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Either backs up the given pixels of an evicted screenshot or writes the given compressed pixels to a temporary file.
+     */
+    private static class BackupTask implements Callable<Void> {
+        private final CacheEntry _entry;
+        private PixelBuffer _pixels;
+        private CompressedPixels _compressedPixels;
+        /** The number of bytes accounted for in {@link #PENDING_BACKUP_BYTES}. */
+        private final long _sizeInBytes;
+
+        private BackupTask(CacheEntry entry, @Nullable PixelBuffer pixels, @Nullable CompressedPixels compressedPixels) {
+            _entry = entry;
+            _pixels = pixels;
+            _compressedPixels = compressedPixels;
+            _sizeInBytes = (pixels != null ? pixels.data.length * 4L : compressedPixels.sizeInBytes());
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try {
+                // Release the pixels before this task is completed, so that they can be garbage
+                // collected as soon as someone waiting for the result of this task is notified ...
+                PixelBuffer pixels = _pixels;
+                _pixels = null;
+                if (pixels != null) {
+                    _entry.backUp(pixels);
+                } else {
+                    CompressedPixels compressedPixels = _compressedPixels;
+                    _compressedPixels = null;
+                    // Decompressed row by row, so that the decompressed pixels never occupy the heap at once ...
+                    _entry.spill(compressedPixels);
+                }
+            } finally {
+                PENDING_BACKUP_BYTES.addAndGet(-_sizeInBytes);
+            }
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete()) {
+            LOG.debug("Failed to delete " + file);
+        }
+    }
+
     private final WebPage _webPage;
-    private final Map<Condition, SoftReference<Screenshot>> _memoryCache = new HashMap<Condition, SoftReference<Screenshot>>();
-    private final Map<Condition, File> _diskCache = new HashMap<Condition, File>();
-    private boolean _textColorsBackedUp;
-    private boolean _imageUrlsBackedUp;
+    private final ArtifactCache _artifactCache;
+    private final Map<Condition, CacheEntry> _cache = new EnumMap<Condition, CacheEntry>(Condition.class);
     private String _currentTextColor;
     private boolean _imagesAreCurrentlyHidden;
+    private boolean _useStylesheets;
 
     public ScreenshotCache(WebPage webPage) {
+        this(webPage, ArtifactCache.getSharedInstance());
+    }
+
+    /**
+     * @param artifactCache the memory tier for decoded and compressed screenshots, which is usually
+     *                      shared with all other <code>ScreenshotCache</code>s and {@link WebPage}s --
+     *                      if its budget is exceeded, the least valuable screenshots are run-length
+     *                      compressed, and if this is not enough, written to temporary files in the background
+     */
+    public ScreenshotCache(WebPage webPage, ArtifactCache artifactCache) {
         _webPage = webPage;
+        _artifactCache = artifactCache;
+    }
+
+    /**
+     * Determines how the web page is changed to take screenshots for the different {@link Condition}s:
+     * If <code>true</code> a <code>&lt;style&gt;</code> element with <code>!important</code> rules
+     * is injected for each text color and for hiding images, and conditions are switched by toggling
+     * the <code>disabled</code> flag of these elements, which is much faster on large pages, but does
+     * not work for elements with inline <code>!important</code> styles. If <code>false</code> (which
+     * is the default) the inline style of each element is backed up and overridden separately.
+     */
+    public void setUseStylesheets(boolean useStylesheets) {
+        if (_currentTextColor != null || _imagesAreCurrentlyHidden) {
+            throw new IllegalStateException("The web page has already been changed to take a screenshot.");
+        }
+        _useStylesheets = useStylesheets;
+    }
+
+    /**
+     * Releases all screenshots of this cache: removes them from the shared {@link ArtifactCache},
+     * drops their compressed pixels, and deletes their temporary files. The cache can still be used afterwards.
+     */
+    public void dispose() {
+        for (CacheEntry entry : _cache.values()) {
+            entry.dispose();
+        }
+        _cache.clear();
     }
 
     public @Nonnull Screenshot getScreenshot(Condition condition) {
-        SoftReference<Screenshot> softReference = _memoryCache.get(condition);
-        Screenshot screenshot;
-        if (softReference == null) {
-            // Cache miss, take screenshot ...
-            screenshot = takeScreenshot(condition);
-            // ... and cache it ...
-            _memoryCache.put(condition, new SoftReference<Screenshot>(screenshot));
-            _diskCache.put(condition, saveToTempFile(screenshot));
-        } else {
-            screenshot = softReference.get();
+        CacheEntry entry = _cache.get(condition);
+        Screenshot screenshot = null;
+        if (entry != null) {
+            screenshot = getFrom(entry);
             if (screenshot == null) {
-                // screenshot in _memoryCache was garbage collected, read it from _diskCache ...
-                File file = _diskCache.get(condition);
-                screenshot = readFromFile(file);
-                // ... and put it into _memoryCache again ...
-                _memoryCache.put(condition, new SoftReference<Screenshot>(screenshot));
+                _cache.remove(condition);
+            }
+        }
+        if (screenshot == null) {
+            // Cache miss, if evicted screenshots, whose backups are still being created, exceed the budget
+            // together with the cached ones, make sure they do not occupy the heap any longer ...
+            if (_artifactCache.getSizeInBytes() + PENDING_BACKUP_BYTES.get() > _artifactCache.getMaxSizeInBytes()) {
+                awaitPendingBackups();
             }
+            // ... take screenshot ...
+            final long start = System.nanoTime();
+            screenshot = takeScreenshot(condition);
+            // ... and cache it ...
+            entry = new CacheEntry(this, _artifactCache, System.nanoTime() - start);
+            _cache.put(condition, entry);
+            putIntoMemoryTier(entry, screenshot);
         }
+        updateSizesInBytes();
         return screenshot;
     }
 
-    private File saveToTempFile(Screenshot screenshot) {
-        try {
-            File tempFile = File.createTempFile("flb-cached-screenshot-", ".ser");
-            tempFile.deleteOnExit();
-            FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+    /**
+     * Delivers the pixels of the screenshot for the given condition row by row to the given sink.
+     * If the screenshot was evicted from the memory tier, its compressed pixels or its temporary
+     * file are read one row at a time, without restoring the whole screenshot -- use this method
+     * instead of {@link #getScreenshot} if you only need to look at each row once.
+     */
+    public void scanScreenshot(Condition condition, ScanlineSink sink) {
+        final CacheEntry entry = _cache.get(condition);
+        if (entry != null) {
+            final Screenshot screenshot = entry.screenshot.get();
+            if (screenshot != null) {
+                screenshot.pixels.writeTo(sink);
+                return;
+            }
             try {
-                ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-                try {
-                    objectOutputStream.writeObject(screenshot);
-                } finally {
-                    try { objectOutputStream.close(); } catch (Throwable ignored) {}
+                if (entry.scanBackup(sink)) {
+                    return;
                 }
-            } finally {
-                try { fileOutputStream.close(); } catch (Throwable ignored) {}
+            } catch (ExecutionException e) {
+                LOG.warn("Failed to save screenshot to temporary file, taking it again.", e.getCause());
             }
-            return tempFile;
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to save screenshot to temporary file.", e);
         }
+        getScreenshot(condition).pixels.writeTo(sink);
     }
 
-    private Screenshot readFromFile(File file) {
-        try {
-            FileInputStream fileInputStream = new FileInputStream(file);
+    private void putIntoMemoryTier(CacheEntry entry, Screenshot screenshot) {
+        // This cache is the owner of the entry, so that it is removed from the shared ArtifactCache
+        // as soon as this cache (and the WebPage it belongs to) is garbage collected ...
+        entry.screenshot = _artifactCache.put(this, screenshot, screenshot.sizeInBytes(), entry.costInNanos, entry);
+    }
+
+    /**
+     * Returns the screenshot of the given entry (and puts it into the memory tier again
+     * if needed) or <code>null</code> if the screenshot could not be restored.
+     */
+    private Screenshot getFrom(CacheEntry entry) {
+        Screenshot screenshot = entry.screenshot.get();
+        if (screenshot == null) {
+            // screenshot was evicted, decompress it or read it from disk ...
+            final PixelBuffer pixels;
             try {
-                ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
-                try {
-                    Object screenshot = objectInputStream.readObject();
-                    return (Screenshot) screenshot;
-                } finally {
-                    closeQuietly(objectInputStream);
-                }
-            } finally {
-                closeQuietly(fileInputStream);
+                pixels = entry.restorePixels();
+            } catch (ExecutionException e) {
+                LOG.warn("Failed to save screenshot to temporary file, taking it again.", e.getCause());
+                return null;
             }
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException("Failed to read cached screenshot from " + file, e);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read cached screenshot from " + file, e);
+            if (pixels == null) {
+                return null;
+            }
+            screenshot = new Screenshot(pixels);
+            putIntoMemoryTier(entry, screenshot);
+        }
+        return screenshot;
+    }
+
+    /**
+     * Accounts for the data the cached screenshots have built lazily (luminance planes, indexed pixels, ...),
+     * the shared {@link ArtifactCache} evicts screenshots from the memory tier, if its budget is exceeded now.
+     */
+    private void updateSizesInBytes() {
+        for (CacheEntry entry : _cache.values()) {
+            entry.updateSizeInBytes();
         }
     }
 
@@ -137,9 +549,28 @@ public class ScreenshotCache {
      */
     @Nonnull
     public Screenshot takeScreenshot(Condition condition) {
-        if (condition.hideImages && _diskCache.isEmpty()) {
-            // Cache UNMODIFIED and WITH_ALL_TEXT_TRANSPARENT screenshots first,
-            // because restoreImages() is an asynchronous operation for InternetExplorerDriver ...
+        applyCondition(condition);
+        return takeScreenshot();
+    }
+
+    /**
+     * Bypasses the cache and always takes a screenshot, which is not decoded
+     * -- use this method if you only need to look at small parts of the screenshot.
+     */
+    @Nonnull
+    public EncodedScreenshot takeEncodedScreenshot(Condition condition) {
+        applyCondition(condition);
+        return takeEncodedScreenshot();
+    }
+
+    /**
+     * Queues the JavaScripts needed to change the web page according to the given condition,
+     * they are executed in a single round trip right before the next screenshot is taken.
+     */
+    private void applyCondition(Condition condition) {
+        if (condition.hideImages && _cache.isEmpty()) {
+            // Cache UNMODIFIED and WITH_ALL_TEXT_TRANSPARENT screenshots first (they are
+            // needed anyway), so that images need not be restored for them later ...
             getScreenshot(UNMODIFIED);
             getScreenshot(WITH_ALL_TEXT_TRANSPARENT);
         }
@@ -159,80 +590,72 @@ public class ScreenshotCache {
             restoreImages();
             _imagesAreCurrentlyHidden = false;
         }
-        return takeScreenshot();
     }
 
     void hideImages() {
-        if (!_imageUrlsBackedUp) {
-            _webPage.executeJavaScript(
-                "jQuery('*').each(function() {\n" +
-                "    var $x = jQuery(this);\n" +
-                "    var b = $x.css('background-image');\n" +
-                "    if (b && b != 'none') {\n" +
-                "        $x.data('flb_background-image_backup', b)\n" +
-                "          .css('background-image', 'url(\"data:image/gif;base64,R0lGODlhAQABAAAAACH5BAEKAAEALAAAAAABAAEAAAICTAEAOw==\")');\n" +
-                "    }\n" +
-                "});\n" +
-                "jQuery('img').each(function() {\n" +
-                "    var $img = jQuery(this);\n" +
-                "    var w = $img.width();\n" +
-                "    var h = $img.height();\n" +
-                "    $img.data('flb_src_backup', $img.attr('src'))\n" +
-                "        .css('width', w + 'px')\n" +
-                "        .css('height', h + 'px')\n" +
-                "        .attr('src', 'data:image/gif;base64,R0lGODlhAQABAAAAACH5BAEKAAEALAAAAAABAAEAAAICTAEAOw==')\n" +
-                "}).size();" // ... the trailing ".size()" will reduce the size of the response
-            );
-            _imageUrlsBackedUp = true;
+        // The src of all <img> elements is replaced with a transparent GIF (their size is kept, so that
+        // the layout does not change) instead of just making them transparent via CSS, so that style
+        // rules (like :hover rules or transitions on opacity) can not show the images again ...
+        if (_useStylesheets) {
+            _webPage.queueJavaScript(TOGGLE_STYLE_ELEMENTS + " __flb.hideImgs();", HIDE_IMAGES_STYLE_ID, "* { background-image: none !important; }", HIDE_IMAGES_STYLE_ID);
         } else {
-            _webPage.executeJavaScript(
-                "jQuery('*').each(function() {\n" +
-                "    var $x = jQuery(this);\n" +
-                "    if ($x.data('flb_background-image_backup')) $x.css('background-image', 'url(\"data:image/gif;base64,R0lGODlhAQABAAAAACH5BAEKAAEALAAAAAABAAEAAAICTAEAOw==\")');\n" +
-                "});\n" +
-                "jQuery('img').each(function() {\n" +
-                "    jQuery(this).attr('src', 'data:image/gif;base64,R0lGODlhAQABAAAAACH5BAEKAAEALAAAAAABAAEAAAICTAEAOw==')\n" +
-                "}).size();" // ... the trailing ".size()" will reduce the size of the response
-            );
+            _webPage.queueJavaScript("__flb.overrideStyle('*', 'background-image', 'none', 'none'); __flb.hideImgs();");
         }
     }
 
     void restoreImages() {
-        _webPage.executeJavaScript(
-            "jQuery('*').each(function() {\n" +
-            "    var $x = jQuery(this);\n" +
-            "    var b = $x.data('flb_background-image_backup');\n" +
-            "    if (b) $x.css('background-image', b);\n" +
-            "});\n" +
-            "\n" +
-            "jQuery('img').each(function() {\n" +
-            "    var $img = jQuery(this);\n" +
-            "    $img.attr('src', $img.data('flb_src_backup'));\n" +
-            "}).size();" // ... the trailing ".size()" will reduce the size of the response
-        );
+        if (_useStylesheets) {
+            _webPage.queueJavaScript(TOGGLE_STYLE_ELEMENTS + " __flb.restoreImgs();", "", "", HIDE_IMAGES_STYLE_ID);
+        } else {
+            _webPage.queueJavaScript("__flb.restoreStyle('*', 'background-image'); __flb.restoreImgs();");
+        }
     }
 
     void colorAllText(@Nonnull String color) {
-        if (!_textColorsBackedUp) {
-            _webPage.executeJavaScript("jQuery('*').each(function() { var $x = jQuery(this); $x.data('flb_color_backup', $x.css('color')); }).size();"); // ... the trailing ".size()" will reduce the size of the response
-            _textColorsBackedUp = true;
+        if (_useStylesheets) {
+            final String id = TEXT_COLOR_STYLE_ID_PREFIX + color.replaceAll("[^A-Za-z0-9]", "");
+            _webPage.queueJavaScript(TOGGLE_STYLE_ELEMENTS, id, "* { color: " + color + " !important; }", TEXT_COLOR_STYLE_ID_PREFIX);
+        } else {
+            _webPage.queueJavaScript("__flb.overrideStyle('*', 'color', arguments[0]);", color);
         }
-        _webPage.executeJavaScript("jQuery('*').css('color', '" + color + "').size();"); // ... the trailing ".size()" will reduce the size of the response
     }
 
     void restoreTextColors() {
-        _webPage.executeJavaScript("jQuery('*').each(function() { var $x = jQuery(this); $x.css('color', $x.data('flb_color_backup')); }).size();"); // ... the trailing ".size()" will reduce the size of the response
+        if (_useStylesheets) {
+            _webPage.queueJavaScript(TOGGLE_STYLE_ELEMENTS, "", "", TEXT_COLOR_STYLE_ID_PREFIX);
+        } else {
+            _webPage.queueJavaScript("__flb.restoreStyle('*', 'color');");
+        }
     }
 
     protected Screenshot takeScreenshot() {
+        final byte[] png = takePngScreenshot();
+        // Decode the PNG image without AWT and ImageIO directly into a PixelBuffer,
+        // the luminance plane is only calculated if it is needed later on ...
+        final PixelBufferSink pixels = new PixelBufferSink();
+        try {
+            PngDecoder.decode(new ByteArrayInputStream(png), pixels);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode screenshot returned by " + _webPage.getDriver().getClass().getName() + ".getScreenshotAs(OutputType.BYTES).", e);
+        }
+        return new Screenshot(pixels.getPixels());
+    }
+
+    protected EncodedScreenshot takeEncodedScreenshot() {
+        return new EncodedScreenshot(takePngScreenshot());
+    }
+
+    private byte[] takePngScreenshot() {
+        // Apply all queued changes of the web page in a single round trip ...
+        _webPage.flushJavaScript();
         WebDriver driver = _webPage.getDriver();
         if (driver instanceof TakesScreenshot) {
-            return takeScreenshot((TakesScreenshot) driver);
+            return takePngScreenshot((TakesScreenshot) driver);
         }
         throw new UnsupportedOperationException(driver.getClass().getName() + " does not support taking screenshots.");
     }
 
-    private Screenshot takeScreenshot(TakesScreenshot driver) {
+    private byte[] takePngScreenshot(TakesScreenshot driver) {
         byte[] bytes = driver.getScreenshotAs(OutputType.BYTES);
         if (bytes == null) {
             throw new RuntimeException(driver.getClass().getName() + ".getScreenshotAs(OutputType.BYTES) returned null.");
@@ -248,7 +671,6 @@ public class ScreenshotCache {
                 throw new RuntimeException(driver.getClass().getName() + ".getScreenshotAs(OutputType.BYTES) did not return a PNG image.");
             }
         }
-        int[][] pixels = ImageHelper.pngToPixels(bytes);
-        return new Screenshot(pixels);
+        return bytes;
     }
 }
@@ -16,6 +16,7 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
 
 /**
@@ -39,7 +40,7 @@ public class ScreenshotRegion {
 
     @Override
     public int hashCode() {
-        return region.hashCode() ^ screenshot.pixels[region.x1][region.y1];
+        return region.hashCode() ^ screenshot.pixels.get(region.x1, region.y1);
     }
 
     /**
@@ -54,13 +55,12 @@ public class ScreenshotRegion {
         } else if (o instanceof ScreenshotRegion) {
             ScreenshotRegion other = (ScreenshotRegion) o;
             if (this.region.equals(other.region)) {
-                int[][] p1 = screenshot.pixels;
-                int[][] p2 = other.screenshot.pixels;
-                for (int x = region.x1; x <= region.x2; ++x) {
-                    for (int y = region.y1; y <= region.y2; ++y) {
-                        if (p1[x][y] != p2[x][y]) {
-                            return false;
-                        }
+                PixelBuffer p1 = screenshot.pixels;
+                PixelBuffer p2 = other.screenshot.pixels;
+                int x2 = region.x2 + 1;
+                for (int y = region.y1; y <= region.y2; ++y) {
+                    if (!p1.rowEquals(y, p2, region.x1, x2)) {
+                        return false;
                     }
                 }
                 return true;
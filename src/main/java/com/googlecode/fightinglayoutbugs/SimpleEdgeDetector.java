@@ -16,8 +16,15 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+import com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.BandTask;
+import com.googlecode.fightinglayoutbugs.helpers.PixelContrasts;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+
 import static com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition.WITH_ALL_TEXT_TRANSPARENT;
-import static com.googlecode.fightinglayoutbugs.helpers.ImageHelper.getContrast;
+import static com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.forEachBand;
 import static com.googlecode.fightinglayoutbugs.helpers.StringHelper.amountString;
 
 /**
@@ -35,14 +42,25 @@ import static com.googlecode.fightinglayoutbugs.helpers.StringHelper.amountStrin
  *     <li>edges = all vertical pixel sequences in the candidates of {@link #setSimilarColorMaxContrast similar color}
  *         and with a certain {@link #setMinVerticalEdgeLength minimal length}
  * </ol>
+ * </p><p>
+ * {@link #detectEdgesIn} detects both at once, which is faster than calling
+ * {@link #detectHorizontalEdgesIn} and {@link #detectVerticalEdgesIn}.
+ * </p><p>
+ * If an {@link #setExecutorService executor service} is set, the screenshot
+ * is split into row bands (for horizontal edges) or column bands (for vertical
+ * edges), which are processed in parallel -- the result is exactly the same.
  * </p>
  */
-public class SimpleEdgeDetector implements EdgeDetector {
+public class SimpleEdgeDetector implements HorizontalAndVerticalEdgeDetector {
+
+    /** Bands with fewer rows (or columns) are not worth a task of their own. */
+    private static final int MIN_BAND_SIZE = 128;
 
     private double _edgeMinContrast = 1.5;
     private double _similarColorMaxContrast = 1.5;
     private int _minHorizontalEdgeLength = 16;
     private int _minVerticalEdgeLength = 10;
+    private ExecutorService _executorService;
 
     /**
      * Sets the minimal contrast two pixels must have to be considered as candidates for an edge, default is <code>1&#46;5</code>
@@ -92,109 +110,195 @@ public class SimpleEdgeDetector implements EdgeDetector {
         return _minVerticalEdgeLength;
     }
 
-    public boolean[][] detectHorizontalEdgesIn(WebPage webPage) {
+    /**
+     * Sets the executor service used to detect edges in parallel, default is
+     * <code>null</code>, which means that edges are detected in the calling thread.
+     * On Java 7 or later you can pass a <code>ForkJoinPool</code> here.
+     */
+    public void setExecutorService(@Nullable ExecutorService executorService) {
+        _executorService = executorService;
+    }
+
+    @Nullable
+    public ExecutorService getExecutorService() {
+        return _executorService;
+    }
+
+    public BitMask detectHorizontalEdgesIn(WebPage webPage) {
         // 1.) Take screenshot without text ...
-        final int[][] pixels = webPage.getScreenshot(WITH_ALL_TEXT_TRANSPARENT).pixels;
-        final int w = pixels.length;
-        final int h = pixels[0].length;
-        Visualization.algorithmStepFinished("1.) Took screenshot without text.", webPage, pixels);
+        final Screenshot screenshot = webPage.getScreenshot(WITH_ALL_TEXT_TRANSPARENT);
+        Visualization.algorithmStepFinished("1.) Took screenshot without text.", webPage, screenshot);
         // 2.) Determine candidates (those pixels, which have a high contrast to the pixel below/above itself) ...
-        final int h1 = h - 1;
-        boolean[][] candidates = new boolean[w][h];
-        for (int y = 0; y < h1; ++y) {
-            for (int x = 0; x < w; ++x) {
-                if (haveHighContrast(pixels[x][y], pixels[x][y + 1])) {
-                    candidates[x][y] = true;
-                    candidates[x][y + 1] = true;
-                }
-            }
-        }
+        final BitMask candidates = new BitMask(screenshot.width, screenshot.height);
+        determineCandidates(screenshot, candidates, null);
         Visualization.algorithmStepFinished("2.) Determined candidates (those pixels, which have a high contrast to the pixel below/above itself).", webPage, candidates);
         // 3.) Find horizontal pixels sequences in candidates of similar color with configured minimal length ...
-        boolean[][] horizontalEdges = new boolean[w][h];
-        for (int y = 0; y < h; ++y) {
-            int x1 = 0;
-            do {
-                // find first candidate pixel ...
-                while (x1 < w && !candidates[x1][y]) {
-                    ++x1;
-                }
-                if (x1 < w) {
-                    // find end of horizontal edge ...
-                    int p1 = pixels[x1][y];
-                    int x2 = x1 + 1;
-                    int p2;
-                    while (x2 < w && candidates[x2][y] && haveSimilarColor(p1, p2 = pixels[x2][y])) {
-                        p1 = p2;
-                        ++x2;
-                    }
-                    if (x2 - x1 >= _minHorizontalEdgeLength) {
-                        for (int x = x1; x < x2; ++x) {
-                            horizontalEdges[x][y] = true;
-                        }
-                    }
-                    x1 = x2;
-                }
-            } while(x1 < w);
-        }
+        final BitMask horizontalEdges = findHorizontalEdges(screenshot, candidates);
         Visualization.algorithmFinished("3.) Done: Found all horizontal pixels sequences in candidates of similar color with minimal " + amountString(_minHorizontalEdgeLength, "pixel") + " length.", webPage, horizontalEdges);
         return horizontalEdges;
     }
 
-    public boolean[][] detectVerticalEdgesIn(WebPage webPage) {
+    public BitMask detectVerticalEdgesIn(WebPage webPage) {
         // 1.) Take screenshot without text ...
-        final int[][] pixels = webPage.getScreenshot(WITH_ALL_TEXT_TRANSPARENT).pixels;
-        final int w = pixels.length;
-        final int h = pixels[0].length;
-        Visualization.algorithmStepFinished("1.) Took screenshot without text.", webPage, pixels);
+        final Screenshot screenshot = webPage.getScreenshot(WITH_ALL_TEXT_TRANSPARENT);
+        Visualization.algorithmStepFinished("1.) Took screenshot without text.", webPage, screenshot);
         // 2.) Determine candidates (those pixels, which have a high contrast to the pixel on the left/right) ...
-        final int w1 = w - 1;
-        boolean[][] candidates = new boolean[w][h];
-        for (int x = 0; x < w1; ++x) {
-            for (int y = 0; y < h; ++y) {
-                if (haveHighContrast(pixels[x][y], pixels[x + 1][y])) {
-                    candidates[x][y] = true;
-                    candidates[x + 1][1] = true;
-                }
-            }
-        }
+        final BitMask candidates = new BitMask(screenshot.width, screenshot.height);
+        determineCandidates(screenshot, null, candidates);
         Visualization.algorithmStepFinished("2.) Determined candidates (those pixels, which have a high contrast to the pixel on the left/right).", webPage, candidates);
         // 3.) Find vertical pixels sequences in candidates of similar color and with configured minimal length ...
-        boolean[][] verticalEdges = new boolean[w][h];
-        for (int x = 0; x < w; ++x) {
-            int y1 = 0;
-            do {
-                // find first candidate pixel ...
-                while (y1 < h && !candidates[x][y1]) {
-                    ++y1;
-                }
-                if (y1 < h) {
-                    // find end of vertical edge ...
-                    int p1 = pixels[x][y1];
-                    int y2 = y1 + 1;
-                    int p2;
-                    while (y2 < h && candidates[x][y2] && haveSimilarColor(p1, p2 = pixels[x][y2])) {
-                        p1 = p2;
-                        ++y2;
+        final BitMask verticalEdges = findVerticalEdges(screenshot, candidates);
+        Visualization.algorithmFinished("3.) Done: Found all vertical pixels sequences in candidates of similar color and with minimal " + amountString(_minVerticalEdgeLength, "pixel") + " length.", webPage, verticalEdges);
+        return verticalEdges;
+    }
+
+    /**
+     * Detects horizontal and vertical edges at once: the candidates for both
+     * directions are determined in a single sweep over the screenshot. The result is exactly
+     * the same as the one of {@link #detectHorizontalEdgesIn} and {@link #detectVerticalEdgesIn}.
+     */
+    public Edges detectEdgesIn(WebPage webPage) {
+        // 1.) Take screenshot without text ...
+        final Screenshot screenshot = webPage.getScreenshot(WITH_ALL_TEXT_TRANSPARENT);
+        Visualization.algorithmStepFinished("1.) Took screenshot without text.", webPage, screenshot);
+        // 2.) Determine candidates for horizontal and vertical edges ...
+        final BitMask horizontalEdgeCandidates = new BitMask(screenshot.width, screenshot.height);
+        final BitMask verticalEdgeCandidates = new BitMask(screenshot.width, screenshot.height);
+        determineCandidates(screenshot, horizontalEdgeCandidates, verticalEdgeCandidates);
+        Visualization.algorithmStepFinished("2.) Determined candidates (those pixels, which have a high contrast to the pixel below/above or left/right itself).", webPage, horizontalEdgeCandidates.copy().or(verticalEdgeCandidates));
+        // 3.) Find horizontal and vertical pixels sequences in candidates of similar color with configured minimal length ...
+        final BitMask horizontalEdges = findHorizontalEdges(screenshot, horizontalEdgeCandidates);
+        final BitMask verticalEdges = findVerticalEdges(screenshot, verticalEdgeCandidates);
+        Visualization.algorithmFinished("3.) Done: Found all horizontal and vertical pixels sequences in candidates of similar color with minimal length.", webPage, horizontalEdges.copy().or(verticalEdges));
+        return new Edges(horizontalEdges, verticalEdges);
+    }
+
+    /**
+     * Sets the bits of all pixels, which have a high contrast to the pixel below/above
+     * in <code>horizontalEdgeCandidates</code> and the bits of all pixels, which
+     * have a high contrast to the pixel on the left/right in <code>verticalEdgeCandidates</code>
+     * -- both in one sweep over the rows of the given screenshot, either bit mask may be <code>null</code>.
+     */
+    private void determineCandidates(Screenshot screenshot, @Nullable final BitMask horizontalEdgeCandidates, @Nullable final BitMask verticalEdgeCandidates) {
+        final PixelContrasts contrasts = screenshot.getPixelContrasts(_edgeMinContrast);
+        final int stride = screenshot.pixels.stride;
+        final int w = screenshot.width;
+        final int h = screenshot.height;
+        forEachBand(_executorService, h, MIN_BAND_SIZE, 1, new BandTask() {
+            @Override
+            public void process(int y1, int y2) {
+                // The row above this band is only compared with the row below it (the first row of
+                // this band), and only candidates inside this band are set ...
+                int y = (horizontalEdgeCandidates == null ? y1 : Math.max(0, y1 - 1));
+                for (; y < y2; ++y) {
+                    final int o = y * stride;
+                    final boolean insideBand = (y >= y1);
+                    if (verticalEdgeCandidates != null && insideBand) {
+                        for (int x = 1; x < w; ++x) {
+                            final int i = o + x;
+                            if (haveHighContrast(contrasts, i - 1, i)) {
+                                verticalEdgeCandidates.set(x - 1, y);
+                                verticalEdgeCandidates.set(x, y);
+                            }
+                        }
                     }
-                    if (y2 - y1 >= _minVerticalEdgeLength) {
-                        for (int y = y1; y < y2; ++y) {
-                            verticalEdges[x][y] = true;
+                    if (horizontalEdgeCandidates != null && y + 1 < h) {
+                        for (int x = 0; x < w; ++x) {
+                            final int i = o + x;
+                            if (haveHighContrast(contrasts, i, i + stride)) {
+                                if (insideBand) {
+                                    horizontalEdgeCandidates.set(x, y);
+                                }
+                                if (y + 1 < y2) {
+                                    horizontalEdgeCandidates.set(x, y + 1);
+                                }
+                            }
                         }
                     }
-                    y1 = y2;
                 }
-            } while(y1 < h);
-        }
-        Visualization.algorithmFinished("3.) Done: Found all vertical pixels sequences in candidates of similar color and with minimal " + amountString(_minVerticalEdgeLength, "pixel") + " length.", webPage, verticalEdges);
+            }
+        });
+    }
+
+    private BitMask findHorizontalEdges(Screenshot screenshot, final BitMask candidates) {
+        final PixelContrasts contrasts = screenshot.getPixelContrasts(_similarColorMaxContrast);
+        final int stride = screenshot.pixels.stride;
+        final int w = screenshot.width;
+        final BitMask horizontalEdges = new BitMask(w, screenshot.height);
+        forEachBand(_executorService, screenshot.height, MIN_BAND_SIZE, 1, new BandTask() {
+            @Override
+            public void process(int y1, int y2) {
+                for (int y = y1; y < y2; ++y) {
+                    final int o = y * stride;
+                    int x1 = 0;
+                    do {
+                        // find first candidate pixel ...
+                        x1 = candidates.nextSetBit(x1, y);
+                        if (x1 < 0) {
+                            x1 = w;
+                        } else {
+                            // find end of horizontal edge ...
+                            int i = o + x1;
+                            int x2 = x1 + 1;
+                            while (x2 < w && candidates.get(x2, y) && haveSimilarColor(contrasts, i, i + 1)) {
+                                ++i;
+                                ++x2;
+                            }
+                            if (x2 - x1 >= _minHorizontalEdgeLength) {
+                                horizontalEdges.setRange(x1, x2, y);
+                            }
+                            x1 = x2;
+                        }
+                    } while(x1 < w);
+                }
+            }
+        });
+        return horizontalEdges;
+    }
+
+    private BitMask findVerticalEdges(Screenshot screenshot, final BitMask candidates) {
+        final PixelContrasts contrasts = screenshot.getPixelContrasts(_similarColorMaxContrast);
+        final int stride = screenshot.pixels.stride;
+        final int h = screenshot.height;
+        final BitMask verticalEdges = new BitMask(screenshot.width, h);
+        // The column bands are aligned to 64 columns, so that no two bands write to the same word of verticalEdges ...
+        forEachBand(_executorService, screenshot.width, MIN_BAND_SIZE, 64, new BandTask() {
+            @Override
+            public void process(int x1, int x2) {
+                for (int x = x1; x < x2; ++x) {
+                    int y1 = 0;
+                    do {
+                        // find first candidate pixel ...
+                        while (y1 < h && !candidates.get(x, y1)) {
+                            ++y1;
+                        }
+                        if (y1 < h) {
+                            // find end of vertical edge ...
+                            int i = y1 * stride + x;
+                            int y2 = y1 + 1;
+                            while (y2 < h && candidates.get(x, y2) && haveSimilarColor(contrasts, i, i + stride)) {
+                                i += stride;
+                                ++y2;
+                            }
+                            if (y2 - y1 >= _minVerticalEdgeLength) {
+                                for (int y = y1; y < y2; ++y) {
+                                    verticalEdges.set(x, y);
+                                }
+                            }
+                            y1 = y2;
+                        }
+                    } while(y1 < h);
+                }
+            }
+        });
         return verticalEdges;
     }
 
-    private boolean haveHighContrast(int rgb1, int rgb2) {
-        return (rgb1 != rgb2) && (getContrast(rgb1, rgb2) >= _edgeMinContrast);
+    private static boolean haveHighContrast(PixelContrasts edgeMinContrasts, int i1, int i2) {
+        return !edgeMinContrasts.haveSameColor(i1, i2) && edgeMinContrasts.atLeast(i1, i2);
     }
 
-    private boolean haveSimilarColor(int rgb1, int rgb2) {
-        return (rgb1 == rgb2) || (getContrast(rgb1, rgb2) <= _similarColorMaxContrast);
+    private static boolean haveSimilarColor(PixelContrasts similarColorMaxContrasts, int i1, int i2) {
+        return similarColorMaxContrasts.haveSameColor(i1, i2) || similarColorMaxContrasts.atMost(i1, i2);
     }
 }
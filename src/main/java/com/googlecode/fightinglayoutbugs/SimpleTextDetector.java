@@ -16,6 +16,7 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
 
 import java.util.Collection;
@@ -36,21 +37,21 @@ import static com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition.WITH_A
  */
 public class SimpleTextDetector extends AbstractTextDetector {
 
-    public boolean[][] detectTextPixelsIn(WebPage webPage) {
+    public BitMask detectTextPixelsIn(WebPage webPage) {
         // 1.) Take first screenshot with all text colored black ...
         Screenshot screenshotWithAllTextColoredBlack = webPage.getScreenshot(WITH_ALL_TEXT_BLACK);
         Visualization.algorithmStepFinished("1.) Took first screenshot with all text colored black.", webPage, screenshotWithAllTextColoredBlack);
-        // 2.) Take second screenshot with all text colored white ...
-        Screenshot screenshotWithAllTextColoredWhite = webPage.getScreenshot(WITH_ALL_TEXT_WHITE);
-        Visualization.algorithmStepFinished("2.) Took second screenshot with all text colored white.", webPage, screenshotWithAllTextColoredWhite);
-        // 3.) Determine potential text pixels by comparing the last two screenshots ...
-        CompareScreenshots diff = new CompareScreenshots(screenshotWithAllTextColoredBlack, screenshotWithAllTextColoredWhite);
+        // 2.) Take second screenshot with all text colored white and
+        // 3.) determine potential text pixels by comparing the last two screenshots -- the second one
+        //     is scanned row by row, so it is not restored completely, if it has been evicted from memory ...
+        CompareScreenshots diff = new CompareScreenshots(screenshotWithAllTextColoredBlack, webPage, WITH_ALL_TEXT_WHITE);
+        Visualization.algorithmStepFinished("2.) Took second screenshot with all text colored white.", webPage, WITH_ALL_TEXT_WHITE);
         Visualization.algorithmStepFinished("3.) Determined potential text pixels by comparing the last two screenshots.", webPage, diff);
         // 4.) Determine regions of Java Applets, embedded objects like Flash movies, iframes, and other ignored elements ...
         Collection<RectangularRegion> ignoredRegions = getIgnoredRegions(webPage);
         Visualization.algorithmStepFinished("4.) Determined regions of iframes, videos, Java Applets, embedded objects like Flash movies, and other ignored elements.", webPage, ignoredRegions);
         // 5.) Remove potential text pixels inside ignored regions ...
-        boolean[][] textPixels = diff.ignore(ignoredRegions).differentPixels;
+        BitMask textPixels = diff.ignore(ignoredRegions).differentPixels;
         Visualization.algorithmFinished("5.) Done: Removed potential text pixels inside ignored regions.", webPage, textPixels);
         return textPixels;
     }
@@ -16,11 +16,11 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
-import com.googlecode.fightinglayoutbugs.helpers.Point;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Marks buggy pixels in a screenshot by
@@ -28,106 +28,168 @@ import java.util.List;
  */
 public class SurroundBuggyPixels implements Marker {
 
-    private static final int[] CIRCLE = new int[] { 2, 3, 4, 5, 5, 5, 5, 5, 4, 3, 2 };
+    /** Radius of the buggy areas drawn around each buggy pixel. */
+    private static final int RADIUS = 5;
+    /** Width of the fade out halo around the buggy areas. */
+    private static final int FADE_OUT_WIDTH = 50;
+    /** Chamfer distances (in thirds of a pixel) to an orthogonal and a diagonal neighbour. */
+    private static final int ORTHOGONAL = 3;
+    private static final int DIAGONAL = 4;
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
     private static final int RED = 0x00FF0000;
     private static final int TRANSPARENT = 0xFF000000;
+    /** Used to fade out all pixels outside of the buggy areas and their fade out halo. */
+    private static final int FADED_OUT = 0x80FFFFFF;
+    private static final int[] FADE_OUT_ALPHA = new int[FADE_OUT_WIDTH];
+    static {
+        for (int i = 1; i < FADE_OUT_WIDTH; ++i) {
+            double x = (i * Math.PI) / FADE_OUT_WIDTH;
+            FADE_OUT_ALPHA[i] = (int) Math.round((1 + Math.cos(x)) * 63.5) + 128;
+        }
+    }
 
-    private final boolean[][] _buggyPixels;
+    private final BitMask _buggyPixels;
 
     @edu.umd.cs.findbugs.annotations.SuppressWarnings("EI2")
-    public SurroundBuggyPixels(boolean[][] buggyPixels) {
+    public SurroundBuggyPixels(BitMask buggyPixels) {
         _buggyPixels = buggyPixels;
     }
 
-    public void mark(int[][] screenshot) {
-        final int w = Math.min(screenshot.length, _buggyPixels.length);
-        final int h = Math.min(screenshot[0].length, _buggyPixels[0].length);
-        // 1.) Find buggy areas by drawing a circle with a radius of 5 pixels around each buggy pixel ...
-        final boolean[][] buggyAreas = new boolean[w][h];
-        for (int x = 0; x < w; ++x) {
-            for (int y = 0; y < h; ++y) {
-                if (_buggyPixels[x][y]) {
-                    for (int i = -5; i <= 5; ++i) {
-                        final int yy = y + i;
-                        if (yy >= 0 && yy < h) {
-                            final int n = CIRCLE[i + 5];
-                            for (int j = -n; j < n; ++j) {
-                                final int xx = x + j;
-                                if (xx >= 0 && xx < w) {
-                                    buggyAreas[xx][yy] = true;
-                                }
-                            }
+    public SurroundBuggyPixels(boolean[][] buggyPixels) {
+        this(BitMask.fromArray(buggyPixels));
+    }
+
+    public void mark(PixelBuffer screenshot) {
+        final int w = Math.min(screenshot.width, _buggyPixels.width);
+        final int h = Math.min(screenshot.height, _buggyPixels.height);
+        // 1.) Determine bounding box of buggy pixels plus fade out halo ...
+        int minX = w;
+        int maxX = -1;
+        int minY = h;
+        int maxY = -1;
+        for (int y = 0; y < h; ++y) {
+            final int x1 = _buggyPixels.nextSetBit(0, y);
+            if (x1 >= 0 && x1 < w) {
+                minX = Math.min(minX, x1);
+                maxX = Math.max(maxX, _buggyPixels.previousSetBit(w - 1, y));
+                minY = Math.min(minY, y);
+                maxY = y;
+            }
+        }
+        int bx = 0;
+        int by = 0;
+        int bw = 0;
+        int bh = 0;
+        if (maxY >= 0) {
+            final int margin = RADIUS + FADE_OUT_WIDTH;
+            bx = Math.max(0, minX - margin);
+            by = Math.max(0, minY - margin);
+            bw = Math.min(w, maxX + margin + 1) - bx;
+            bh = Math.min(h, maxY + margin + 1) - by;
+            // 2.) Calculate the distance of each pixel in the bounding box to the nearest buggy pixel ...
+            final int[] distances = calculateDistances(bx, by, bw, bh);
+            // 3.) Surround buggy areas (all pixels within RADIUS) with red lines
+            //     and fade out non-buggy areas depending on their distance to the buggy areas ...
+            final PixelBuffer redLines = new PixelBuffer(bw, bh);
+            redLines.fill(TRANSPARENT);
+            final PixelBuffer fadeOutMask = new PixelBuffer(bw, bh);
+            fadeOutMask.fill(FADED_OUT);
+            final int buggyArea = RADIUS * ORTHOGONAL;
+            final int redLinesStart = buggyArea - ORTHOGONAL;
+            final int redLinesEnd = buggyArea + 2 * ORTHOGONAL;
+            for (int y = 0; y < bh; ++y) {
+                final int o = y * bw;
+                for (int x = 0; x < bw; ++x) {
+                    final int d = distances[o + x];
+                    if (redLinesStart < d && d <= redLinesEnd) {
+                        redLines.data[o + x] = RED;
+                    }
+                    if (d <= buggyArea) {
+                        fadeOutMask.data[o + x] = 0xFFFFFFFF;
+                    } else {
+                        final int i = (d - buggyArea + ORTHOGONAL - 1) / ORTHOGONAL;
+                        if (i < FADE_OUT_WIDTH) {
+                            fadeOutMask.data[o + x] = (FADE_OUT_ALPHA[i] << 24) | 0xFFFFFF;
                         }
                     }
                 }
             }
+            ImageHelper.blend(screenshot, redLines, bx, by);
+            ImageHelper.blend(screenshot, fadeOutMask, bx, by);
         }
-        // 2.) Surround buggy areas with red lines ...
-        final int[][] redLines = new int[w][h];
-        for (int x = 0; x < w; ++x) {
-            for (int y = 0; y < h; ++y) {
-                redLines[x][y] = TRANSPARENT;
+        // 4.) Fade out all pixels outside of the bounding box uniformly -- row by row with
+        //     a single row as mask, so that no mask as large as the screenshot is needed ...
+        final int[] row = new int[w];
+        Arrays.fill(row, FADED_OUT);
+        final PixelBuffer wholeRow = new PixelBuffer(w, 1, w, row);
+        final PixelBuffer leftOfBoundingBox = new PixelBuffer(bx, 1, w, row);
+        final PixelBuffer rightOfBoundingBox = new PixelBuffer(w - bx - bw, 1, w, row);
+        for (int y = 0; y < h; ++y) {
+            if (y < by || y >= by + bh) {
+                ImageHelper.blend(screenshot, wholeRow, 0, y);
+            } else {
+                ImageHelper.blend(screenshot, leftOfBoundingBox, 0, y);
+                ImageHelper.blend(screenshot, rightOfBoundingBox, bx + bw, y);
             }
         }
-        List<Point> outlinePoints = new ArrayList<Point>();
-        final boolean[][] buggyAreasOutlines = ImageHelper.findOutlines(buggyAreas);
-        for (int x = 0; x < w; ++x) {
-            for (int y = 0; y < h; ++y) {
-                if (buggyAreasOutlines[x][y]) {
-                    outlinePoints.add(new Point(x, y));
-                    for (int i = -1; i <= 1; ++i) {
-                        final int xx = x + i;
-                        if (xx >= 0 && xx < w) {
-                            for (int j = -1; j <= 1; ++j) {
-                                final int yy = y + j;
-                                if (yy >= 0 && yy < h) {
-                                    redLines[xx][yy] = RED;
-                                }
-                            }
-                        }
-                    }
-                }
+    }
+
+    /**
+     * Returns the chamfer distances (in thirds of a pixel) of all pixels in the given
+     * rectangle to the nearest buggy pixel, row by row. Two passes (top left to bottom right
+     * and back) are enough, because each pass propagates distances from half of the
+     * 8 neighbours. The rectangle must contain all buggy pixels, otherwise the distances
+     * near its border would be too large.
+     */
+    private int[] calculateDistances(int bx, int by, int bw, int bh) {
+        final int[] d = new int[bw * bh];
+        Arrays.fill(d, INFINITY);
+        for (int y = 0; y < bh; ++y) {
+            final int o = y * bw;
+            for (int x = _buggyPixels.nextSetBit(bx, by + y); x >= 0 && x < bx + bw; x = _buggyPixels.nextSetBit(x + 1, by + y)) {
+                d[o + x - bx] = 0;
             }
         }
-        // 3.) Blend red lines into screenshot ...
-        ImageHelper.blend(screenshot, redLines);
-        // 4.) Fade out non-buggy areas ...
-        final int n = 50;
-        final int[] a = new int[n];
-        for (int i = 1; i < n; ++i) {
-            double x = (i * Math.PI) / n;
-            a[i] = (int) Math.round((1 + Math.cos(x)) * 63.5) + 128;
-        }
-        final int[][] fadeOutMask = new int[w][h];
-        for (int x = 0; x < w; ++x) {
-            for (int y = 0; y < h; ++y) {
-                fadeOutMask[x][y] = buggyAreas[x][y] ? 0xFFFFFFFF : 0x80FFFFFF;
+        for (int y = 0; y < bh; ++y) {
+            final int o = y * bw;
+            for (int x = 0; x < bw; ++x) {
+                int m = d[o + x];
+                if (x > 0) {
+                    m = Math.min(m, d[o + x - 1] + ORTHOGONAL);
+                }
+                if (y > 0) {
+                    final int u = o - bw + x;
+                    m = Math.min(m, d[u] + ORTHOGONAL);
+                    if (x > 0) {
+                        m = Math.min(m, d[u - 1] + DIAGONAL);
+                    }
+                    if (x < bw - 1) {
+                        m = Math.min(m, d[u + 1] + DIAGONAL);
+                    }
+                }
+                d[o + x] = m;
             }
         }
-        for (int i = 1; i < n; ++i) {
-            int m = (a[i] << 24) | 0xFFFFFF;
-            final List<Point> newOutlinePoints = new ArrayList<Point>(outlinePoints.size() * 2);
-            for (Point outlinePoint : outlinePoints) {
-                int x = outlinePoint.x;
-                int y = outlinePoint.y;
-                for (int j = -1; j <= 1; ++j) {
-                    final int xx = x + j;
-                    if (xx >= 0 && xx < w) {
-                        for (int k = -1; k <= 1; ++k) {
-                            final int yy = y + k;
-                            if (yy >= 0 && yy < h) {
-                                if (!buggyAreas[xx][yy]) {
-                                    fadeOutMask[xx][yy] = m;
-                                    buggyAreas[xx][yy] = true;
-                                    newOutlinePoints.add(new Point(xx, yy));
-                                }
-                            }
-                        }
+        for (int y = bh - 1; y >= 0; --y) {
+            final int o = y * bw;
+            for (int x = bw - 1; x >= 0; --x) {
+                int m = d[o + x];
+                if (x < bw - 1) {
+                    m = Math.min(m, d[o + x + 1] + ORTHOGONAL);
+                }
+                if (y < bh - 1) {
+                    final int b = o + bw + x;
+                    m = Math.min(m, d[b] + ORTHOGONAL);
+                    if (x > 0) {
+                        m = Math.min(m, d[b - 1] + DIAGONAL);
+                    }
+                    if (x < bw - 1) {
+                        m = Math.min(m, d[b + 1] + DIAGONAL);
                     }
                 }
+                d[o + x] = m;
             }
-            outlinePoints = newOutlinePoints;
         }
-        ImageHelper.blend(screenshot, fadeOutMask);
+        return d;
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A 4-connected area of text pixels with its bounding box
+ * and the vertical extent of the area in each column,
+ * see {@link Artifact#TEXT_COMPONENTS}.
+ */
+public final class TextComponent {
+
+    public final int minX;
+    public final int maxX;
+    /** <code>minY[x - minX]</code> is the smallest y coordinate of a pixel of this component in column <code>x</code>. */
+    final int[] minY;
+    /** <code>maxY[x - minX]</code> is the biggest y coordinate of a pixel of this component in column <code>x</code>. */
+    final int[] maxY;
+
+    private TextComponent(int minX, int maxX) {
+        this.minX = minX;
+        this.maxX = maxX;
+        minY = new int[maxX - minX + 1];
+        maxY = new int[maxX - minX + 1];
+        Arrays.fill(minY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the smallest y coordinate of a pixel of this component in the given column,
+     * or <code>Integer.MAX_VALUE</code> if this component has no pixel in the given column.
+     */
+    public int getMinY(int x) {
+        return minY[x - minX];
+    }
+
+    /**
+     * Returns the biggest y coordinate of a pixel of this component in the given column.
+     */
+    public int getMaxY(int x) {
+        return maxY[x - minX];
+    }
+
+    /**
+     * Returns the (approximate) number of bytes occupied by this component.
+     */
+    public long sizeInBytes() {
+        return 32 + minY.length * 8L;
+    }
+
+    /**
+     * Finds all 4-connected components of the set bits of the given mask with a two-pass
+     * connected component labelling: The first pass collects the horizontal runs of set bits
+     * row by row and unites each run with all overlapping runs in the row above. The second
+     * pass determines the bounding box and the vertical extent in each column of each component.
+     * Only the area from 0,0 to <code>w - 1</code>,<code>h - 1</code> of the given mask is looked at.
+     * The components are ordered by the position of their topmost leftmost pixel.
+     */
+    public static List<TextComponent> findIn(BitMask text, int w, int h) {
+        // 1.) Collect runs and unite overlapping runs of adjacent rows ...
+        int n = 0;
+        int[] runY = new int[1024];
+        int[] runX1 = new int[1024];
+        int[] runX2 = new int[1024];
+        int[] parent = new int[1024];
+        int previousRowStart = 0;
+        int previousRowEnd = 0;
+        for (int y = 0; y < h; ++y) {
+            final int rowStart = n;
+            int j = previousRowStart;
+            int x1 = text.nextSetBit(0, y);
+            while (x1 >= 0 && x1 < w) {
+                final int x2 = Math.min(w, text.nextClearBit(x1, y));
+                if (n == parent.length) {
+                    runY = Arrays.copyOf(runY, 2 * n);
+                    runX1 = Arrays.copyOf(runX1, 2 * n);
+                    runX2 = Arrays.copyOf(runX2, 2 * n);
+                    parent = Arrays.copyOf(parent, 2 * n);
+                }
+                runY[n] = y;
+                runX1[n] = x1;
+                runX2[n] = x2;
+                parent[n] = n;
+                // Skip runs in the row above, which end before this run starts ...
+                while (j < previousRowEnd && runX2[j] <= x1) {
+                    ++j;
+                }
+                for (int k = j; k < previousRowEnd && runX1[k] < x2; ++k) {
+                    union(parent, n, k);
+                }
+                ++n;
+                x1 = text.nextSetBit(x2, y);
+            }
+            previousRowStart = rowStart;
+            previousRowEnd = n;
+        }
+        // 2.) Determine bounding box of each component ...
+        final int[] componentIndex = new int[n];
+        final List<int[]> boundingBoxes = new ArrayList<int[]>();
+        for (int i = 0; i < n; ++i) {
+            final int root = find(parent, i);
+            if (root == i) {
+                componentIndex[i] = boundingBoxes.size();
+                boundingBoxes.add(new int[] { runX1[i], runX2[i] - 1 });
+            } else {
+                // the root of a run is always a run with a lower index ...
+                componentIndex[i] = componentIndex[root];
+                final int[] boundingBox = boundingBoxes.get(componentIndex[i]);
+                boundingBox[0] = Math.min(boundingBox[0], runX1[i]);
+                boundingBox[1] = Math.max(boundingBox[1], runX2[i] - 1);
+            }
+        }
+        final List<TextComponent> components = new ArrayList<TextComponent>(boundingBoxes.size());
+        for (int[] boundingBox : boundingBoxes) {
+            components.add(new TextComponent(boundingBox[0], boundingBox[1]));
+        }
+        // 3.) Determine vertical extent of each component in each column, runs are sorted by y ...
+        for (int i = 0; i < n; ++i) {
+            final TextComponent component = components.get(componentIndex[i]);
+            final int y = runY[i];
+            for (int x = runX1[i] - component.minX, x2 = runX2[i] - component.minX; x < x2; ++x) {
+                if (component.minY[x] == Integer.MAX_VALUE) {
+                    component.minY[x] = y;
+                }
+                component.maxY[x] = y;
+            }
+        }
+        return components;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            // path halving ...
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Unites the sets of <code>i</code> and <code>j</code>, the root with the lower index becomes the new root.
+     */
+    private static void union(int[] parent, int i, int j) {
+        final int rootI = find(parent, i);
+        final int rootJ = find(parent, j);
+        if (rootI < rootJ) {
+            parent[rootJ] = rootI;
+        } else if (rootJ < rootI) {
+            parent[rootI] = rootJ;
+        }
+    }
+}
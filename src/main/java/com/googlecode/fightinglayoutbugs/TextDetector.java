@@ -16,6 +16,8 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+
 /**
  * Detects those pixels, which belong to
  * textual content in a web page.
@@ -30,10 +32,10 @@ public interface TextDetector {
     void ignore(String jQuerySelector);
 
     /**
-     * Returns a two dimensional array <tt>a</tt>, whereby <tt>a[x][y]</tt> is <tt>true</tt>
+     * Returns a bit mask <tt>m</tt>, whereby <tt>m.get(x, y)</tt> is <tt>true</tt>
      * if the pixel with the coordinates x,y in a {@link WebPage#getScreenshot screenshot} of the
-     * given web page belongs to displayed text, otherwise <tt>a[x][y]</tt> is <tt>false</tt>.
+     * given web page belongs to displayed text, otherwise <tt>m.get(x, y)</tt> is <tt>false</tt>.
      */
-    boolean[][] detectTextPixelsIn(WebPage webPage);
+    BitMask detectTextPixelsIn(WebPage webPage);
 
 }
@@ -16,7 +16,9 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 import com.googlecode.fightinglayoutbugs.helpers.ImageHelper;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
 
 import java.util.ArrayList;
@@ -27,8 +29,8 @@ import java.util.List;
 public class Visualization {
 
     public interface Listener {
-        void algorithmStepFinished(String algorithm, String stepDescription, int[][] tempResult);
-        void algorithmFinished(String algorithm, String stepDescription, int[][] result);
+        void algorithmStepFinished(String algorithm, String stepDescription, PixelBuffer tempResult);
+        void algorithmFinished(String algorithm, String stepDescription, PixelBuffer result);
     }
 
     private static final ThreadLocal<List<Listener>> LISTENERS = new ThreadLocal<List<Listener>>() {
@@ -57,6 +59,14 @@ public class Visualization {
         }
     }
 
+    /**
+     * Returns <code>true</code> if there are registered listeners for the current thread,
+     * so that results which are only needed for visualization are not calculated otherwise.
+     */
+    public static boolean hasListeners() {
+        return !LISTENERS.get().isEmpty();
+    }
+
     /**
      * Calls {@link Listener#algorithmStepFinished Listener.algorithmStepFinished(...)}
      * for all registered listeners for the current thread.
@@ -65,7 +75,7 @@ public class Visualization {
         List<Listener> listeners = LISTENERS.get();
         if (!listeners.isEmpty()) {
             String algorithm = determineNameOfCurrentAlgorithm();
-            int[][] pixels = resultToPixels(webPage, tempResult);
+            PixelBuffer pixels = resultToPixels(webPage, tempResult);
             for (Listener listener : listeners) {
                 listener.algorithmStepFinished(algorithm, stepDescription, pixels);
             }
@@ -80,7 +90,7 @@ public class Visualization {
         List<Listener> listeners = LISTENERS.get();
         if (!listeners.isEmpty()) {
             String algorithm = determineNameOfCurrentAlgorithm();
-            int[][] pixels = resultToPixels(webPage, result);
+            PixelBuffer pixels = resultToPixels(webPage, result);
             for (Listener listener : listeners) {
                 listener.algorithmFinished(algorithm, stepDescription, pixels);
             }
@@ -105,48 +115,38 @@ public class Visualization {
      * Converts the object passed as second parameter to either {@link Listener#algorithmStepFinished Listener.algorithmStepFinished(...)}
      * or {@link Listener#algorithmFinished Listener.algorithmFinished(...)} into a PNG image.
      */
-    private static int[][] resultToPixels(WebPage webPage, Object result) {
-        if ((result instanceof CompareScreenshots) || (result instanceof boolean[][])) {
-            boolean[][] b = (result instanceof CompareScreenshots ? ((CompareScreenshots) result).differentPixels : (boolean[][]) result);
-            int w1 = b.length;
-            int h1 = b[0].length;
-            Screenshot screenshot = webPage.getScreenshot();
-            int w2 = screenshot.width;
-            int h2 = screenshot.height;
-            int[][] pixels = ImageHelper.copyOf(screenshot.pixels);
-            int[][] alphaMask = new int[w2][h2];
-            for (int x = 0; x < w2; ++x) {
-                for (int y = 0; y < h2; ++y) {
-                    alphaMask[x][y] = 0x33FFFFFF;
-                }
-            }
-            ImageHelper.blend(pixels, alphaMask);
-            for (int x = 0; x < w2; ++x) {
-                for (int y = 0; y < h2; ++y) {
-                    if (x < w1 && y < h1 && b[x][y]) {
-                        pixels[x][y] = 0;
-                    }
+    private static PixelBuffer resultToPixels(WebPage webPage, Object result) {
+        if ((result instanceof CompareScreenshots) || (result instanceof BitMask) || (result instanceof boolean[][])) {
+            BitMask b = (
+                result instanceof CompareScreenshots ? ((CompareScreenshots) result).differentPixels :
+                result instanceof BitMask ? (BitMask) result :
+                BitMask.fromArray((boolean[][]) result)
+            );
+            PixelBuffer pixels = fadedCopyOfScreenshot(webPage);
+            int w = Math.min(b.width, pixels.width);
+            int h = Math.min(b.height, pixels.height);
+            for (int y = 0; y < h; ++y) {
+                for (int x = b.nextSetBit(0, y); x >= 0 && x < w; x = b.nextSetBit(x + 1, y)) {
+                    pixels.set(x, y, 0);
                 }
             }
             return pixels;
-        } else if ((result instanceof Screenshot) || (result instanceof int[][])) {
-            return (result instanceof Screenshot ? ((Screenshot) result).pixels : (int[][]) result);
+        } else if (result instanceof Screenshot) {
+            return ((Screenshot) result).pixels;
+        } else if (result instanceof ScreenshotCache.Condition) {
+            return webPage.getScreenshot((ScreenshotCache.Condition) result).pixels;
+        } else if (result instanceof PixelBuffer) {
+            return (PixelBuffer) result;
+        } else if (result instanceof int[][]) {
+            return PixelBuffer.fromArray((int[][]) result);
         } else if (result instanceof Collection) {
-            Screenshot screenshot = webPage.getScreenshot();
-            int w = screenshot.width;
-            int h = screenshot.height;
-            int[][] pixels = ImageHelper.copyOf(screenshot.pixels);
-            int[][] alphaMask = new int[w][h];
-            for (int x = 0; x < w; ++x) {
-                for (int y = 0; y < h; ++y) {
-                    alphaMask[x][y] = 0x33FFFFFF;
-                }
-            }
-            ImageHelper.blend(pixels, alphaMask);
+            PixelBuffer pixels = fadedCopyOfScreenshot(webPage);
+            int w = pixels.width;
+            int h = pixels.height;
             for (RectangularRegion r : (Collection<RectangularRegion>) result) {
-                for (int x = r.x1; x <= Math.min(w, r.x2); ++x) {
+                for (int x = r.x1; x <= Math.min(w - 1, r.x2); ++x) {
                     for (int y = r.y1; y < Math.min(h, r.y2); ++y) {
-                        pixels[x][y] = 0;
+                        pixels.set(x, y, 0);
                     }
                 }
             }
@@ -156,5 +156,13 @@ public class Visualization {
         }
     }
 
+    private static PixelBuffer fadedCopyOfScreenshot(WebPage webPage) {
+        PixelBuffer pixels = webPage.getScreenshot().pixels.copy();
+        PixelBuffer alphaMask = new PixelBuffer(pixels.width, pixels.height);
+        alphaMask.fill(0x33FFFFFF);
+        ImageHelper.blend(pixels, alphaMask);
+        return pixels;
+    }
+
     private Visualization() {}
 }
@@ -17,7 +17,10 @@
 package com.googlecode.fightinglayoutbugs;
 
 import com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition;
+import com.googlecode.fightinglayoutbugs.helpers.ArtifactCache;
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
+import com.googlecode.fightinglayoutbugs.helpers.ScanlineSink;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,16 +30,17 @@ import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.lang.ref.SoftReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
 
 import static com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition.UNMODIFIED;
+import static com.googlecode.fightinglayoutbugs.Artifact.*;
 import static com.googlecode.fightinglayoutbugs.helpers.StringHelper.asString;
 
 /**
@@ -48,6 +52,38 @@ import static com.googlecode.fightinglayoutbugs.helpers.StringHelper.asString;
  */
 public class WebPage {
 
+    /**
+     * A JavaScript, which was {@link WebPage#queueJavaScript queued} and is executed together
+     * with all other queued JavaScripts in a single round trip to the browser,
+     * when {@link WebPage#flushJavaScript()} is called.
+     */
+    public final class QueuedJavaScript {
+        private final String _javaScript;
+        private final Object[] _arguments;
+        private boolean _executed;
+        private Object _result;
+        private RuntimeException _failure;
+
+        private QueuedJavaScript(String javaScript, Object[] arguments) {
+            _javaScript = javaScript;
+            _arguments = arguments;
+        }
+
+        /**
+         * Returns the return value of this JavaScript, flushes
+         * the queue first if this JavaScript was not executed yet.
+         */
+        public Object getResult() {
+            if (!_executed) {
+                flushJavaScript();
+            }
+            if (_failure != null) {
+                throw _failure;
+            }
+            return _result;
+        }
+    }
+
     private static final Log LOG = LogFactory.getLog(WebPage.class);
 
     private final WebDriver _driver;
@@ -57,14 +93,15 @@ public class WebPage {
     private EdgeDetector _edgeDetector;
 
     private URL _url;
-    private SoftReference<String> _html;
-    private SoftReference<boolean[][]> _textPixels;
-    private SoftReference<boolean[][]> _horizontalEdges;
-    private SoftReference<boolean[][]> _verticalEdges;
+    private final ArtifactCache _artifactCache = ArtifactCache.getSharedInstance();
+    private final Map<Artifact<?>, ArtifactCache.Entry<?>> _cachedArtifacts = new HashMap<Artifact<?>, ArtifactCache.Entry<?>>();
+    private final Map<Artifact<?>, Integer> _pinCounts = new HashMap<Artifact<?>, Integer>();
+    private final Set<Artifact<?>> _artifactsBeingComputed = new HashSet<Artifact<?>>();
+    private final List<QueuedJavaScript> _queuedJavaScripts = new ArrayList<QueuedJavaScript>();
 
     /**
      * Side effects: <ul>
-     *     <li>will inject <a href="http://jquery.com/">jQuery</a> into the current page (if not already present)</li>
+     *     <li>will install a small JavaScript runtime (<code>window.__flb</code>) into the current page (if not already present)</li>
      *     <li>will stop all JavaScript animations</li>
      *     <li>will stop all CSS animations</li>
      *     <li>will disable all CSS transitions</li>
@@ -73,48 +110,56 @@ public class WebPage {
     public WebPage(WebDriver driver) {
         _driver = driver;
         _screenshotCache = new ScreenshotCache(this);
-        injectJQueryIfNotPresent();
-        stopJavaScriptAnimations();
-        stopCssAnimationsAndDisableCssTransistions();
-    }
-
-    private void injectJQueryIfNotPresent() {
-        // Check if jQuery is present ...
-        if ("undefined".equals(executeJavaScript("return typeof jQuery"))) {
-            String jquery = readResource("jquery-1.7.2.min.js");
-            executeJavaScript(jquery);
-            // Check if jQuery was successfully injected ...
-            if (!"1.7.2".equals(executeJavaScript("return jQuery.fn.jquery"))) {
-                throw new RuntimeException("Failed to inject jQuery.");
-            }
+        // All three steps are executed in a single round trip ...
+        final QueuedJavaScript runtimeInstallation = installRuntime();
+        queueJavaScript("__flb.stopTimers();");
+        queueJavaScript("__flb.stopCssAnimations();");
+        if (!Boolean.TRUE.equals(runtimeInstallation.getResult())) {
+            throw new RuntimeException("Failed to install JavaScript runtime.");
         }
     }
 
-    private void stopJavaScriptAnimations() {
-        executeJavaScript(
-            "var noop = function() {};\n" +
-            "var i;\n" +
-            "var n = window.setTimeout(noop, 1);\n" +
-            "for (i = 0; i <= n; ++i) window.clearTimeout(i);\n" +
-            "window.setTimeout = noop;\n" +
-            "n = window.setInterval(noop, 1);\n" +
-            "for (i = 0; i <= n; ++i) window.clearInterval(i);\n" +
-            "window.setInterval = noop;\n"
+    /**
+     * The runtime is sent with the other scripts of the constructor, because checking
+     * if it is already present would need a round trip of its own. If it is present,
+     * the page at least does not evaluate it again.
+     */
+    private QueuedJavaScript installRuntime() {
+        String runtime = stripLicenseHeaderFrom(readResource("flb-runtime.js"));
+        return queueJavaScript(
+            "if (typeof window.__flb != 'object') {\n" +
+            runtime + "\n" +
+            "}\n" +
+            "return typeof window.__flb == 'object';"
         );
     }
 
-    private void stopCssAnimationsAndDisableCssTransistions() {
-        executeJavaScript(
-            "jQuery('*').each(function() {\n" +
-            "    var $x = jQuery(this);\n" +
-            "    var prefixes = ['', '-webkit-', '-moz-', '-ms-', '-o-'];\n" +
-            "    var i;\n" +
-            "    for (i = 0; i < prefixes.length; ++i) {\n" +
-            "        $x.css(prefixes[i] + 'animation-play-state', 'paused');\n" +
-            "        $x.css(prefixes[i] + 'transition-property', 'none');\n" +
-            "    }" +
-            "}).size();" // ... the trailing ".size()" will reduce the size of the response
+    private static String stripLicenseHeaderFrom(String javaScript) {
+        if (javaScript.startsWith("/*")) {
+            final int i = javaScript.indexOf("*/");
+            if (i != -1) {
+                return javaScript.substring(i + 2).trim();
+            }
+        }
+        return javaScript;
+    }
+
+    /**
+     * Injects <a href="http://jquery.com/">jQuery</a> into the current page (if not already present),
+     * which is only needed for jQuery selectors not supported by <code>document.querySelectorAll</code>.
+     */
+    private void injectJQueryIfNotPresent() {
+        String jquery = readResource("jquery-1.7.2.min.js");
+        Object injected = executeJavaScript(
+            "if (typeof jQuery == 'undefined') {\n" +
+            jquery + "\n" +
+            "    return jQuery.fn.jquery == '1.7.2';\n" +
+            "}\n" +
+            "return true;"
         );
+        if (!Boolean.TRUE.equals(injected)) {
+            throw new RuntimeException("Failed to inject jQuery.");
+        }
     }
 
     public WebDriver getDriver() {
@@ -126,7 +171,7 @@ public class WebPage {
      * default is the {@link AnimationAwareTextDetector}.
      */
     public void setTextDetector(TextDetector textDetector) {
-        if (_textPixels != null) {
+        if (_cachedArtifacts.containsKey(TEXT_PIXELS)) {
             throw new IllegalStateException("getTextPixels() was already called.");
         }
         _textDetector = textDetector;
@@ -137,15 +182,155 @@ public class WebPage {
      * default is the {@link SimpleEdgeDetector}.
      */
     public void setEdgeDetector(EdgeDetector edgeDetector) {
-        if (_horizontalEdges != null) {
+        if (_cachedArtifacts.containsKey(HORIZONTAL_EDGES)) {
             throw new IllegalStateException("getHorizontalEdges() was already called.");
         }
-        if (_verticalEdges != null) {
+        if (_cachedArtifacts.containsKey(VERTICAL_EDGES)) {
             throw new IllegalStateException("getVerticalEdges() was already called.");
         }
         _edgeDetector = edgeDetector;
     }
 
+    /**
+     * See {@link ScreenshotCache#setUseStylesheets}.
+     */
+    public void setUseStylesheetsForScreenshots(boolean useStylesheets) {
+        _screenshotCache.setUseStylesheets(useStylesheets);
+    }
+
+    TextDetector getTextDetector() {
+        if (_textDetector == null) {
+            _textDetector = new AnimationAwareTextDetector();
+        }
+        return _textDetector;
+    }
+
+    EdgeDetector getEdgeDetector() {
+        if (_edgeDetector == null) {
+            _edgeDetector = new SimpleEdgeDetector();
+        }
+        return _edgeDetector;
+    }
+
+    /**
+     * Returns the value of the given artifact for this web page, which is computed
+     * (after all its {@link Artifact#getDependencies dependencies}) if it was not
+     * computed yet or if it was evicted from the {@link ArtifactCache}.
+     */
+    @Nonnull
+    public <T> T get(Artifact<T> artifact) {
+        T value = getCached(artifact);
+        if (value == null) {
+            value = compute(artifact);
+        }
+        return value;
+    }
+
+    private <T> T compute(Artifact<T> artifact) {
+        if (!_artifactsBeingComputed.add(artifact)) {
+            throw new IllegalStateException("Cyclic dependency detected: " + artifact + " depends on itself.");
+        }
+        try {
+            // Compute all dependencies first and make sure they are not evicted before this artifact is computed ...
+            final List<Artifact<?>> dependencies = artifact.getDependencies();
+            for (Artifact<?> dependency : dependencies) {
+                pin(dependency);
+            }
+            try {
+                for (Artifact<?> dependency : dependencies) {
+                    get(dependency);
+                }
+                final long start = System.nanoTime();
+                final T value = artifact.computeFor(this);
+                if (value == null) {
+                    throw new IllegalStateException(artifact.getClass().getName() + ".computeFor(...) returned null for " + artifact + ".");
+                }
+                cache(artifact, value, System.nanoTime() - start);
+                return value;
+            } finally {
+                for (Artifact<?> dependency : dependencies) {
+                    unpin(dependency);
+                }
+            }
+        } finally {
+            _artifactsBeingComputed.remove(artifact);
+        }
+    }
+
+    /**
+     * Prevents the given artifact from being evicted from the {@link ArtifactCache}
+     * (once it is computed) until {@link #unpin} is called as often as <code>pin</code>
+     * was called -- call this method if an upcoming {@link LayoutBugDetector} needs it.
+     */
+    public void pin(Artifact<?> artifact) {
+        Integer pinCount = _pinCounts.get(artifact);
+        if (pinCount == null) {
+            ArtifactCache.Entry<?> entry = _cachedArtifacts.get(artifact);
+            if (entry != null) {
+                entry.pin();
+            }
+            _pinCounts.put(artifact, 1);
+        } else {
+            _pinCounts.put(artifact, pinCount + 1);
+        }
+    }
+
+    public void unpin(Artifact<?> artifact) {
+        Integer pinCount = _pinCounts.get(artifact);
+        if (pinCount == null) {
+            throw new IllegalStateException("unpin(" + artifact + ") called more often than pin(" + artifact + ").");
+        } else if (pinCount == 1) {
+            _pinCounts.remove(artifact);
+            ArtifactCache.Entry<?> entry = _cachedArtifacts.get(artifact);
+            if (entry != null) {
+                entry.unpin();
+            }
+        } else {
+            _pinCounts.put(artifact, pinCount - 1);
+        }
+    }
+
+    /**
+     * Returns the cached value of the given artifact or <code>null</code>
+     * if it was not computed yet or was evicted from the {@link ArtifactCache}.
+     */
+    @Nullable
+    private <T> T getCached(Artifact<T> artifact) {
+        @SuppressWarnings("unchecked")
+        ArtifactCache.Entry<T> entry = (ArtifactCache.Entry<T>) _cachedArtifacts.get(artifact);
+        if (entry == null) {
+            return null;
+        }
+        T value = entry.get();
+        if (value == null) {
+            LOG.debug(artifact + " was evicted from the ArtifactCache, computing it again -- increase the budget of the shared ArtifactCache to speed up layout bug detection.");
+        }
+        return value;
+    }
+
+    private <T> void cache(Artifact<T> artifact, T value, long costInNanos) {
+        // While an artifact is pinned, the entry for it holds exactly one pin ...
+        final boolean pinned = _pinCounts.containsKey(artifact);
+        final long sizeInBytes = artifact.sizeInBytes(value);
+        final ArtifactCache.Entry<?> oldEntry = _cachedArtifacts.put(artifact, pinned ? _artifactCache.putPinned(this, value, sizeInBytes, costInNanos) : _artifactCache.put(this, value, sizeInBytes, costInNanos, null));
+        if (oldEntry != null) {
+            // The old entry is still alive (and maybe pinned), if it was recomputed together with another artifact ...
+            oldEntry.remove();
+        }
+    }
+
+    /**
+     * Releases all artifacts and screenshots of this web page, which are kept in the shared
+     * {@link ArtifactCache} or in temporary files -- call this method when you are done with this
+     * web page, otherwise they are only released, after this web page has been garbage collected.
+     * If this web page is used afterwards, all artifacts and screenshots are computed again.
+     */
+    public void close() {
+        _artifactCache.removeAllOf(this);
+        _cachedArtifacts.clear();
+        _screenshotCache.dispose();
+    }
+
     /**
      * Returns the URL of this web page.
      */
@@ -166,12 +351,7 @@ public class WebPage {
      */
     @Nonnull
     public String getHtml() {
-        String html = (_html == null ? null : _html.get());
-        if (html == null) {
-            html = _driver.getPageSource();
-            _html = new SoftReference<String>(html);
-        }
-        return html;
+        return get(HTML);
     }
 
     public Screenshot getScreenshot() {
@@ -182,6 +362,14 @@ public class WebPage {
         return _screenshotCache.getScreenshot(condition);
     }
 
+    /**
+     * Delivers the pixels of the (cached) screenshot for the given condition row by row to the given sink,
+     * without restoring the whole screenshot, if it was evicted from memory, see {@link ScreenshotCache#scanScreenshot}.
+     */
+    public void scanScreenshot(Condition condition, ScanlineSink sink) {
+        _screenshotCache.scanScreenshot(condition, sink);
+    }
+
     /**
      * Bypasses the cache and always takes a screenshot.
      */
@@ -197,55 +385,42 @@ public class WebPage {
     }
 
     /**
-     * Returns a two dimensional array <tt>a</tt>, whereby <tt>a[x][y]</tt> is <tt>true</tt>
+     * Bypasses the cache and always takes a screenshot, which is only decoded on demand
+     * -- use this method if you only need to look at small parts of the screenshot.
+     */
+    public EncodedScreenshot takeEncodedScreenshot() {
+        return _screenshotCache.takeEncodedScreenshot(UNMODIFIED);
+    }
+
+    /**
+     * Returns a bit mask <tt>m</tt>, whereby <tt>m.get(x, y)</tt> is <tt>true</tt>
      * if the pixel with the coordinates x,y in a {@link #getScreenshot screenshot} of this web page
-     * belongs to displayed text, otherwise <tt>a[x][y]</tt> is <tt>false</tt>.
+     * belongs to displayed text, otherwise <tt>m.get(x, y)</tt> is <tt>false</tt>.
      */
-    public boolean[][] getTextPixels() {
-        boolean[][] textPixels;
-        if (_textPixels == null) {
-            if (_textDetector == null) {
-                _textDetector = new AnimationAwareTextDetector();
-            }
-            textPixels = _textDetector.detectTextPixelsIn(this);
-            _textPixels = new SoftReference<boolean[][]>(textPixels);
-        } else {
-            textPixels = _textPixels.get();
-            if (textPixels == null) {
-                LOG.warn("Cached result of text detection was garbage collected, running text detection again -- give the JVM more heap memory to speed up layout bug detection.");
-                _textPixels = null;
-                return getTextPixels();
-            }
-        }
-        return textPixels;
+    public BitMask getTextPixels() {
+        return get(TEXT_PIXELS);
     }
 
-    @edu.umd.cs.findbugs.annotations.SuppressWarnings("SBSC")
+    /**
+     * Returns the regions covered by all visible elements matching one of the given selectors.
+     * The selectors are evaluated with <code>document.querySelectorAll</code>, jQuery is only
+     * injected for selectors using jQuery extensions (like <code>:contains(...)</code>).
+     */
     public Collection<RectangularRegion> getRectangularRegionsCoveredBy(Collection<String> jQuerySelectors) {
         if (jQuerySelectors.isEmpty()) {
             return Collections.emptySet();
         }
-        // 1.) Assemble JavaScript to select elements ...
-        Iterator<String> i = jQuerySelectors.iterator();
-        String js = "jQuery('" + i.next().replace("'", "\\'");
-        while (i.hasNext()) {
-            js += "').add('" + i.next().replace("'", "\\'");
+        // 1.) Execute JavaScript ...
+        final List<String> selectors = new ArrayList<String>(jQuerySelectors);
+        Object temp = executeJavaScript("return __flb.regions(arguments[0]);", selectors);
+        if (temp instanceof Map) {
+            // Some selectors are not supported by the browser ...
+            injectJQueryIfNotPresent();
+            temp = executeJavaScript("return __flb.regions(arguments[0]);", selectors);
         }
-        js += "').filter(':visible')";
-        // 2.) Assemble JavaScript function to fill an array with rectangular region of each selected element ...
-        js = "function() { " +
-                 "var a = new Array(); " +
-                  js + ".each(function(i, e) { " +
-                           "var j = jQuery(e); " +
-                           "var o = j.offset(); " +
-                           "a.push({ top: o.top, left: o.left, width: j.width(), height: j.height() }); " +
-                       "}); " +
-                 "return a; " +
-             "}";
-        // 3.) Execute JavaScript function ...
         @SuppressWarnings("unchecked")
-        List<Map<String, Number>> list = (List<Map<String, Number>>) executeJavaScript("return (" + js + ")()");
-        // 4.) Convert JavaScript return value to Java return value ...
+        List<Map<String, Number>> list = (List<Map<String, Number>>) temp;
+        // 2.) Convert JavaScript return value to Java return value ...
         if (list.isEmpty()) {
             return Collections.emptySet();
         }
@@ -277,51 +452,39 @@ public class WebPage {
     }
 
     /**
-     * Returns a two dimensional array <tt>a</tt>, whereby <tt>a[x][y]</tt> is <tt>true</tt>
+     * Returns a bit mask <tt>m</tt>, whereby <tt>m.get(x, y)</tt> is <tt>true</tt>
      * if the pixel with the coordinates x,y in a {@link #getScreenshot screenshot} of this web page
-     * belongs to a horizontal edge, otherwise <tt>a[x][y]</tt> is <tt>false</tt>.
+     * belongs to a horizontal edge, otherwise <tt>m.get(x, y)</tt> is <tt>false</tt>.
      */
-    public boolean[][] getHorizontalEdges() {
-        boolean[][] horizontalEdges;
-        if (_horizontalEdges == null) {
-            if (_edgeDetector == null) {
-                _edgeDetector = new SimpleEdgeDetector();
-            }
-            horizontalEdges = _edgeDetector.detectHorizontalEdgesIn(this);
-            _horizontalEdges = new SoftReference<boolean[][]>(horizontalEdges);
-        } else {
-            horizontalEdges = _textPixels.get();
-            if (horizontalEdges == null) {
-                LOG.warn("Cached result of horizontal edge detection was garbage collected, running horizontal edge detection again -- give the JVM more heap memory to speed up layout bug detection.");
-                _horizontalEdges = null;
-                return getHorizontalEdges();
-            }
-        }
-        return horizontalEdges;
+    public BitMask getHorizontalEdges() {
+        return get(HORIZONTAL_EDGES);
     }
 
     /**
-     * Returns a two dimensional array <tt>a</tt>, whereby <tt>a[x][y]</tt> is <tt>true</tt>
+     * Returns a bit mask <tt>m</tt>, whereby <tt>m.get(x, y)</tt> is <tt>true</tt>
      * if the pixel with the coordinates x,y in a {@link #getScreenshot screenshot} of this web page
-     * belongs to a vertical edge, otherwise <tt>a[x][y]</tt> is <tt>false</tt>.
+     * belongs to a vertical edge, otherwise <tt>m.get(x, y)</tt> is <tt>false</tt>.
      */
-    public boolean[][] getVerticalEdges() {
-        boolean[][] verticalEdges;
-        if (_verticalEdges == null) {
-            if (_edgeDetector == null) {
-                _edgeDetector = new SimpleEdgeDetector();
-            }
-            verticalEdges = _edgeDetector.detectVerticalEdgesIn(this);
-            _verticalEdges = new SoftReference<boolean[][]>(verticalEdges);
-        } else {
-            verticalEdges = _textPixels.get();
-            if (verticalEdges == null) {
-                LOG.warn("Cached result of vertical edge detection was garbage collected, running vertical edge detection again -- give the JVM more heap memory to speed up layout bug detection.");
-                _verticalEdges = null;
-                return getVerticalEdges();
-            }
+    public BitMask getVerticalEdges() {
+        return get(VERTICAL_EDGES);
+    }
+
+    /**
+     * Detects horizontal and vertical edges at once and caches the result, which
+     * is not being computed right now, so that the second of {@link #getHorizontalEdges()}
+     * and {@link #getVerticalEdges()} does not need to run the edge detection again.
+     */
+    Edges detectHorizontalAndVerticalEdges() {
+        final long start = System.nanoTime();
+        Edges edges = ((HorizontalAndVerticalEdgeDetector) getEdgeDetector()).detectEdgesIn(this);
+        final long costInNanos = System.nanoTime() - start;
+        if (!_artifactsBeingComputed.contains(HORIZONTAL_EDGES)) {
+            cache(HORIZONTAL_EDGES, edges.horizontalEdges, costInNanos);
+        }
+        if (!_artifactsBeingComputed.contains(VERTICAL_EDGES)) {
+            cache(VERTICAL_EDGES, edges.verticalEdges, costInNanos);
         }
-        return verticalEdges;
+        return edges;
     }
 
     /**
@@ -332,9 +495,84 @@ public class WebPage {
     }
 
     /**
-     * Executes the given JavaScript in the context of this web page.
+     * Executes the given JavaScript in the context of this web page
+     * (after all {@link #queueJavaScript queued} JavaScripts).
      */
     protected Object executeJavaScript(String javaScript, Object... arguments) {
+        return queueJavaScript(javaScript, arguments).getResult();
+    }
+
+    /**
+     * Queues the given JavaScript, which will be executed in the context of this web page
+     * with the next call of {@link #flushJavaScript()} -- use this method instead of
+     * {@link #executeJavaScript executeJavaScript(...)} for several consecutive changes
+     * of this web page, so that they are sent to the browser in a single round trip.
+     */
+    protected QueuedJavaScript queueJavaScript(String javaScript, Object... arguments) {
+        final QueuedJavaScript queuedJavaScript = new QueuedJavaScript(javaScript, arguments);
+        _queuedJavaScripts.add(queuedJavaScript);
+        return queuedJavaScript;
+    }
+
+    /**
+     * Executes all {@link #queueJavaScript queued} JavaScripts in one round trip
+     * (in the order they were queued) and hands the return value of each JavaScript
+     * to its {@link QueuedJavaScript}. If a JavaScript fails, the following JavaScripts
+     * are not executed and the exception of the failed JavaScript is thrown.
+     */
+    protected void flushJavaScript() {
+        if (_queuedJavaScripts.isEmpty()) {
+            return;
+        }
+        final List<QueuedJavaScript> queuedJavaScripts = new ArrayList<QueuedJavaScript>(_queuedJavaScripts);
+        _queuedJavaScripts.clear();
+        RuntimeException failure = null;
+        if (queuedJavaScripts.size() == 1) {
+            final QueuedJavaScript queuedJavaScript = queuedJavaScripts.get(0);
+            queuedJavaScript._executed = true;
+            try {
+                queuedJavaScript._result = executeScript(queuedJavaScript._javaScript, queuedJavaScript._arguments);
+            } catch (RuntimeException e) {
+                queuedJavaScript._failure = failure = e;
+            }
+        } else {
+            // 1.) Assemble JavaScript, which calls each queued JavaScript with its own arguments and collects the results ...
+            final StringBuilder sb = new StringBuilder("var a = arguments, r = [];\n");
+            final Object[] arguments = new Object[queuedJavaScripts.size()];
+            for (int i = 0; i < arguments.length; ++i) {
+                final QueuedJavaScript queuedJavaScript = queuedJavaScripts.get(i);
+                // Each result is wrapped into an array, so that it can be distinguished from an error message ...
+                sb.append("try { r.push([(function() {\n").append(queuedJavaScript._javaScript).append("\n}).apply(this, a[").append(i).append("])]); } catch (e) { r.push('' + e); return r; }\n");
+                arguments[i] = Arrays.asList(queuedJavaScript._arguments);
+            }
+            sb.append("return r;");
+            // 2.) Execute JavaScript ...
+            List<?> results = Collections.emptyList();
+            try {
+                results = (List<?>) executeScript(sb.toString(), arguments);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            // 3.) Demultiplex results ...
+            for (int i = 0; i < arguments.length; ++i) {
+                final QueuedJavaScript queuedJavaScript = queuedJavaScripts.get(i);
+                queuedJavaScript._executed = true;
+                final Object result = (results != null && i < results.size() ? results.get(i) : null);
+                if (result instanceof List) {
+                    queuedJavaScript._result = ((List<?>) result).get(0);
+                } else if (failure == null) {
+                    queuedJavaScript._failure = failure = new RuntimeException("Failed to execute JavaScript: " + result);
+                } else {
+                    queuedJavaScript._failure = failure;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Object executeScript(String javaScript, Object... arguments) {
         if (_driver instanceof JavascriptExecutor) {
             return ((JavascriptExecutor) _driver).executeScript(javaScript, arguments);
         } else {
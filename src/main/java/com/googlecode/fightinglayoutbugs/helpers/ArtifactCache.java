@@ -0,0 +1,386 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps expensive intermediate results (screenshots, text pixels, edges, ...)
+ * in memory as long as their total size does not exceed a byte budget.
+ * If the budget is exceeded, unpinned entries are evicted with the
+ * GreedyDual-Size algorithm: each entry has a priority, which is the
+ * current <i>age</i> of the cache plus the cost to recompute the entry
+ * per byte; the entry with the lowest priority is evicted and the age of the
+ * cache is set to its priority. So entries, which are cheap to recompute
+ * compared to their size, are evicted first, and entries, which have not been
+ * used for a while, are evicted eventually. If all entries have the same
+ * cost per byte, this is plain LRU.
+ * <p>
+ * Unlike {@link java.lang.ref.SoftReference}s, entries are only evicted when
+ * a new entry is put into the cache or when the budget is reduced, not
+ * whenever the garbage collector feels like it.
+ * <p>
+ * An entry can have an <i>owner</i> (e.g. the {@link com.googlecode.fightinglayoutbugs.WebPage}
+ * it was computed for): all entries of an owner can be removed at once with {@link #removeAllOf},
+ * and they are removed automatically, after the owner has been garbage collected.
+ */
+public class ArtifactCache {
+
+    /** Shared by all {@link com.googlecode.fightinglayoutbugs.WebPage}s, the budget is a quarter of the maximal heap size. */
+    private static final ArtifactCache SHARED_INSTANCE = new ArtifactCache(Runtime.getRuntime().maxMemory() / 4);
+
+    public static ArtifactCache getSharedInstance() {
+        return SHARED_INSTANCE;
+    }
+
+    public interface EvictionListener<T> {
+        /**
+         * Called after the given value was evicted -- while the cache is locked,
+         * so implementations must not access the cache (or wait for a thread which does).
+         */
+        void evicted(T value);
+    }
+
+    /**
+     * The handle for a cached value, the value itself is only strongly
+     * referenced by the entry until the entry is evicted or removed.
+     */
+    public final class Entry<T> {
+        private final OwnerReference _owner;
+        private T _value;
+        private long _sizeInBytes;
+        private final long _costInNanos;
+        private double _costPerByte;
+        private final EvictionListener<? super T> _evictionListener;
+        private double _priority;
+        private long _lastAccess;
+        private int _pinCount;
+
+        private Entry(@Nullable OwnerReference owner, T value, long sizeInBytes, long costInNanos, @Nullable EvictionListener<? super T> evictionListener) {
+            _owner = owner;
+            _value = value;
+            _sizeInBytes = sizeInBytes;
+            _costInNanos = costInNanos;
+            _costPerByte = (double) costInNanos / Math.max(1, sizeInBytes);
+            _evictionListener = evictionListener;
+        }
+
+        /**
+         * Returns the cached value, or <code>null</code> if it was evicted or removed.
+         */
+        @Nullable
+        public T get() {
+            synchronized (ArtifactCache.this) {
+                if (_value == null) {
+                    ++_misses;
+                } else {
+                    ++_hits;
+                    touch(this);
+                }
+                return _value;
+            }
+        }
+
+        /**
+         * Returns the cached value, or <code>null</code> if it was evicted or removed,
+         * without counting a hit or a miss and without changing the priority of this entry.
+         */
+        @Nullable
+        public T peek() {
+            synchronized (ArtifactCache.this) {
+                return _value;
+            }
+        }
+
+        /**
+         * Updates the size of this entry (unless it was evicted or removed), e.g. after
+         * its value has lazily built additional data, evicts entries if the budget is exceeded now.
+         */
+        public void setSizeInBytes(long sizeInBytes) {
+            synchronized (ArtifactCache.this) {
+                if (_value != null) {
+                    _usedSizeInBytes += sizeInBytes - _sizeInBytes;
+                    _sizeInBytes = sizeInBytes;
+                    _costPerByte = (double) _costInNanos / Math.max(1, sizeInBytes);
+                    evictIfNeeded();
+                }
+            }
+        }
+
+        /**
+         * Prevents this entry from being evicted until {@link #unpin} is called
+         * as often as <code>pin</code> was called. Pinned entries still count
+         * against the budget of the cache.
+         */
+        public void pin() {
+            synchronized (ArtifactCache.this) {
+                ++_pinCount;
+            }
+        }
+
+        public void unpin() {
+            synchronized (ArtifactCache.this) {
+                if (_pinCount == 0) {
+                    throw new IllegalStateException("unpin() called more often than pin().");
+                }
+                --_pinCount;
+                if (_pinCount == 0) {
+                    evictIfNeeded();
+                }
+            }
+        }
+
+        /**
+         * Evicts this entry now (unless it is pinned), which
+         * notifies the {@link EvictionListener} of this entry.
+         */
+        public void evict() {
+            synchronized (ArtifactCache.this) {
+                if (_value != null && _pinCount == 0) {
+                    ArtifactCache.this.evict(this);
+                }
+            }
+        }
+
+        /**
+         * Removes this entry from the cache (even if it is pinned)
+         * without notifying the {@link EvictionListener} of this entry.
+         */
+        public void remove() {
+            synchronized (ArtifactCache.this) {
+                if (_value != null) {
+                    _entries.remove(this);
+                    _usedSizeInBytes -= _sizeInBytes;
+                    _value = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Shared by all entries of the same owner, enqueued after the owner has been garbage collected.
+     */
+    private static final class OwnerReference extends WeakReference<Object> {
+        private OwnerReference(Object owner, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+        }
+    }
+
+    private final Set<Entry<?>> _entries = new LinkedHashSet<Entry<?>>();
+    private final Map<Object, OwnerReference> _owners = new WeakHashMap<Object, OwnerReference>();
+    private final ReferenceQueue<Object> _collectedOwners = new ReferenceQueue<Object>();
+    private long _maxSizeInBytes;
+    private long _usedSizeInBytes;
+    private double _age;
+    private long _accessCount;
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+
+    public ArtifactCache(long maxSizeInBytes) {
+        _maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Sets the maximal number of bytes occupied by all unevicted entries,
+     * evicts entries immediately if the new budget is exceeded.
+     */
+    public synchronized void setMaxSizeInBytes(long maxSizeInBytes) {
+        _maxSizeInBytes = maxSizeInBytes;
+        evictIfNeeded();
+    }
+
+    public synchronized long getMaxSizeInBytes() {
+        return _maxSizeInBytes;
+    }
+
+    /**
+     * Returns the number of bytes occupied by all unevicted entries,
+     * which might exceed the budget if too many entries are pinned.
+     */
+    public synchronized long getSizeInBytes() {
+        removeEntriesOfCollectedOwners();
+        return _usedSizeInBytes;
+    }
+
+    /**
+     * Returns how often {@link Entry#get()} returned a value.
+     */
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    /**
+     * Returns how often {@link Entry#get()} returned <code>null</code>,
+     * because the value was evicted and has to be recomputed.
+     */
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    /**
+     * Returns how many entries were evicted.
+     */
+    public synchronized long getEvictions() {
+        return _evictions;
+    }
+
+    /**
+     * Puts the given value into this cache, the entry might be evicted
+     * immediately if it is cheaper to recompute than all other entries
+     * and the budget is exceeded.
+     *
+     * @param sizeInBytes the (approximate) number of bytes occupied by the given value
+     * @param costInNanos the time it took to compute the given value
+     */
+    public <T> Entry<T> put(T value, long sizeInBytes, long costInNanos) {
+        return put(value, sizeInBytes, costInNanos, null);
+    }
+
+    /**
+     * Same as {@link #put(Object, long, long)}, but the given listener is
+     * notified if the returned entry is evicted, e.g. to keep a cheaper
+     * representation of the evicted value.
+     */
+    public <T> Entry<T> put(T value, long sizeInBytes, long costInNanos, @Nullable EvictionListener<? super T> evictionListener) {
+        return put(null, value, sizeInBytes, costInNanos, evictionListener);
+    }
+
+    /**
+     * Same as {@link #put(Object, long, long, EvictionListener)}, but the returned
+     * entry belongs to the given owner, see {@link #removeAllOf}.
+     */
+    public synchronized <T> Entry<T> put(@Nullable Object owner, T value, long sizeInBytes, long costInNanos, @Nullable EvictionListener<? super T> evictionListener) {
+        return add(new Entry<T>(getOwnerReference(owner), value, sizeInBytes, costInNanos, evictionListener), 0);
+    }
+
+    /**
+     * Same as {@link #put(Object, long, long)}, but the returned entry is already
+     * pinned, so that it can not be evicted before {@link Entry#unpin} is called.
+     */
+    public <T> Entry<T> putPinned(T value, long sizeInBytes, long costInNanos) {
+        return putPinned(null, value, sizeInBytes, costInNanos);
+    }
+
+    /**
+     * Same as {@link #putPinned(Object, long, long)}, but the returned
+     * entry belongs to the given owner, see {@link #removeAllOf}.
+     */
+    public synchronized <T> Entry<T> putPinned(@Nullable Object owner, T value, long sizeInBytes, long costInNanos) {
+        return add(new Entry<T>(getOwnerReference(owner), value, sizeInBytes, costInNanos, null), 1);
+    }
+
+    /**
+     * Removes all entries of the given owner (even if they are pinned)
+     * without notifying their {@link EvictionListener}s.
+     */
+    public synchronized void removeAllOf(Object owner) {
+        final OwnerReference ownerReference = _owners.remove(owner);
+        if (ownerReference != null) {
+            removeAllOf(ownerReference);
+        }
+    }
+
+    private void removeAllOf(OwnerReference ownerReference) {
+        final Iterator<Entry<?>> i = _entries.iterator();
+        while (i.hasNext()) {
+            final Entry<?> entry = i.next();
+            if (entry._owner == ownerReference) {
+                i.remove();
+                _usedSizeInBytes -= entry._sizeInBytes;
+                entry._value = null;
+            }
+        }
+    }
+
+    @Nullable
+    private OwnerReference getOwnerReference(@Nullable Object owner) {
+        if (owner == null) {
+            return null;
+        }
+        OwnerReference ownerReference = _owners.get(owner);
+        if (ownerReference == null) {
+            ownerReference = new OwnerReference(owner, _collectedOwners);
+            _owners.put(owner, ownerReference);
+        }
+        return ownerReference;
+    }
+
+    /**
+     * Removes the entries of all owners, which have been garbage collected.
+     */
+    private void removeEntriesOfCollectedOwners() {
+        Reference<?> ownerReference;
+        while ((ownerReference = _collectedOwners.poll()) != null) {
+            removeAllOf((OwnerReference) ownerReference);
+        }
+    }
+
+    private <T> Entry<T> add(Entry<T> entry, int pinCount) {
+        if (entry._value == null) {
+            throw new IllegalArgumentException("Method parameter value must not be null.");
+        }
+        removeEntriesOfCollectedOwners();
+        entry._pinCount = pinCount;
+        _entries.add(entry);
+        _usedSizeInBytes += entry._sizeInBytes;
+        touch(entry);
+        evictIfNeeded();
+        return entry;
+    }
+
+    private void touch(Entry<?> entry) {
+        entry._priority = _age + entry._costPerByte;
+        entry._lastAccess = ++_accessCount;
+    }
+
+    private void evictIfNeeded() {
+        while (_usedSizeInBytes > _maxSizeInBytes) {
+            Entry<?> victim = null;
+            for (Entry<?> entry : _entries) {
+                if (entry._pinCount == 0 && (victim == null || entry._priority < victim._priority || (entry._priority == victim._priority && entry._lastAccess < victim._lastAccess))) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                // All entries are pinned ...
+                return;
+            }
+            _age = victim._priority;
+            evict(victim);
+        }
+    }
+
+    private <T> void evict(Entry<T> entry) {
+        final T value = entry._value;
+        _entries.remove(entry);
+        _usedSizeInBytes -= entry._sizeInBytes;
+        entry._value = null;
+        ++_evictions;
+        if (entry._evictionListener != null) {
+            entry._evictionListener.evicted(value);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A two dimensional mask of <code>width</code> x <code>height</code> bits,
+ * which uses one bit per pixel. The bits are stored row by row in a
+ * <code>long[]</code> array, each row starts at a new <code>long</code> word,
+ * so that operations like {@link #and}, {@link #or} and {@link #andNot}
+ * handle 64 pixels at once. Unused bits at the end of each row are always <code>0</code>.
+ */
+public final class BitMask implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int width;
+    public final int height;
+    /** Number of <code>long</code> words used for each row. */
+    public final int wordsPerRow;
+
+    private final long[] _words;
+    /** Mask for the used bits in the last word of each row. */
+    private final long _lastWordMask;
+
+    /**
+     * Creates a new bit mask of the given size, all bits are cleared.
+     */
+    public BitMask(int width, int height) {
+        if (width < 0) {
+            throw new IllegalArgumentException("width (" + width + ") must not be negative.");
+        }
+        if (height < 0) {
+            throw new IllegalArgumentException("height (" + height + ") must not be negative.");
+        }
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + 63) >>> 6;
+        _words = new long[wordsPerRow * height];
+        _lastWordMask = ((width & 63) == 0 ? -1L : (1L << (width & 63)) - 1);
+    }
+
+    /**
+     * Converts the given two dimensional array <tt>a</tt>, whereby
+     * <tt>a[x][y]</tt> is the bit for the coordinates x,y, into a new bit mask.
+     */
+    public static BitMask fromArray(boolean[][] a) {
+        if (a == null) {
+            return null;
+        }
+        final int w = a.length;
+        final int h = (w == 0 ? 0 : a[0].length);
+        final BitMask result = new BitMask(w, h);
+        for (int x = 0; x < w; ++x) {
+            final boolean[] column = a[x];
+            final long bit = 1L << x;
+            int i = x >>> 6;
+            for (int y = 0; y < h; ++y, i += result.wordsPerRow) {
+                if (column[y]) {
+                    result._words[i] |= bit;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new two dimensional array <tt>a</tt>, whereby <tt>a[x][y]</tt>
+     * is <code>true</code> if the bit for the coordinates x,y is set -- only use
+     * this method to interact with code, which does not know about <code>BitMask</code>s.
+     */
+    public boolean[][] toArray() {
+        final boolean[][] a = new boolean[width][height];
+        for (int y = 0; y < height; ++y) {
+            int x = nextSetBit(0, y);
+            while (x >= 0) {
+                a[x][y] = true;
+                x = nextSetBit(x + 1, y);
+            }
+        }
+        return a;
+    }
+
+    public boolean get(int x, int y) {
+        return (_words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y) {
+        _words[y * wordsPerRow + (x >>> 6)] |= (1L << x);
+    }
+
+    public void set(int x, int y, boolean value) {
+        if (value) {
+            set(x, y);
+        } else {
+            clear(x, y);
+        }
+    }
+
+    public void clear(int x, int y) {
+        _words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+    }
+
+    /**
+     * Sets the 64 bits in row <code>y</code> starting at <code>x</code> (which must be a multiple of 64)
+     * to the bits of the given word, bit <code>i</code> of the word becomes the bit at <code>x + i</code>.
+     * Bits beyond the width of this bit mask are ignored.
+     */
+    public void setWord(int x, int y, long word) {
+        final int i = x >>> 6;
+        _words[y * wordsPerRow + i] = (i == wordsPerRow - 1 ? word & _lastWordMask : word);
+    }
+
+    /**
+     * Sets all bits in row <code>y</code> from <code>x1</code> (inclusive) to <code>x2</code> (exclusive).
+     */
+    public void setRange(int x1, int x2, int y) {
+        if (x1 < x2) {
+            final int o = y * wordsPerRow;
+            final int i1 = x1 >>> 6;
+            final int i2 = (x2 - 1) >>> 6;
+            final long firstWordMask = -1L << x1;
+            final long lastWordMask = -1L >>> -x2;
+            if (i1 == i2) {
+                _words[o + i1] |= (firstWordMask & lastWordMask);
+            } else {
+                _words[o + i1] |= firstWordMask;
+                for (int i = i1 + 1; i < i2; ++i) {
+                    _words[o + i] = -1L;
+                }
+                _words[o + i2] |= lastWordMask;
+            }
+        }
+    }
+
+    /**
+     * Clears all bits in row <code>y</code> from <code>x1</code> (inclusive) to <code>x2</code> (exclusive).
+     */
+    public void clearRange(int x1, int x2, int y) {
+        if (x1 < x2) {
+            final int o = y * wordsPerRow;
+            final int i1 = x1 >>> 6;
+            final int i2 = (x2 - 1) >>> 6;
+            final long firstWordMask = -1L << x1;
+            final long lastWordMask = -1L >>> -x2;
+            if (i1 == i2) {
+                _words[o + i1] &= ~(firstWordMask & lastWordMask);
+            } else {
+                _words[o + i1] &= ~firstWordMask;
+                for (int i = i1 + 1; i < i2; ++i) {
+                    _words[o + i] = 0;
+                }
+                _words[o + i2] &= ~lastWordMask;
+            }
+        }
+    }
+
+    /**
+     * Clears all bits inside the given rectangular region,
+     * the parts of the region outside of this bit mask are ignored.
+     */
+    public void clear(RectangularRegion region) {
+        final int x1 = region.x1;
+        final int x2 = Math.min(width, region.x2 + 1);
+        final int y2 = Math.min(height - 1, region.y2);
+        for (int y = region.y1; y <= y2; ++y) {
+            clearRange(x1, x2, y);
+        }
+    }
+
+    /**
+     * Returns the x coordinate of the first set bit in row <code>y</code>,
+     * which is at or to the right of <code>x</code>, or <code>-1</code>
+     * if there is no such bit.
+     */
+    public int nextSetBit(int x, int y) {
+        if (x >= width) {
+            return -1;
+        }
+        final int o = y * wordsPerRow;
+        int i = x >>> 6;
+        long word = _words[o + i] & (-1L << x);
+        while (word == 0) {
+            if (++i == wordsPerRow) {
+                return -1;
+            }
+            word = _words[o + i];
+        }
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Returns the x coordinate of the first cleared bit in row <code>y</code>,
+     * which is at or to the right of <code>x</code>, or <code>width</code>
+     * if there is no such bit.
+     */
+    public int nextClearBit(int x, int y) {
+        if (x >= width) {
+            return width;
+        }
+        final int o = y * wordsPerRow;
+        int i = x >>> 6;
+        long word = ~_words[o + i] & (-1L << x);
+        while (word == 0) {
+            if (++i == wordsPerRow) {
+                return width;
+            }
+            word = ~_words[o + i];
+        }
+        return Math.min(width, (i << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * Returns the x coordinate of the last set bit in row <code>y</code>,
+     * which is at or to the left of <code>x</code>, or <code>-1</code>
+     * if there is no such bit.
+     */
+    public int previousSetBit(int x, int y) {
+        if (x < 0) {
+            return -1;
+        }
+        final int o = y * wordsPerRow;
+        int i = x >>> 6;
+        long word = _words[o + i] & (-1L >>> (63 - (x & 63)));
+        while (word == 0) {
+            if (--i < 0) {
+                return -1;
+            }
+            word = _words[o + i];
+        }
+        return (i << 6) + 63 - Long.numberOfLeadingZeros(word);
+    }
+
+    /**
+     * Returns a new bit mask, in which all bits are set, which are set in this bit mask
+     * or have a set 4-neighbour (above, below, left or right) in this bit mask --
+     * computed 64 bits at a time.
+     */
+    public BitMask dilate() {
+        final BitMask result = new BitMask(width, height);
+        final long[] w = _words;
+        final int n = wordsPerRow;
+        for (int y = 0; y < height; ++y) {
+            final int o = y * n;
+            for (int i = 0; i < n; ++i) {
+                final long word = w[o + i];
+                long dilated = word | (word << 1) | (word >>> 1);
+                if (i > 0) {
+                    dilated |= w[o + i - 1] >>> 63;
+                }
+                if (i < n - 1) {
+                    dilated |= w[o + i + 1] << 63;
+                }
+                if (y > 0) {
+                    dilated |= w[o - n + i];
+                }
+                if (y < height - 1) {
+                    dilated |= w[o + n + i];
+                }
+                result._words[o + i] = dilated;
+            }
+            if (n > 0) {
+                result._words[o + n - 1] &= _lastWordMask;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns <code>true</code> if at least one bit is set.
+     */
+    public boolean any() {
+        for (long word : _words) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if no bit is set.
+     */
+    public boolean isEmpty() {
+        return !any();
+    }
+
+    /**
+     * Returns the number of set bits.
+     */
+    public int cardinality() {
+        int n = 0;
+        for (long word : _words) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of set bits inside the given rectangular region,
+     * the parts of the region outside of this bit mask are ignored.
+     */
+    public int cardinality(RectangularRegion region) {
+        final int x1 = region.x1;
+        final int x2 = Math.min(width, region.x2 + 1);
+        final int y2 = Math.min(height - 1, region.y2);
+        int n = 0;
+        if (x1 < x2) {
+            final int i1 = x1 >>> 6;
+            final int i2 = (x2 - 1) >>> 6;
+            final long firstWordMask = -1L << x1;
+            final long lastWordMask = -1L >>> -x2;
+            for (int y = region.y1; y <= y2; ++y) {
+                final int o = y * wordsPerRow;
+                if (i1 == i2) {
+                    n += Long.bitCount(_words[o + i1] & firstWordMask & lastWordMask);
+                } else {
+                    n += Long.bitCount(_words[o + i1] & firstWordMask);
+                    for (int i = i1 + 1; i < i2; ++i) {
+                        n += Long.bitCount(_words[o + i]);
+                    }
+                    n += Long.bitCount(_words[o + i2] & lastWordMask);
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns <code>true</code> if this bit mask and the given one have at least one set bit in common.
+     */
+    public boolean intersects(BitMask other) {
+        final int h = Math.min(height, other.height);
+        final int n = Math.min(wordsPerRow, other.wordsPerRow);
+        for (int y = 0; y < h; ++y) {
+            final int o1 = y * wordsPerRow;
+            final int o2 = y * other.wordsPerRow;
+            for (int i = 0; i < n; ++i) {
+                if ((_words[o1 + i] & other._words[o2 + i]) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clears all bits, which are not set in the given bit mask, and returns this bit mask.
+     */
+    public BitMask and(BitMask other) {
+        final int h = Math.min(height, other.height);
+        final int n = Math.min(wordsPerRow, other.wordsPerRow);
+        for (int y = 0; y < h; ++y) {
+            final int o1 = y * wordsPerRow;
+            final int o2 = y * other.wordsPerRow;
+            for (int i = 0; i < n; ++i) {
+                _words[o1 + i] &= other._words[o2 + i];
+            }
+            Arrays.fill(_words, o1 + n, o1 + wordsPerRow, 0);
+        }
+        Arrays.fill(_words, h * wordsPerRow, _words.length, 0);
+        return this;
+    }
+
+    /**
+     * Sets all bits, which are set in the given bit mask, and returns this bit mask.
+     * Bits of the given bit mask outside of this bit mask are ignored.
+     */
+    public BitMask or(BitMask other) {
+        final int h = Math.min(height, other.height);
+        final int n = Math.min(wordsPerRow, other.wordsPerRow);
+        for (int y = 0; y < h; ++y) {
+            final int o1 = y * wordsPerRow;
+            final int o2 = y * other.wordsPerRow;
+            for (int i = 0; i < n; ++i) {
+                _words[o1 + i] |= other._words[o2 + i];
+            }
+            if (n == wordsPerRow && n > 0) {
+                _words[o1 + n - 1] &= _lastWordMask;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Clears all bits, which are set in the given bit mask, and returns this bit mask.
+     */
+    public BitMask andNot(BitMask other) {
+        final int h = Math.min(height, other.height);
+        final int n = Math.min(wordsPerRow, other.wordsPerRow);
+        for (int y = 0; y < h; ++y) {
+            final int o1 = y * wordsPerRow;
+            final int o2 = y * other.wordsPerRow;
+            for (int i = 0; i < n; ++i) {
+                _words[o1 + i] &= ~other._words[o2 + i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes occupied by the bits of this mask.
+     */
+    public long sizeInBytes() {
+        return _words.length * 8L;
+    }
+
+    public BitMask copy() {
+        final BitMask copy = new BitMask(width, height);
+        System.arraycopy(_words, 0, copy._words, 0, _words.length);
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        return (width << 16 | height) ^ Arrays.hashCode(_words);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof BitMask) {
+            BitMask other = (BitMask) o;
+            return (this.width == other.width && this.height == other.height && Arrays.equals(this._words, other._words));
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BitMask[" + width + "x" + height + ", " + cardinality() + " bits set]";
+    }
+}
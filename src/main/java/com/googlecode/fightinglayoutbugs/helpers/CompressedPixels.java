@@ -0,0 +1,168 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The pixels of a {@link PixelBuffer} (without alpha channel) compressed with
+ * a run-length encoding: the pixels are read row by row, and each run of up to
+ * 256 pixels with the same color is stored as a single <code>int</code> -- the run
+ * length minus one in the upper 8 bits and the RGB value in the lower 24 bits.
+ * Runs may continue in the next row, so large areas with the same color shrink to
+ * almost nothing. The pixels can be decompressed completely or delivered row by row
+ * to a {@link ScanlineSink}, which only needs a single (pooled) row buffer.
+ */
+public final class CompressedPixels implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_RUN_LENGTH = 256;
+
+    public final int width;
+    public final int height;
+    private final int[] _runs;
+
+    public static CompressedPixels compress(PixelBuffer pixels) {
+        return compress(pixels, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns <code>null</code> if the compressed pixels would occupy more
+     * than the given number of bytes (no memory is allocated in this case).
+     */
+    @Nullable
+    public static CompressedPixels compress(PixelBuffer pixels, long maxSizeInBytes) {
+        // 1.) Count runs, so that no array needs to grow ...
+        final int n = encode(pixels, null);
+        if (sizeInBytes(n) > maxSizeInBytes) {
+            return null;
+        }
+        // 2.) Store runs ...
+        final int[] runs = new int[n];
+        encode(pixels, runs);
+        return new CompressedPixels(pixels.width, pixels.height, runs);
+    }
+
+    /**
+     * Returns the number of runs, and stores them into the given array, if it is not <code>null</code>.
+     */
+    private static int encode(PixelBuffer pixels, @Nullable int[] runs) {
+        if (pixels.width == 0 || pixels.height == 0) {
+            return 0;
+        }
+        final int[] data = pixels.data;
+        int n = 0;
+        int rgb = data[0] & 0xFFFFFF;
+        int length = 0;
+        for (int y = 0; y < pixels.height; ++y) {
+            for (int i = y * pixels.stride, end = i + pixels.width; i < end; ++i) {
+                final int p = data[i] & 0xFFFFFF;
+                if (p != rgb || length == MAX_RUN_LENGTH) {
+                    if (runs != null) {
+                        runs[n] = ((length - 1) << 24) | rgb;
+                    }
+                    ++n;
+                    rgb = p;
+                    length = 0;
+                }
+                ++length;
+            }
+        }
+        if (runs != null) {
+            runs[n] = ((length - 1) << 24) | rgb;
+        }
+        return n + 1;
+    }
+
+    private static long sizeInBytes(int numRuns) {
+        return 4L * numRuns;
+    }
+
+    private CompressedPixels(int width, int height, int[] runs) {
+        this.width = width;
+        this.height = height;
+        _runs = runs;
+    }
+
+    /**
+     * Returns the (approximate) number of bytes occupied by these compressed pixels.
+     */
+    public long sizeInBytes() {
+        return sizeInBytes(_runs.length);
+    }
+
+    /**
+     * Copies <code>n</code> pixels starting at position <code>offsetInRun</code> of run <code>i</code>
+     * into <code>dst</code> (or skips them, if <code>dst</code> is <code>null</code>) and returns
+     * the position after the last copied pixel: the run index in the upper and the offset in the lower 32 bits.
+     */
+    private long copy(int i, int offsetInRun, int n, @Nullable int[] dst, int offset) {
+        int o = offsetInRun;
+        int remaining = n;
+        while (remaining > 0) {
+            final int run = _runs[i];
+            final int m = Math.min(remaining, (run >>> 24) + 1 - o);
+            if (dst != null) {
+                Arrays.fill(dst, offset, offset + m, run & 0xFFFFFF);
+                offset += m;
+            }
+            remaining -= m;
+            o += m;
+            if (o == (run >>> 24) + 1) {
+                ++i;
+                o = 0;
+            }
+        }
+        return ((long) i << 32) | o;
+    }
+
+    /**
+     * Delivers the pixels row by row to the given sink, only one row is decompressed at a time.
+     */
+    public void writeTo(ScanlineSink sink) {
+        sink.startImage(width, height);
+        final int[] row = IntArrayPool.ROW_BUFFERS.take(width);
+        try {
+            long position = 0;
+            for (int y = 0; y < height; ++y) {
+                final boolean wanted = sink.wantsScanline(y);
+                position = copy((int) (position >>> 32), (int) position, width, wanted ? row : null, 0);
+                if (wanted && !sink.scanline(y, row)) {
+                    return;
+                }
+            }
+        } finally {
+            IntArrayPool.ROW_BUFFERS.release(row);
+        }
+    }
+
+    /**
+     * Returns the decompressed pixels in a new <code>PixelBuffer</code>. Unlike the row buffers
+     * used by {@link #writeTo}, it is not taken from an {@link IntArrayPool}: the returned pixels
+     * become part of a {@link com.googlecode.fightinglayoutbugs.Screenshot}, which can still be
+     * referenced by detectors after it was evicted from the cache, so nobody knows when they
+     * could safely be reused. Use {@link #writeTo} if the pixels are only scanned once.
+     */
+    public PixelBuffer decompress() {
+        final PixelBuffer pixels = new PixelBuffer(width, height);
+        copy(0, 0, width * height, pixels.data, 0);
+        return pixels;
+    }
+}
@@ -16,23 +16,27 @@
 
 package com.googlecode.fightinglayoutbugs.helpers;
 
+import com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.BandTask;
 import org.apache.commons.io.IOUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
-import java.io.ByteArrayInputStream;
+import java.awt.image.*;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 import static com.googlecode.fightinglayoutbugs.helpers.FileHelper.createParentDirectoryIfNeeded;
+import static com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.forEachBand;
 
 public class ImageHelper {
 
@@ -69,14 +73,19 @@ public class ImageHelper {
     }
 
     public static int[][] pngToPixels(byte[] png) {
-        InputStream in = new ByteArrayInputStream(png);
+        PixelBuffer pixels = pngToPixelBuffer(png);
+        return (pixels == null ? null : pixels.toArray());
+    }
+
+    /**
+     * Decodes the given PNG image with {@link PngDecoder}, therefore
+     * neither AWT nor ImageIO is used.
+     */
+    public static PixelBuffer pngToPixelBuffer(byte[] png) {
         try {
-            BufferedImage image = ImageIO.read(in);
-            return imageToPixels(image);
+            return PngDecoder.decode(png);
         } catch (IOException e) {
-            throw new RuntimeException("Should never happen.", e);
-        } finally {
-            IOUtils.closeQuietly(in);
+            throw new RuntimeException("Failed to decode PNG image.", e);
         }
     }
 
@@ -94,35 +103,364 @@ public class ImageHelper {
         }
     }
 
+    public static void pixelsToPngFile(PixelBuffer pixels, File pngFile) {
+        BufferedImage image = pixelsToImage(pixels);
+        createParentDirectoryIfNeeded(pngFile);
+        imageToPngFile(image, pngFile);
+    }
+
+    public static void pixelsToPngFile(BitMask pixels, File pngFile) {
+        BufferedImage image = pixelsToImage(pixels);
+        createParentDirectoryIfNeeded(pngFile);
+        imageToPngFile(image, pngFile);
+    }
+
     public static void pixelsToPngFile(boolean[][] pixels, File pngFile) {
         BufferedImage image = pixelsToImage(pixels);
         createParentDirectoryIfNeeded(pngFile);
         imageToPngFile(image, pngFile);
     }
 
+    /** First four bytes of a file written by {@link #pixelsToRawFile}: "FLB" followed by the format version. */
+    private static final int RAW_FILE_MAGIC = 0x464C4201;
+    private static final int RAW_FILE_HEADER_SIZE = 16;
+
+    /**
+     * Writes the given pixels uncompressed (in native byte order) to the given file,
+     * so that they can be read back with {@link #rawFileToPixels} without any decoding.
+     * The file is only meant to be read by the same JVM, which has written it.
+     */
+    public static void pixelsToRawFile(PixelBuffer pixels, File rawFile) {
+        createParentDirectoryIfNeeded(rawFile);
+        try {
+            RawFileWriter writer = new RawFileWriter(rawFile, pixels.width, pixels.height);
+            try {
+                for (int y = 0; y < pixels.height; ++y) {
+                    writer.writeRow(pixels.data, y * pixels.stride);
+                }
+                writer.flush();
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write pixels to file: " + rawFile, e);
+        }
+    }
+
+    /**
+     * Same as {@link #pixelsToRawFile}, but the given pixels are decompressed
+     * row by row, so that they never occupy the heap uncompressed.
+     */
+    public static void compressedPixelsToRawFile(CompressedPixels pixels, final File rawFile) {
+        createParentDirectoryIfNeeded(rawFile);
+        try {
+            final RawFileWriter writer = new RawFileWriter(rawFile, pixels.width, pixels.height);
+            try {
+                pixels.writeTo(new ScanlineSink() {
+                    @Override
+                    public void startImage(int width, int height) {}
+
+                    @Override
+                    public boolean wantsScanline(int y) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean scanline(int y, int[] rgb) {
+                        try {
+                            writer.writeRow(rgb, 0);
+                        } catch (IOException e) {
+                            throw new RuntimeException("Failed to write pixels to file: " + rawFile, e);
+                        }
+                        return true;
+                    }
+                });
+                writer.flush();
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write pixels to file: " + rawFile, e);
+        }
+    }
+
+    /**
+     * Writes the header and the rows of a raw pixel file through a 64 KB buffer.
+     */
+    private static class RawFileWriter {
+        private final FileOutputStream _out;
+        private final FileChannel _channel;
+        private final ByteBuffer _buf = ByteBuffer.allocate(64 * 1024).order(ByteOrder.nativeOrder());
+        private final IntBuffer _intBuf = _buf.asIntBuffer();
+        private final int _width;
+
+        private RawFileWriter(File rawFile, int width, int height) throws IOException {
+            _out = new FileOutputStream(rawFile);
+            _channel = _out.getChannel();
+            _width = width;
+            _intBuf.put(RAW_FILE_MAGIC).put(width).put(height).put(0);
+        }
+
+        /**
+         * Writes the <code>width</code> pixels starting at the given offset.
+         */
+        private void writeRow(int[] data, int offset) throws IOException {
+            int i = offset;
+            int n = _width;
+            while (n > 0) {
+                int m = Math.min(n, _intBuf.remaining());
+                _intBuf.put(data, i, m);
+                i += m;
+                n -= m;
+                if (!_intBuf.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            _buf.clear().limit(_intBuf.position() * 4);
+            while (_buf.hasRemaining()) {
+                _channel.write(_buf);
+            }
+            _intBuf.clear();
+        }
+
+        private void close() {
+            IOUtils.closeQuietly(_out);
+        }
+    }
+
+    /**
+     * Reads pixels written by {@link #pixelsToRawFile} row by row into a new {@link PixelBuffer}.
+     */
+    public static PixelBuffer rawFileToPixels(File rawFile) {
+        try {
+            RawFileReader reader = new RawFileReader(rawFile);
+            try {
+                PixelBuffer pixels = new PixelBuffer(reader._width, reader._height);
+                for (int y = 0; y < pixels.height; ++y) {
+                    reader.readRow(y, pixels.data, y * pixels.stride);
+                }
+                return pixels;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read pixels from file: " + rawFile, e);
+        }
+    }
+
+    /**
+     * Delivers the pixels written by {@link #pixelsToRawFile} row by row to the given sink,
+     * only the wanted rows are read from the given file.
+     */
+    public static void scanRawFile(File rawFile, ScanlineSink sink) {
+        try {
+            RawFileReader reader = new RawFileReader(rawFile);
+            try {
+                int w = reader._width;
+                int h = reader._height;
+                sink.startImage(w, h);
+                int[] row = IntArrayPool.ROW_BUFFERS.take(w);
+                try {
+                    for (int y = 0; y < h; ++y) {
+                        if (sink.wantsScanline(y)) {
+                            reader.readRow(y, row, 0);
+                            if (!sink.scanline(y, row)) {
+                                return;
+                            }
+                        }
+                    }
+                } finally {
+                    IntArrayPool.ROW_BUFFERS.release(row);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read pixels from file: " + rawFile, e);
+        }
+    }
+
+    /**
+     * Reads the header and the rows of a raw pixel file through a {@link FileChannel}. The file is
+     * not memory mapped, because a mapping can not be released explicitly -- it would keep the
+     * (already deleted) file and its disk space until the mapping is garbage collected.
+     */
+    private static class RawFileReader {
+        private final FileInputStream _in;
+        private final FileChannel _channel;
+        private final int _width;
+        private final int _height;
+        private final ByteBuffer _buf;
+        private final IntBuffer _intBuf;
+
+        private RawFileReader(File rawFile) throws IOException {
+            _in = new FileInputStream(rawFile);
+            _channel = _in.getChannel();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(RAW_FILE_HEADER_SIZE).order(ByteOrder.nativeOrder());
+                readFully(header, 0);
+                if (header.getInt(0) != RAW_FILE_MAGIC) {
+                    throw new IOException("Not a raw pixel file.");
+                }
+                _width = header.getInt(4);
+                _height = header.getInt(8);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            _buf = ByteBuffer.allocate(_width * 4).order(ByteOrder.nativeOrder());
+            _intBuf = _buf.asIntBuffer();
+        }
+
+        /**
+         * Reads the <code>width</code> pixels of row <code>y</code> into <code>dst</code> starting at the given offset.
+         */
+        private void readRow(int y, int[] dst, int offset) throws IOException {
+            _buf.clear();
+            readFully(_buf, RAW_FILE_HEADER_SIZE + 4L * y * _width);
+            _intBuf.clear();
+            _intBuf.get(dst, offset, _width);
+        }
+
+        private void readFully(ByteBuffer buf, long position) throws IOException {
+            long p = position;
+            while (buf.hasRemaining()) {
+                int n = _channel.read(buf, p);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of raw pixel file.");
+                }
+                p += n;
+            }
+        }
+
+        private void close() {
+            IOUtils.closeQuietly(_in);
+        }
+    }
+
     public static int[][] imageToPixels(BufferedImage image) {
+        PixelBuffer pixels = imageToPixelBuffer(image);
+        return (pixels == null ? null : pixels.toArray());
+    }
+
+    /**
+     * Converts the given image into a {@link PixelBuffer} with RGB pixels (the alpha channel is dropped).
+     * For the raster layouts returned by {@link ImageIO} for PNG images (3 or 4 interleaved bytes
+     * per pixel, packed ints, 8 bit indexed and 8 bit gray) the pixels are read directly from the
+     * underlying {@link DataBuffer}, all other layouts are converted via {@link BufferedImage#getRGB}.
+     */
+    public static PixelBuffer imageToPixelBuffer(BufferedImage image) {
         if (image == null) {
             return null;
         }
-        int w = image.getWidth();
-        int h = image.getHeight();
-        int[][] pixels = new int[w][h];
+        PixelBuffer pixels = new PixelBuffer(image.getWidth(), image.getHeight());
         Raster raster = image.getRaster();
-        if (raster.getTransferType() == DataBuffer.TYPE_BYTE) {
-            byte[] bytes = (byte[]) raster.getDataElements(0, 0, w, h, null);
-            int bytesPerPixel = (bytes.length / (w*h));
-            ColorModel colorModel = image.getColorModel();
-            byte[] buf = new byte[bytesPerPixel];
-            for (int x = 0; x < w; ++x) {
-                for (int y = 0; y < h; ++y) {
-                    System.arraycopy(bytes, (x + y * w) * bytesPerPixel, buf, 0, bytesPerPixel);
-                    pixels[x][y] = colorModel.getRGB(buf) & 0xFFFFFF;
+        ColorModel colorModel = image.getColorModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        SampleModel sampleModel = raster.getSampleModel();
+        boolean converted = false;
+        if (raster.getMinX() == 0 && raster.getMinY() == 0 && dataBuffer.getNumBanks() == 1) {
+            if (dataBuffer instanceof DataBufferByte && sampleModel instanceof PixelInterleavedSampleModel) {
+                converted = convertInterleavedBytes(raster, (PixelInterleavedSampleModel) sampleModel, colorModel, pixels);
+            } else if (dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel) {
+                converted = convertPackedInts(raster, (SinglePixelPackedSampleModel) sampleModel, colorModel, pixels);
+            }
+        }
+        if (!converted) {
+            image.getRGB(0, 0, pixels.width, pixels.height, pixels.data, 0, pixels.stride);
+            int[] data = pixels.data;
+            for (int i = 0; i < data.length; ++i) {
+                data[i] &= 0xFFFFFF;
+            }
+        }
+        return pixels;
+    }
+
+    private static boolean convertInterleavedBytes(Raster raster, PixelInterleavedSampleModel sampleModel, ColorModel colorModel, PixelBuffer pixels) {
+        final byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+        final int pixelStride = sampleModel.getPixelStride();
+        final int scanlineStride = sampleModel.getScanlineStride();
+        final int[] bandOffsets = sampleModel.getBandOffsets();
+        final int offset = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX() * pixelStride;
+        final int w = pixels.width;
+        final int h = pixels.height;
+        final int[] dst = pixels.data;
+        final int numBands = bandOffsets.length;
+        if (numBands == 1 && sampleModel.getSampleSize(0) == 8) {
+            // Indexed or gray pixels: look up the RGB value of each of the 256 possible bytes once ...
+            final int[] lut = new int[256];
+            if (colorModel instanceof IndexColorModel) {
+                IndexColorModel indexColorModel = (IndexColorModel) colorModel;
+                for (int i = 0; i < indexColorModel.getMapSize(); ++i) {
+                    lut[i] = indexColorModel.getRGB(i) & 0xFFFFFF;
+                }
+            } else if (colorModel instanceof ComponentColorModel && colorModel.getNumComponents() == 1) {
+                final byte[] buf = new byte[1];
+                for (int i = 0; i < 256; ++i) {
+                    buf[0] = (byte) i;
+                    lut[i] = colorModel.getRGB(buf) & 0xFFFFFF;
+                }
+            } else {
+                return false;
+            }
+            final int b0 = bandOffsets[0];
+            for (int y = 0; y < h; ++y) {
+                int i = offset + y * scanlineStride + b0;
+                final int o = y * pixels.stride;
+                for (int x = 0; x < w; ++x, i += pixelStride) {
+                    dst[o + x] = lut[src[i] & 0xFF];
+                }
+            }
+            return true;
+        } else if ((numBands == 3 || numBands == 4)
+                && colorModel instanceof ComponentColorModel
+                && colorModel.getColorSpace().isCS_sRGB()
+                && !colorModel.isAlphaPremultiplied()
+                && colorModel.getNumComponents() == numBands
+                && sampleModel.getSampleSize(0) == 8 && sampleModel.getSampleSize(1) == 8 && sampleModel.getSampleSize(2) == 8) {
+            // e.g. TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR ...
+            final int r0 = bandOffsets[0];
+            final int g0 = bandOffsets[1];
+            final int b0 = bandOffsets[2];
+            for (int y = 0; y < h; ++y) {
+                int i = offset + y * scanlineStride;
+                final int o = y * pixels.stride;
+                for (int x = 0; x < w; ++x, i += pixelStride) {
+                    dst[o + x] = ((src[i + r0] & 0xFF) << 16) | ((src[i + g0] & 0xFF) << 8) | (src[i + b0] & 0xFF);
                 }
             }
-            return pixels;
+            return true;
         } else {
-            throw new RuntimeException("transfer type " + raster.getTransferType() + " not implemented yet");
+            return false;
+        }
+    }
+
+    private static boolean convertPackedInts(Raster raster, SinglePixelPackedSampleModel sampleModel, ColorModel colorModel, PixelBuffer pixels) {
+        if (!(colorModel instanceof DirectColorModel) || colorModel.isAlphaPremultiplied()) {
+            return false;
+        }
+        // e.g. TYPE_INT_RGB and TYPE_INT_ARGB ...
+        final DirectColorModel directColorModel = (DirectColorModel) colorModel;
+        if (directColorModel.getRedMask() != 0xFF0000 || directColorModel.getGreenMask() != 0xFF00 || directColorModel.getBlueMask() != 0xFF || !directColorModel.getColorSpace().isCS_sRGB()) {
+            return false;
+        }
+        final int[] src = ((DataBufferInt) raster.getDataBuffer()).getData();
+        final int scanlineStride = sampleModel.getScanlineStride();
+        final int offset = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX();
+        final int w = pixels.width;
+        final int h = pixels.height;
+        final int[] dst = pixels.data;
+        for (int y = 0; y < h; ++y) {
+            final int i = offset + y * scanlineStride;
+            final int o = y * pixels.stride;
+            for (int x = 0; x < w; ++x) {
+                dst[o + x] = src[i + x] & 0xFFFFFF;
+            }
         }
+        return true;
     }
 
     public static BufferedImage pixelsToImage(int[][] pixels) {
@@ -149,6 +487,31 @@ public class ImageHelper {
         }
     }
 
+    public static BufferedImage pixelsToImage(PixelBuffer pixels) {
+        if (pixels == null) {
+            return null;
+        }
+        BufferedImage image = new BufferedImage(pixels.width, pixels.height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, pixels.width, pixels.height, pixels.data, 0, pixels.stride);
+        return image;
+    }
+
+    public static BufferedImage pixelsToImage(BitMask pixels) {
+        if (pixels == null) {
+            return null;
+        }
+        final int w = pixels.width;
+        final int h = pixels.height;
+        final PixelBuffer temp = new PixelBuffer(w, h);
+        temp.fill(0xFFFFFF);
+        for (int y = 0; y < h; ++y) {
+            for (int x = pixels.nextSetBit(0, y); x >= 0; x = pixels.nextSetBit(x + 1, y)) {
+                temp.set(x, y, 0);
+            }
+        }
+        return pixelsToImage(temp);
+    }
+
     public static BufferedImage pixelsToImage(boolean[][] pixels) {
         if (pixels == null) {
             return null;
@@ -199,7 +562,7 @@ public class ImageHelper {
      */
     @Nullable
     public static RectangularRegion findFirstSubImageInImage(@Nonnull BufferedImage subImage, @Nonnull BufferedImage image) {
-        List<RectangularRegion> temp = findSubImageInImage(subImage, image, 1);
+        List<RectangularRegion> temp = findSubImageInImage(subImage, image, 1, null);
         return (temp.isEmpty() ? null : temp.get(0));
     }
 
@@ -210,75 +573,24 @@ public class ImageHelper {
      */
     @Nonnull
     public static Collection<RectangularRegion> findSubImageInImage(@Nonnull BufferedImage subImage, @Nonnull BufferedImage image) {
-        return findSubImageInImage(subImage, image, Integer.MAX_VALUE);
+        return findSubImageInImage(subImage, image, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Like {@link #findSubImageInImage(BufferedImage, BufferedImage)}, but searches bands of rows
+     * in parallel, if <code>executorService</code> is not <code>null</code>.
+     * The occurrences are returned from top to bottom, and from left to right.
+     */
+    @Nonnull
+    public static List<RectangularRegion> findSubImageInImage(@Nonnull BufferedImage subImage, @Nonnull BufferedImage image, @Nullable ExecutorService executorService) {
+        return findSubImageInImage(subImage, image, Integer.MAX_VALUE, executorService);
     }
 
-    private static List<RectangularRegion> findSubImageInImage(BufferedImage subImage, BufferedImage image, int max) {
-        Map<Integer, List<Point>> rgb2offsets = new HashMap<Integer, List<Point>>();
+    private static List<RectangularRegion> findSubImageInImage(BufferedImage subImage, BufferedImage image, int max, @Nullable ExecutorService executorService) {
         int sw = subImage.getWidth();
         int sh = subImage.getHeight();
-        for (int x = 0; x < sw; ++x) {
-            for (int y = 0; y < sh; ++y) {
-                int argb = subImage.getRGB(x, y);
-                int a = argb >>> 24;
-                if (a == 255) {
-                    Integer rgb = argb & 0xFFFFFF;
-                    List<Point> offsets = rgb2offsets.get(rgb);
-                    if (offsets == null) {
-                        offsets = new ArrayList<Point>();
-                        rgb2offsets.put(rgb, offsets);
-                    }
-                    offsets.add(new Point(x, y));
-                }
-            }
-        }
-        List<RectangularRegion> result = new ArrayList<RectangularRegion>();
-        int w = image.getWidth();
-        int h = image.getHeight();
-        int[][] p = new int[w][h];
-        Raster raster = image.getRaster();
-        if (raster.getTransferType() == DataBuffer.TYPE_BYTE) {
-            byte[] bytes = (byte[]) raster.getDataElements(0, 0, w, h, null);
-            int bytesPerPixel = (bytes.length / (w * h));
-            ColorModel colorModel = image.getColorModel();
-            byte[] buf = new byte[bytesPerPixel];
-            for (int x = 0; x < w; ++x) {
-                for (int y = 0; y < h; ++y) {
-                    System.arraycopy(bytes, (x + y * w) * bytesPerPixel, buf, 0, bytesPerPixel);
-                    p[x][y] = colorModel.getRGB(buf) & 0xFFFFFF;
-                }
-            }
-        } else if (raster.getTransferType() == DataBuffer.TYPE_INT) {
-            for (int x = 0; x < w; ++x) {
-                p[x] = (int[]) raster.getDataElements(x, 0, 1, h, null);
-            }
-        } else {
-            throw new RuntimeException("findSubImageInImage not implemented for image transfer type " + raster.getTransferType() + " yet.");
-        }
-        for (int x = 0; x < w; ++x) {
-            for (int y = 0; y < h; ++y) {
-                Iterator<Map.Entry<Integer, List<Point>>> i = rgb2offsets.entrySet().iterator();
-                compareWithSubImageLoop:
-                while (i.hasNext()) {
-                    Map.Entry<Integer, List<Point>> mapEntry = i.next();
-                    int expectedRgb = mapEntry.getKey();
-                    for (Point offset : mapEntry.getValue()) {
-                        int xx = x + offset.x;
-                        int yy = y + offset.y;
-                        if (xx >= w || yy >= h || expectedRgb != p[xx][yy]) {
-                            break compareWithSubImageLoop;
-                        }
-                    }
-                    if (!i.hasNext()) {
-                        result.add(new RectangularRegion(x, y, x + (sw - 1), y + (sh - 1)));
-                        if (result.size() == max) {
-                            return result;
-                        }
-                    }
-                }
-            }
-        }
-        return result;
+        int[] argb = subImage.getRGB(0, 0, sw, sh, null, 0, sw);
+        return new SubImageFinder(argb, sw, sh).findIn(imageToPixelBuffer(image), max, executorService);
     }
 
     public static void applyConvolutionFilter(int[][] pixels, float[][] kernel) {
@@ -370,6 +682,11 @@ public class ImageHelper {
         int r = (kernelSize / 2);
         int xx, yy;
         float n, d;
+        // Read from a copy, so that already filtered values do not influence their neighbours ...
+        int[][] source = new int[w][];
+        for (int x = 0; x < w; ++x) {
+            source[x] = channel[x].clone();
+        }
         // for each column ...
         for (int x = 0; x < w; ++x) {
             // for each row ...
@@ -384,7 +701,7 @@ public class ImageHelper {
                             yy = y + (j - r);
                             if (0 <= yy && yy < h) {
                                 float k = kernel[i][j];
-                                int oldValue = channel[xx][yy];
+                                int oldValue = source[xx][yy];
                                 assert 0 <= oldValue && oldValue <= 255;
                                 n += k * oldValue;
                                 d += k;
@@ -399,7 +716,39 @@ public class ImageHelper {
         }
     }
 
+    /**
+     * Blurs the given pixels with a Gaussian kernel with the given standard deviation.
+     * @see #gaussianBlur(PixelBuffer, float, ExecutorService)
+     */
     public static void gaussianBlur(int[][] pixels, float sigma) {
+        if (pixels != null && pixels.length > 0 && pixels[0].length > 0) {
+            final PixelBuffer buffer = PixelBuffer.fromArray(pixels);
+            gaussianBlur(buffer, sigma, null);
+            final int w = pixels.length;
+            final int h = pixels[0].length;
+            for (int x = 0; x < w; ++x) {
+                for (int y = 0; y < h; ++y) {
+                    pixels[x][y] = buffer.get(x, y);
+                }
+            }
+        }
+    }
+
+    public static void gaussianBlur(PixelBuffer pixels, float sigma) {
+        gaussianBlur(pixels, sigma, null);
+    }
+
+    /** Minimal number of rows blurred by one task, when blurring in parallel. */
+    private static final int MIN_ROWS_PER_BLUR_TASK = 64;
+
+    /**
+     * Blurs the given pixels (including their alpha channel) with a Gaussian kernel
+     * with the given standard deviation. Because the Gaussian kernel is separable,
+     * this is done with a horizontal and a vertical pass of a 1D kernel,
+     * which needs O(sigma) instead of O(sigma&sup2;) operations per pixel.
+     * If <code>executorService</code> is not <code>null</code>, bands of rows are blurred in parallel.
+     */
+    public static void gaussianBlur(PixelBuffer pixels, float sigma, @Nullable ExecutorService executorService) {
         int kernelSize = (int) Math.ceil(6 * sigma);
         if (kernelSize % 2 == 0) {
             ++kernelSize;
@@ -407,18 +756,243 @@ public class ImageHelper {
         if (kernelSize < 3) {
             kernelSize = 3;
         }
-        float[][] kernel = new float[kernelSize][kernelSize];
-        int m = kernelSize / 2;
-        double q = 2 * sigma * sigma;
-        double f = 1 / (Math.PI * q);
-        for (int x = 0; x < kernelSize; ++x) {
-            int dx = x - m;
-            for (int y = 0; y < kernelSize; ++y) {
-                int dy = y - m;
-                kernel[x][y] = (float) (f * Math.exp(- ((dx * dx + dy * dy) / q)));
+        final float[] kernel = new float[kernelSize];
+        final int m = kernelSize / 2;
+        final double q = 2 * sigma * sigma;
+        for (int i = 0; i < kernelSize; ++i) {
+            final int d = i - m;
+            kernel[i] = (float) Math.exp(- ((d * d) / q));
+        }
+        final PixelBuffer scratch = new PixelBuffer(pixels.width, pixels.height);
+        convolveRows(pixels, scratch, kernel, executorService);
+        convolveColumns(scratch, pixels, kernel, executorService);
+    }
+
+    public static void approximateGaussianBlur(PixelBuffer pixels, float sigma) {
+        approximateGaussianBlur(pixels, sigma, null);
+    }
+
+    /**
+     * Approximates {@link #gaussianBlur(PixelBuffer, float, ExecutorService) gaussianBlur(pixels, sigma, executorService)}
+     * with three successive box blurs, whose sizes are chosen so that their combined variance matches
+     * <code>sigma&sup2;</code>. Each box blur uses running sums, therefore the costs per pixel
+     * do not depend on <code>sigma</code>.
+     */
+    public static void approximateGaussianBlur(PixelBuffer pixels, float sigma, @Nullable ExecutorService executorService) {
+        final int n = 3;
+        final double variance = 12.0 * sigma * sigma;
+        int wl = (int) Math.floor(Math.sqrt(variance / n + 1));
+        if (wl % 2 == 0) {
+            --wl;
+        }
+        final int m = (int) Math.round((variance - n * wl * wl - 4 * n * wl - 3 * n) / (-4 * wl - 4));
+        final PixelBuffer scratch = new PixelBuffer(pixels.width, pixels.height);
+        for (int i = 0; i < n; ++i) {
+            final int radius = ((i < m ? wl : wl + 2) - 1) / 2;
+            if (radius > 0) {
+                boxBlurRows(pixels, scratch, radius, executorService);
+                boxBlurColumns(scratch, pixels, radius, executorService);
+            }
+        }
+    }
+
+    /**
+     * Convolves each row of <code>src</code> with the given 1D kernel and writes the result into <code>dst</code>.
+     * Near the left and right border, the result is normalized with the sum of the kernel values used.
+     */
+    private static void convolveRows(final PixelBuffer src, final PixelBuffer dst, final float[] kernel, @Nullable ExecutorService executorService) {
+        final int w = src.width;
+        final int r = kernel.length / 2;
+        forEachBand(executorService, src.height, MIN_ROWS_PER_BLUR_TASK, 1, new BandTask() {
+            @Override
+            public void process(int from, int to) {
+                for (int y = from; y < to; ++y) {
+                    final int so = y * src.stride - r;
+                    final int dO = y * dst.stride;
+                    for (int x = 0; x < w; ++x) {
+                        final int i1 = Math.max(0, r - x);
+                        final int i2 = Math.min(kernel.length, w - x + r);
+                        float a = 0, red = 0, g = 0, b = 0, n = 0;
+                        for (int i = i1; i < i2; ++i) {
+                            final float k = kernel[i];
+                            final int p = src.data[so + x + i];
+                            a += k * (p >>> 24);
+                            red += k * ((p >> 16) & 0xFF);
+                            g += k * ((p >> 8) & 0xFF);
+                            b += k * (p & 0xFF);
+                            n += k;
+                        }
+                        dst.data[dO + x] = toPixel(a / n, red / n, g / n, b / n);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Convolves each column of <code>src</code> with the given 1D kernel and writes the result into <code>dst</code>.
+     * Near the top and bottom border, the result is normalized with the sum of the kernel values used.
+     */
+    private static void convolveColumns(final PixelBuffer src, final PixelBuffer dst, final float[] kernel, @Nullable ExecutorService executorService) {
+        final int w = src.width;
+        final int h = src.height;
+        final int r = kernel.length / 2;
+        forEachBand(executorService, h, MIN_ROWS_PER_BLUR_TASK, 1, new BandTask() {
+            @Override
+            public void process(int from, int to) {
+                // Accumulate whole rows, so that src is read row by row ...
+                final float[] sums = new float[4 * w];
+                for (int y = from; y < to; ++y) {
+                    Arrays.fill(sums, 0);
+                    final int i1 = Math.max(0, r - y);
+                    final int i2 = Math.min(kernel.length, h - y + r);
+                    float n = 0;
+                    for (int i = i1; i < i2; ++i) {
+                        final float k = kernel[i];
+                        final int so = (y + i - r) * src.stride;
+                        for (int x = 0, j = 0; x < w; ++x, j += 4) {
+                            final int p = src.data[so + x];
+                            sums[j] += k * (p >>> 24);
+                            sums[j + 1] += k * ((p >> 16) & 0xFF);
+                            sums[j + 2] += k * ((p >> 8) & 0xFF);
+                            sums[j + 3] += k * (p & 0xFF);
+                        }
+                        n += k;
+                    }
+                    final int dO = y * dst.stride;
+                    for (int x = 0, j = 0; x < w; ++x, j += 4) {
+                        dst.data[dO + x] = toPixel(sums[j] / n, sums[j + 1] / n, sums[j + 2] / n, sums[j + 3] / n);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces each pixel of each row of <code>src</code> with the average of the pixels
+     * at most <code>radius</code> pixels to the left or right of it and writes the result into <code>dst</code>.
+     */
+    private static void boxBlurRows(final PixelBuffer src, final PixelBuffer dst, final int radius, @Nullable ExecutorService executorService) {
+        final int w = src.width;
+        forEachBand(executorService, src.height, MIN_ROWS_PER_BLUR_TASK, 1, new BandTask() {
+            @Override
+            public void process(int from, int to) {
+                for (int y = from; y < to; ++y) {
+                    final int so = y * src.stride;
+                    final int dO = y * dst.stride;
+                    int a = 0, r = 0, g = 0, b = 0;
+                    final int n0 = Math.min(w, radius + 1);
+                    for (int x = 0; x < n0; ++x) {
+                        final int p = src.data[so + x];
+                        a += p >>> 24;
+                        r += (p >> 16) & 0xFF;
+                        g += (p >> 8) & 0xFF;
+                        b += p & 0xFF;
+                    }
+                    for (int x = 0; x < w; ++x) {
+                        final int n = Math.min(w, x + radius + 1) - Math.max(0, x - radius);
+                        dst.data[dO + x] = toPixel(a, r, g, b, n);
+                        final int xIn = x + radius + 1;
+                        if (xIn < w) {
+                            final int p = src.data[so + xIn];
+                            a += p >>> 24;
+                            r += (p >> 16) & 0xFF;
+                            g += (p >> 8) & 0xFF;
+                            b += p & 0xFF;
+                        }
+                        final int xOut = x - radius;
+                        if (xOut >= 0) {
+                            final int p = src.data[so + xOut];
+                            a -= p >>> 24;
+                            r -= (p >> 16) & 0xFF;
+                            g -= (p >> 8) & 0xFF;
+                            b -= p & 0xFF;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces each pixel of each column of <code>src</code> with the average of the pixels
+     * at most <code>radius</code> pixels above or below it and writes the result into <code>dst</code>.
+     */
+    private static void boxBlurColumns(final PixelBuffer src, final PixelBuffer dst, final int radius, @Nullable ExecutorService executorService) {
+        final int w = src.width;
+        final int h = src.height;
+        forEachBand(executorService, h, MIN_ROWS_PER_BLUR_TASK, 1, new BandTask() {
+            @Override
+            public void process(int from, int to) {
+                // Keep running sums for whole rows, so that src is read row by row ...
+                final int[] sums = new int[4 * w];
+                for (int y = Math.max(0, from - radius); y < Math.min(h, from + radius + 1); ++y) {
+                    addRow(src, y, sums, 1);
+                }
+                for (int y = from; y < to; ++y) {
+                    final int n = Math.min(h, y + radius + 1) - Math.max(0, y - radius);
+                    final int dO = y * dst.stride;
+                    for (int x = 0, j = 0; x < w; ++x, j += 4) {
+                        dst.data[dO + x] = toPixel(sums[j], sums[j + 1], sums[j + 2], sums[j + 3], n);
+                    }
+                    if (y + radius + 1 < h) {
+                        addRow(src, y + radius + 1, sums, 1);
+                    }
+                    if (y - radius >= 0) {
+                        addRow(src, y - radius, sums, -1);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds (or subtracts, if <code>sign</code> is <code>-1</code>) the channels
+     * of all pixels in row <code>y</code> to the given running sums.
+     */
+    private static void addRow(PixelBuffer pixels, int y, int[] sums, int sign) {
+        final int o = y * pixels.stride;
+        for (int x = 0, j = 0; x < pixels.width; ++x, j += 4) {
+            final int p = pixels.data[o + x];
+            sums[j] += sign * (p >>> 24);
+            sums[j + 1] += sign * ((p >> 16) & 0xFF);
+            sums[j + 2] += sign * ((p >> 8) & 0xFF);
+            sums[j + 3] += sign * (p & 0xFF);
+        }
+    }
+
+    private static int toPixel(float a, float r, float g, float b) {
+        return (Math.round(a) << 24) | (Math.round(r) << 16) | (Math.round(g) << 8) | Math.round(b);
+    }
+
+    /**
+     * Returns the pixel with the rounded averages of the given channel sums over <code>n</code> pixels.
+     */
+    private static int toPixel(int a, int r, int g, int b, int n) {
+        final int half = n / 2;
+        return (((a + half) / n) << 24) | (((r + half) / n) << 16) | (((g + half) / n) << 8) | ((b + half) / n);
+    }
+
+    /**
+     * Blends pixelsWithAlpha into pixels.
+     */
+    public static void blend(PixelBuffer pixels, PixelBuffer pixelsWithAlpha) {
+        blend(pixels, pixelsWithAlpha, 0, 0);
+    }
+
+    /**
+     * Like {@link #blend(PixelBuffer, PixelBuffer)}, but places the top left corner
+     * of <code>pixelsWithAlpha</code> at <code>x0,y0</code> in <code>pixels</code>.
+     */
+    public static void blend(PixelBuffer pixels, PixelBuffer pixelsWithAlpha, int x0, int y0) {
+        if (pixels != null && pixelsWithAlpha != null) {
+            final int w = Math.min(pixels.width - x0, pixelsWithAlpha.width);
+            final int h = Math.min(pixels.height - y0, pixelsWithAlpha.height);
+            final PixelKernels kernels = PixelKernels.get();
+            for (int y = 0; y < h && w > 0; ++y) {
+                kernels.blend(pixels.data, (y0 + y) * pixels.stride + x0, pixelsWithAlpha.data, y * pixelsWithAlpha.stride, w);
             }
         }
-        applyConvolutionFilter(pixels, kernel);
     }
 
     /**
@@ -435,24 +1009,7 @@ public class ImageHelper {
                             int p2 = pixelsWithAlpha[x][y];
                             int a = p2 >>> 24;
                             if (a < 0xFF) {
-                                if (a == 0) {
-                                    pixels[x][y] = p2;
-                                } else {
-                                    float a2 = ((float) (0xFF - a)) / 0xFF;
-                                    assert 0 < a2 && a2 < 1;
-                                    float a1 = 1 - a2;
-                                    int p1 = pixels[x][y];
-                                    int r = (p1 & 0xFF0000) >> 16;
-                                    int g = (p1 & 0xFF00) >> 8;
-                                    int b = (p1 & 0xFF);
-                                    r = Math.round(a1 * r + a2 * ((p2 & 0xFF0000) >> 16));
-                                    assert r <= 0xFF;
-                                    g = Math.round(a1 * g + a2 * ((p2 & 0xFF00) >> 8));
-                                    assert g <= 0xFF;
-                                    b = Math.round(a1 * b + a2 * ((p2 & 0xFF)));
-                                    assert b <= 0xFF;
-                                    pixels[x][y] = (r << 16) | (g << 8) | b;
-                                }
+                                pixels[x][y] = (a == 0 ? p2 : PixelKernels.blend(pixels[x][y], p2, a));
                             }
                         }
                     }
@@ -465,18 +1022,26 @@ public class ImageHelper {
      * Find the outlines of all areas where <code>pixels[x][y]</code> is <code>true</code>.
      */
     public static boolean[][] findOutlines(boolean[][] pixels) {
-        int w = pixels.length;
-        int h = pixels[0].length;
+        return findOutlines(BitMask.fromArray(pixels)).toArray();
+    }
+
+    /**
+     * Find the outlines of all areas where the bits of the given bit mask are set:
+     * all cleared bits, which are 4-connected to the border of the bit mask via cleared bits
+     * and have a set 4-neighbour (the outer morphological gradient restricted to that background).
+     */
+    public static BitMask findOutlines(BitMask pixels) {
+        int w = pixels.width;
+        int h = pixels.height;
         int w1 = w - 1;
         int h1 = h - 1;
-        boolean[][] outlines = new boolean[w][h];
         // Find starting point ...
         int x0 = 0;
         int y0 = 0;
         // Look for starting point on top border ...
-        while (x0 < w && pixels[x0][y0]) {
+        while (x0 < w && pixels.get(x0, y0)) {
             // ... and bottom border ...
-            if (!pixels[x0][h1]) {
+            if (!pixels.get(x0, h1)) {
                 y0 = h1;
                 break;
             }
@@ -486,8 +1051,8 @@ public class ImageHelper {
             // Look for starting point on left border ...
             x0 = 1;
             // ... and right border ...
-            while (y0 < h && pixels[x0][y0]) {
-                if (!pixels[w1][y0]) {
+            while (y0 < h && pixels.get(x0, y0)) {
+                if (!pixels.get(w1, y0)) {
                     x0 = w1;
                     break;
                 }
@@ -496,59 +1061,57 @@ public class ImageHelper {
         }
         if (y0 == h) {
             // No starting point found, therefore ...
-            return outlines;
-        }
-        // Find outlines ...
-        Queue<Point> todo = new LinkedList<Point>();
-        todo.add(new Point(x0, y0));
-        boolean[][] visited = new boolean[w][h];
-        while (!todo.isEmpty()) {
-            Point p = todo.poll();
-            int x = p.x;
-            int y = p.y;
-            if (!visited[x][y]) {
-                visited[x][y] = true;
-                if (!pixels[x][y]) {
-                    // Compare with pixel above ...
-                    if (y > 0) {
-                        int y1 = y - 1;
-                        if (pixels[x][y1]) {
-                            outlines[x][y] = true;
-                        } else if (!visited[x][y1]){
-                            todo.add(new Point(x, y1));
-                        }
-                    }
-                    // Compare with pixel to the right ...
-                    if (x < w1) {
-                        int x1 = x + 1;
-                        if (pixels[x1][y]) {
-                            outlines[x][y] = true;
-                        } else if (!visited[x1][y]){
-                            todo.add(new Point(x1, y));
-                        }
-                    }
-                    // Compare with pixel below ...
-                    if (y < h1) {
-                        int y1 = y + 1;
-                        if (pixels[x][y1]) {
-                            outlines[x][y] = true;
-                        } else if (!visited[x][y1]){
-                            todo.add(new Point(x, y1));
-                        }
-                    }
-                    // Compare with pixel to the left ...
-                    if (x > 0) {
-                        int x1 = x - 1;
-                        if (pixels[x1][y]) {
-                            outlines[x][y] = true;
-                        } else if (!visited[x1][y]){
-                            todo.add(new Point(x1, y));
+            return new BitMask(w, h);
+        }
+        // Find all background pixels connected to the starting point ...
+        final BitMask background = fillBackground(pixels, x0, y0);
+        // The outlines are those background pixels, which have a 4-neighbour, which is not a background pixel ...
+        return pixels.dilate().andNot(pixels).and(background);
+    }
+
+    /**
+     * Returns a new bit mask, in which all bits are set, which are not set in the given
+     * bit mask and 4-connected to the given starting point via such bits. This is a
+     * scanline flood fill: it fills whole horizontal spans at once and keeps the seeds
+     * of the spans still to be filled in a plain <code>int[]</code> stack.
+     */
+    private static BitMask fillBackground(BitMask pixels, int x0, int y0) {
+        final int w = pixels.width;
+        final int h = pixels.height;
+        final BitMask filled = new BitMask(w, h);
+        int[] seeds = new int[256];
+        int n = 0;
+        seeds[n++] = x0;
+        seeds[n++] = y0;
+        while (n > 0) {
+            final int y = seeds[--n];
+            final int x = seeds[--n];
+            if (!filled.get(x, y)) {
+                // Fill the whole span of background pixels containing x,y ...
+                final int x1 = pixels.previousSetBit(x, y) + 1;
+                final int nx = pixels.nextSetBit(x, y);
+                final int x2 = (nx < 0 ? w : nx);
+                filled.setRange(x1, x2, y);
+                // Add one seed for each unfilled span of background pixels above and below, which touches this span ...
+                for (int ny = y - 1; ny <= y + 1; ny += 2) {
+                    if (ny >= 0 && ny < h) {
+                        int sx = pixels.nextClearBit(x1, ny);
+                        while (sx < x2) {
+                            if (!filled.get(sx, ny)) {
+                                if (n + 2 > seeds.length) {
+                                    seeds = Arrays.copyOf(seeds, 2 * seeds.length);
+                                }
+                                seeds[n++] = sx;
+                                seeds[n++] = ny;
+                            }
+                            final int ex = pixels.nextSetBit(sx, ny);
+                            sx = (ex < 0 ? w : pixels.nextClearBit(ex, ny));
                         }
                     }
                 }
             }
         }
-        return outlines;
+        return filled;
     }
 
     /**
@@ -556,11 +1119,71 @@ public class ImageHelper {
      * <a href="http://www.w3.org/TR/WCAG20-TECHS/G17.html#G17-procedure">WCAG 2.0 formula</a>.
      */
     public static double getContrast(int rgb1, int rgb2) {
-        double l1 = getLuminance(rgb1);
-        double l2 = getLuminance(rgb2);
+        return getContrastOfLuminances(getLuminance(rgb1), getLuminance(rgb2));
+    }
+
+    /**
+     * Determines the contrast between two pixels with the given {@link #getLuminance luminances},
+     * use this method instead of {@link #getContrast} if the luminance of a pixel is needed more than once.
+     */
+    public static double getContrastOfLuminances(double l1, double l2) {
         return ((l1 >= l2) ? (l1 + 0.05) / (l2 + 0.05) : (l2 + 0.05) / (l1 + 0.05));
     }
 
+    /**
+     * Returns <code>true</code> if the contrast between two pixels with the given
+     * {@link #getLuminance luminances} is at least <code>minContrast</code> -- this method
+     * is faster than comparing the result of {@link #getContrastOfLuminances}, because it
+     * compares both sides of the WCAG 2.0 contrast formula multiplied by the divisor.
+     */
+    public static boolean contrastAtLeast(double l1, double l2, double minContrast) {
+        return ((l1 >= l2) ? (l1 + 0.05) >= minContrast * (l2 + 0.05) : (l2 + 0.05) >= minContrast * (l1 + 0.05));
+    }
+
+    /**
+     * Returns <code>true</code> if the contrast between two pixels with the given
+     * {@link #getLuminance luminances} is at most <code>maxContrast</code>, see {@link #contrastAtLeast}.
+     */
+    public static boolean contrastAtMost(double l1, double l2, double maxContrast) {
+        return ((l1 >= l2) ? (l1 + 0.05) <= maxContrast * (l2 + 0.05) : (l2 + 0.05) <= maxContrast * (l1 + 0.05));
+    }
+
+    /**
+     * Returns a new array with the {@link #getLuminance luminance} of each pixel
+     * of the given pixel buffer, the luminance of the pixel with the coordinates x,y
+     * is stored at index <code>pixels.indexOf(x, y)</code>.
+     */
+    public static float[] calculateLuminancePlane(PixelBuffer pixels) {
+        final int[] data = pixels.data;
+        final float[] luminances = new float[data.length];
+        for (int y = 0; y < pixels.height; ++y) {
+            final int o = y * pixels.stride;
+            calculateLuminances(data, o, pixels.width, luminances, o);
+        }
+        return luminances;
+    }
+
+    /**
+     * Stores the {@link #getLuminance luminance} of the <code>n</code> pixels
+     * of <code>rgb</code> starting at <code>rgbOffset</code> in <code>luminances</code>
+     * starting at <code>luminancesOffset</code>.
+     */
+    static void calculateLuminances(int[] rgb, int rgbOffset, int n, float[] luminances, int luminancesOffset) {
+        if (n > 0) {
+            // Web pages have large areas of the same color, so remember the last calculated luminance ...
+            int lastRgb = ~rgb[rgbOffset];
+            float lastLuminance = 0;
+            for (int i = 0; i < n; ++i) {
+                final int p = rgb[rgbOffset + i];
+                if (p != lastRgb) {
+                    lastRgb = p;
+                    lastLuminance = (float) getLuminance(p);
+                }
+                luminances[luminancesOffset + i] = lastLuminance;
+            }
+        }
+    }
+
     private static double[] PRE_CALCULATED_LUMINANCE_TABLE = new double[256];
     static {
         for (int i = 0; i < 256; ++i) {
@@ -569,7 +1192,11 @@ public class ImageHelper {
         }
     }
 
-    private static double getLuminance(int rgb) {
+    /**
+     * Returns the relative luminance of the given pixel as defined by the
+     * <a href="http://www.w3.org/TR/WCAG20/#relativeluminancedef">WCAG 2.0</a>.
+     */
+    public static double getLuminance(int rgb) {
         double r = PRE_CALCULATED_LUMINANCE_TABLE[(rgb & 0xFF0000) >> 16];
         double g = PRE_CALCULATED_LUMINANCE_TABLE[(rgb & 0xFF00) >> 8];
         double b = PRE_CALCULATED_LUMINANCE_TABLE[(rgb & 0xFF)];
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+
+/**
+ * The pixels of a {@link PixelBuffer} stored as a palette of distinct colors and
+ * a (16 bit) palette index for each pixel, so that values derived from the color
+ * of a pixel (like its luminance) only need to be calculated once per palette entry.
+ * The palette index of the pixel with the coordinates x,y is stored at the same
+ * index as in the <code>PixelBuffer</code> it was created from.
+ * Note that the indices are kept in addition to the <code>PixelBuffer</code>
+ * (e.g. by {@link com.googlecode.fightinglayoutbugs.Screenshot}), not instead of it.
+ */
+public final class IndexedPixels implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximal number of distinct colors, so that each palette index fits into a <code>short</code>. */
+    public static final int MAX_PALETTE_SIZE = 1 << 16;
+
+    private static final int SAMPLED_ROW_DISTANCE = 8;
+
+    public final int width;
+    public final int height;
+    public final int stride;
+    /** The distinct colors (RGB). */
+    public final int[] palette;
+    /** The {@link ImageHelper#getLuminance luminance} of each color of the palette. */
+    public final float[] luminances;
+    /** The palette index of each pixel -- use {@link #getPaletteIndex} to read it as unsigned value. */
+    public final short[] indices;
+
+    /**
+     * Returns <code>null</code> if the given pixel buffer has more than {@link #MAX_PALETTE_SIZE} distinct colors.
+     */
+    @Nullable
+    public static IndexedPixels fromPixelBuffer(PixelBuffer pixels) {
+        final Palette palette = new Palette();
+        if (pixels.width == 0 || pixels.height == 0) {
+            return new IndexedPixels(pixels.width, pixels.height, pixels.stride, palette.toArray(), new short[pixels.data.length]);
+        }
+        // 1.) Collect the colors of every 8th row first, so that pixel buffers with too
+        //     many distinct colors (like photos or gradients) are rejected cheaply ...
+        for (int y = 0; y < pixels.height; y += SAMPLED_ROW_DISTANCE) {
+            if (!indexRow(pixels, y, palette, null)) {
+                return null;
+            }
+        }
+        // 2.) Index all pixels, the colors of the sampled rows keep their palette index ...
+        final short[] indices = new short[pixels.data.length];
+        for (int y = 0; y < pixels.height; ++y) {
+            if (!indexRow(pixels, y, palette, indices)) {
+                return null;
+            }
+        }
+        return new IndexedPixels(pixels.width, pixels.height, pixels.stride, palette.toArray(), indices);
+    }
+
+    /**
+     * Adds the colors of row <code>y</code> to the given palette and stores the palette index of each
+     * pixel into <code>indices</code>, if it is not <code>null</code>. Returns <code>false</code>
+     * if the palette would have more than {@link #MAX_PALETTE_SIZE} colors.
+     */
+    private static boolean indexRow(PixelBuffer pixels, int y, Palette palette, @Nullable short[] indices) {
+        final int[] data = pixels.data;
+        int i = y * pixels.stride;
+        final int end = i + pixels.width;
+        // Web pages have large areas of the same color, so remember the last palette index ...
+        int lastRgb = ~data[i];
+        int lastIndex = 0;
+        for (; i < end; ++i) {
+            final int rgb = data[i];
+            if (rgb != lastRgb) {
+                lastRgb = rgb;
+                lastIndex = palette.indexOf(rgb);
+                if (lastIndex < 0) {
+                    return false;
+                }
+            }
+            if (indices != null) {
+                indices[i] = (short) lastIndex;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The distinct colors found so far, with an open addressing hash table,
+     * which maps colors to their palette index + 1.
+     */
+    private static class Palette {
+        private int[] _keys = new int[1024];
+        private int[] _values = new int[1024];
+        private int[] _colors = new int[256];
+        private int _size;
+
+        /**
+         * Returns the palette index of the given color, which is added if necessary,
+         * or <code>-1</code> if the palette already has {@link #MAX_PALETTE_SIZE} colors.
+         */
+        int indexOf(int rgb) {
+            int slot = hash(rgb) & (_keys.length - 1);
+            while (_values[slot] != 0 && _keys[slot] != rgb) {
+                slot = (slot + 1) & (_keys.length - 1);
+            }
+            if (_values[slot] != 0) {
+                return _values[slot] - 1;
+            }
+            if (_size == MAX_PALETTE_SIZE) {
+                return -1;
+            }
+            if (_size == _colors.length) {
+                int[] temp = new int[2 * _size];
+                System.arraycopy(_colors, 0, temp, 0, _size);
+                _colors = temp;
+            }
+            _colors[_size] = rgb;
+            _keys[slot] = rgb;
+            final int index = _size++;
+            _values[slot] = _size;
+            if (2 * _size > _keys.length) {
+                rehash();
+            }
+            return index;
+        }
+
+        private void rehash() {
+            _keys = new int[2 * _keys.length];
+            _values = new int[_keys.length];
+            for (int j = 0; j < _size; ++j) {
+                int s = hash(_colors[j]) & (_keys.length - 1);
+                while (_values[s] != 0) {
+                    s = (s + 1) & (_keys.length - 1);
+                }
+                _keys[s] = _colors[j];
+                _values[s] = j + 1;
+            }
+        }
+
+        int[] toArray() {
+            final int[] colors = new int[_size];
+            System.arraycopy(_colors, 0, colors, 0, _size);
+            return colors;
+        }
+    }
+
+    private static int hash(int rgb) {
+        final int h = rgb * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private IndexedPixels(int width, int height, int stride, int[] palette, short[] indices) {
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.palette = palette;
+        this.indices = indices;
+        luminances = new float[palette.length];
+        for (int i = 0; i < palette.length; ++i) {
+            luminances[i] = (float) ImageHelper.getLuminance(palette[i]);
+        }
+    }
+
+    /**
+     * Returns the (approximate) number of bytes occupied by these indexed pixels.
+     */
+    public long sizeInBytes() {
+        return indices.length * 2L + palette.length * 8L;
+    }
+
+    public int indexOf(int x, int y) {
+        return y * stride + x;
+    }
+
+    /**
+     * Returns the palette index of the pixel stored at the given index.
+     */
+    public int getPaletteIndex(int i) {
+        return indices[i] & 0xFFFF;
+    }
+
+    public int get(int x, int y) {
+        return palette[indices[y * stride + x] & 0xFFFF];
+    }
+
+    public PixelBuffer toPixelBuffer() {
+        final int[] data = new int[indices.length];
+        for (int i = 0; i < indices.length; ++i) {
+            data[i] = palette[indices[i] & 0xFFFF];
+        }
+        return new PixelBuffer(width, height, stride, data);
+    }
+}
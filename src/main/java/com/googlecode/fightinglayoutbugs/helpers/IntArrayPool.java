@@ -0,0 +1,66 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Keeps a few <code>int</code> arrays for reuse, e.g. the row buffers used to deliver
+ * pixels row by row to a {@link ScanlineSink}, so that scanning many screenshots
+ * does not allocate a new buffer for each of them.
+ */
+class IntArrayPool {
+
+    /** Shared by {@link CompressedPixels}, {@link PixelBuffer}, and {@link ImageHelper}. */
+    static final IntArrayPool ROW_BUFFERS = new IntArrayPool(8);
+
+    private final int _maxSize;
+    private final ArrayDeque<int[]> _arrays = new ArrayDeque<int[]>();
+
+    IntArrayPool(int maxSize) {
+        _maxSize = maxSize;
+    }
+
+    /**
+     * Returns a pooled array with at least the given length or a new
+     * array with exactly the given length, the content is undefined.
+     */
+    synchronized int[] take(int minLength) {
+        final Iterator<int[]> i = _arrays.iterator();
+        while (i.hasNext()) {
+            final int[] array = i.next();
+            if (array.length >= minLength) {
+                i.remove();
+                return array;
+            }
+        }
+        return new int[minLength];
+    }
+
+    /**
+     * Puts the given array back into this pool, it must not be used by the caller
+     * afterwards. If the pool is full, the least recently released array is dropped.
+     */
+    synchronized void release(int[] array) {
+        if (_arrays.size() == _maxSize) {
+            _arrays.removeFirst();
+        }
+        _arrays.addLast(array);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+/**
+ * A {@link ScanlineSink}, which calculates the {@link ImageHelper#getLuminance luminance}
+ * of each pixel of the wanted scanlines, while they are passed on to another sink --
+ * so the luminance plane is built in the same pass as the pixels, while each scanline
+ * is still in the CPU cache. The luminance of the pixel with the coordinates x,y is
+ * stored at index <code>y * width + x</code>, which is the index of the pixel in
+ * the {@link PixelBuffer} collected by a {@link PixelBufferSink}.
+ */
+public class LuminancePlaneSink implements ScanlineSink {
+
+    private final ScanlineSink _sink;
+    private int _width;
+    private float[] _luminancePlane;
+
+    public LuminancePlaneSink(ScanlineSink sink) {
+        _sink = sink;
+    }
+
+    @Override
+    public void startImage(int width, int height) {
+        _width = width;
+        _luminancePlane = new float[width * height];
+        _sink.startImage(width, height);
+    }
+
+    @Override
+    public boolean wantsScanline(int y) {
+        return _sink.wantsScanline(y);
+    }
+
+    @Override
+    public boolean scanline(int y, int[] rgb) {
+        ImageHelper.calculateLuminances(rgb, 0, _width, _luminancePlane, y * _width);
+        return _sink.scanline(y, rgb);
+    }
+
+    /**
+     * Returns the calculated luminance plane or <code>null</code> if {@link #startImage} was not called yet.
+     */
+    public float[] getLuminancePlane() {
+        return _luminancePlane;
+    }
+}
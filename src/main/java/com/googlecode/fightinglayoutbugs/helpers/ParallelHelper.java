@@ -0,0 +1,88 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+public class ParallelHelper {
+
+    /**
+     * A task, which processes all rows (or columns) from <code>from</code> (inclusive)
+     * to <code>to</code> (exclusive). It is called concurrently for disjoint ranges.
+     */
+    public interface BandTask {
+        void process(int from, int to);
+    }
+
+    /**
+     * Splits the range from <code>0</code> (inclusive) to <code>n</code> (exclusive)
+     * into bands of at least <code>minBandSize</code> rows (or columns) and processes
+     * them with the given executor service. All bands except the last one start
+     * and end at multiples of <code>alignment</code> -- use <code>64</code> when
+     * the task writes columns of a {@link BitMask}, so that no two bands share a
+     * <code>long</code> word. If <code>executorService</code> is <code>null</code>
+     * or there are not enough rows (or columns) for two bands, the whole range is
+     * processed in the calling thread. This method returns when all bands are processed.
+     */
+    public static void forEachBand(@Nullable ExecutorService executorService, int n, int minBandSize, int alignment, final BandTask task) {
+        int numBands = (executorService == null ? 1 : Math.min(4 * Runtime.getRuntime().availableProcessors(), n / Math.max(1, minBandSize)));
+        if (numBands <= 1) {
+            task.process(0, n);
+            return;
+        }
+        final int bandSize = ((n / numBands + alignment - 1) / alignment) * alignment;
+        final List<Callable<Void>> callables = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < n; from += bandSize) {
+            final int bandFrom = from;
+            final int bandTo = Math.min(n, from + bandSize);
+            callables.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    task.process(bandFrom, bandTo);
+                    return null;
+                }
+            });
+        }
+        final List<Future<Void>> futures;
+        try {
+            futures = executorService.invokeAll(callables);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Got interrupted.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    protected ParallelHelper() {}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A rectangular area of RGB (or ARGB) pixels stored in one contiguous
+ * <code>int[]</code> array in row-major order: the pixel with the
+ * coordinates x,y is stored at <code>data[y * stride + x]</code>.
+ * Scanning a row therefore touches consecutive memory, and a whole
+ * screenshot is just one object on the heap instead of one array per column.
+ */
+public final class PixelBuffer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int width;
+    public final int height;
+    /** Distance (in array elements) between the first pixels of two consecutive rows, always <code>&gt;= width</code>. */
+    public final int stride;
+    public final int[] data;
+
+    /**
+     * Creates a new pixel buffer of the given size, all pixels are <code>0</code>.
+     */
+    public PixelBuffer(int width, int height) {
+        this(width, height, width, new int[width * height]);
+    }
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("EI2")
+    public PixelBuffer(int width, int height, int stride, int[] data) {
+        if (width < 0) {
+            throw new IllegalArgumentException("width (" + width + ") must not be negative.");
+        }
+        if (height < 0) {
+            throw new IllegalArgumentException("height (" + height + ") must not be negative.");
+        }
+        if (stride < width) {
+            throw new IllegalArgumentException("stride (" + stride + ") must not be less than width (" + width + ").");
+        }
+        if (height > 0 && data.length < (height - 1) * stride + width) {
+            throw new IllegalArgumentException("data.length (" + data.length + ") is too small for " + width + "x" + height + " pixels with stride " + stride + ".");
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.data = data;
+    }
+
+    /**
+     * Converts the given column-major array (<code>pixels[x][y]</code>) into a new pixel buffer.
+     */
+    public static PixelBuffer fromArray(int[][] pixels) {
+        if (pixels == null) {
+            return null;
+        }
+        final int w = pixels.length;
+        if (w == 0) {
+            throw new IllegalArgumentException("pixels.length must not be 0.");
+        }
+        final int h = pixels[0].length;
+        if (h == 0) {
+            throw new IllegalArgumentException("pixels[0].length must not be 0.");
+        }
+        final PixelBuffer result = new PixelBuffer(w, h);
+        final int[] data = result.data;
+        for (int x = 0; x < w; ++x) {
+            final int[] column = pixels[x];
+            for (int y = 0, i = x; y < h; ++y, i += w) {
+                data[i] = column[y];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new column-major array <tt>a</tt>, whereby <tt>a[x][y]</tt>
+     * is the pixel with the coordinates x,y -- only use this method to
+     * interact with code, which does not know about <code>PixelBuffer</code>s.
+     */
+    public int[][] toArray() {
+        final int[][] pixels = new int[width][height];
+        for (int y = 0; y < height; ++y) {
+            final int o = y * stride;
+            for (int x = 0; x < width; ++x) {
+                pixels[x][y] = data[o + x];
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Returns the index of the pixel with the coordinates x,y in {@link #data}.
+     */
+    public int indexOf(int x, int y) {
+        return y * stride + x;
+    }
+
+    public int get(int x, int y) {
+        return data[y * stride + x];
+    }
+
+    public void set(int x, int y, int rgb) {
+        data[y * stride + x] = rgb;
+    }
+
+    /**
+     * Sets all pixels to the given value.
+     */
+    public void fill(int rgb) {
+        if (stride == width) {
+            Arrays.fill(data, 0, width * height, rgb);
+        } else {
+            for (int y = 0; y < height; ++y) {
+                final int o = y * stride;
+                Arrays.fill(data, o, o + width, rgb);
+            }
+        }
+    }
+
+    /**
+     * Returns a new pixel buffer with the same size and the same pixels,
+     * the returned copy has no gaps between its rows.
+     */
+    public PixelBuffer copy() {
+        final PixelBuffer copy = new PixelBuffer(width, height);
+        if (stride == width) {
+            System.arraycopy(data, 0, copy.data, 0, width * height);
+        } else {
+            for (int y = 0; y < height; ++y) {
+                System.arraycopy(data, y * stride, copy.data, y * width, width);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Delivers the pixels (without alpha channel) row by row to the given sink,
+     * like {@link CompressedPixels#writeTo} and {@link ImageHelper#scanRawFile} do.
+     */
+    public void writeTo(ScanlineSink sink) {
+        sink.startImage(width, height);
+        final int[] row = IntArrayPool.ROW_BUFFERS.take(width);
+        try {
+            for (int y = 0; y < height; ++y) {
+                if (sink.wantsScanline(y)) {
+                    for (int x = 0, i = y * stride; x < width; ++x, ++i) {
+                        row[x] = data[i] & 0xFFFFFF;
+                    }
+                    if (!sink.scanline(y, row)) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            IntArrayPool.ROW_BUFFERS.release(row);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given row of this pixel buffer is equal to
+     * the given row of the given pixel buffer within the horizontal range
+     * from <code>x1</code> (inclusive) to <code>x2</code> (exclusive).
+     */
+    public boolean rowEquals(int y, PixelBuffer other, int x1, int x2) {
+        final int[] d1 = data;
+        final int[] d2 = other.data;
+        int i = y * stride + x1;
+        int j = y * other.stride + x1;
+        final int n = i + (x2 - x1);
+        while (i < n) {
+            if (d1[i++] != d2[j++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code computed from the size and all pixels of this pixel buffer,
+     * so that two pixel buffers with different hash codes are known to be different
+     * without comparing them pixel by pixel.
+     */
+    @Override
+    public int hashCode() {
+        int hash = width << 16 | height;
+        for (int y = 0; y < height; ++y) {
+            for (int i = y * stride, n = i + width; i < n; ++i) {
+                hash = 31 * hash + data[i];
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns <code>true</code> if the given object is a pixel buffer
+     * with the same size and the same pixels (regardless of the stride).
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof PixelBuffer) {
+            PixelBuffer other = (PixelBuffer) o;
+            if (this.width != other.width || this.height != other.height) {
+                return false;
+            }
+            for (int y = 0; y < height; ++y) {
+                if (!rowEquals(y, other, 0, width)) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PixelBuffer[" + width + "x" + height + "]";
+    }
+}
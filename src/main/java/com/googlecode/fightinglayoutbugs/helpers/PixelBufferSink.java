@@ -0,0 +1,48 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+/**
+ * A {@link ScanlineSink}, which collects all scanlines in a new {@link PixelBuffer}.
+ */
+public class PixelBufferSink implements ScanlineSink {
+
+    private PixelBuffer _pixels;
+
+    @Override
+    public void startImage(int width, int height) {
+        _pixels = new PixelBuffer(width, height);
+    }
+
+    @Override
+    public boolean wantsScanline(int y) {
+        return true;
+    }
+
+    @Override
+    public boolean scanline(int y, int[] rgb) {
+        System.arraycopy(rgb, 0, _pixels.data, y * _pixels.stride, _pixels.width);
+        return true;
+    }
+
+    /**
+     * Returns the collected pixels or <code>null</code> if {@link #startImage} was not called yet.
+     */
+    public PixelBuffer getPixels() {
+        return _pixels;
+    }
+}
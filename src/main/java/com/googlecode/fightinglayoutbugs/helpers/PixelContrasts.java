@@ -0,0 +1,189 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the {@link ImageHelper#getContrast contrast} between two pixels
+ * of a screenshot -- given by their index into the pixel data -- with a fixed threshold.
+ */
+public abstract class PixelContrasts {
+
+    /**
+     * Returns an instance, which compares the given luminances
+     * (see {@link ImageHelper#calculateLuminancePlane}) for each pair of pixels.
+     */
+    public static PixelContrasts of(PixelBuffer pixels, float[] luminances, double threshold) {
+        return new WithLuminancePlane(pixels.data, luminances, threshold);
+    }
+
+    /**
+     * Returns an instance, which looks up the result for each pair of palette indices
+     * in a lazily filled palette&times;palette cache -- if the palette has more than
+     * {@link #MAX_CACHED_PALETTE_SIZE} colors, the result is calculated from the
+     * luminances of the palette each time, because the cache would be too big.
+     */
+    public static PixelContrasts of(IndexedPixels pixels, double threshold) {
+        return new WithPalette(pixels, threshold);
+    }
+
+    /**
+     * The cache for the largest palette, which is cached, occupies 2 MB
+     * (two bits for each pair of palette indices, only one triangle is stored).
+     */
+    public static final int MAX_CACHED_PALETTE_SIZE = 1 << 12;
+
+    public final double threshold;
+
+    PixelContrasts(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns <code>true</code> if the pixels stored at the given indices have the same color.
+     */
+    public abstract boolean haveSameColor(int i1, int i2);
+
+    /**
+     * Returns <code>true</code> if the contrast between the pixels stored
+     * at the given indices is at least {@link #threshold}.
+     */
+    public abstract boolean atLeast(int i1, int i2);
+
+    /**
+     * Returns <code>true</code> if the contrast between the pixels stored
+     * at the given indices is at most {@link #threshold}.
+     */
+    public abstract boolean atMost(int i1, int i2);
+
+    /**
+     * Returns the (approximate) number of bytes occupied by this instance
+     * -- not counting the pixels, luminances, or palette indices it looks at.
+     */
+    public abstract long sizeInBytes();
+
+    private static class WithLuminancePlane extends PixelContrasts {
+
+        private final int[] _rgb;
+        private final float[] _luminances;
+
+        private WithLuminancePlane(int[] rgb, float[] luminances, double threshold) {
+            super(threshold);
+            _rgb = rgb;
+            _luminances = luminances;
+        }
+
+        @Override
+        public boolean haveSameColor(int i1, int i2) {
+            return _rgb[i1] == _rgb[i2];
+        }
+
+        @Override
+        public boolean atLeast(int i1, int i2) {
+            return ImageHelper.contrastAtLeast(_luminances[i1], _luminances[i2], threshold);
+        }
+
+        @Override
+        public boolean atMost(int i1, int i2) {
+            return ImageHelper.contrastAtMost(_luminances[i1], _luminances[i2], threshold);
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 0;
+        }
+    }
+
+    /**
+     * Caches two bits for each pair of palette indices: whether the contrast is at least
+     * and whether it is at most the threshold. Both bits cleared means not calculated yet,
+     * because at least one of them is always set. The contrast is symmetric, so row
+     * <code>p</code> only holds the pairs <code>(p, q)</code> with <code>q &gt;= p</code>.
+     * The cache rows are allocated on first use. Concurrent updates might get lost,
+     * which only causes a recalculation. If the palette has more than
+     * {@link #MAX_CACHED_PALETTE_SIZE} colors, nothing is cached.
+     */
+    private static class WithPalette extends PixelContrasts {
+
+        private static final int AT_LEAST = 1;
+        private static final int AT_MOST = 2;
+
+        private final short[] _indices;
+        private final float[] _luminances;
+        private final long[][] _cache;
+        private final AtomicLong _cacheSizeInBytes = new AtomicLong();
+
+        private WithPalette(IndexedPixels pixels, double threshold) {
+            super(threshold);
+            _indices = pixels.indices;
+            _luminances = pixels.luminances;
+            _cache = (pixels.palette.length <= MAX_CACHED_PALETTE_SIZE ? new long[pixels.palette.length][] : null);
+            if (_cache != null) {
+                _cacheSizeInBytes.set(_cache.length * 8L);
+            }
+        }
+
+        @Override
+        public boolean haveSameColor(int i1, int i2) {
+            return _indices[i1] == _indices[i2];
+        }
+
+        @Override
+        public boolean atLeast(int i1, int i2) {
+            return (lookup(_indices[i1] & 0xFFFF, _indices[i2] & 0xFFFF) & AT_LEAST) != 0;
+        }
+
+        @Override
+        public boolean atMost(int i1, int i2) {
+            return (lookup(_indices[i1] & 0xFFFF, _indices[i2] & 0xFFFF) & AT_MOST) != 0;
+        }
+
+        private int lookup(int p1, int p2) {
+            final int p = Math.min(p1, p2);
+            final int q = Math.max(p1, p2);
+            if (_cache == null) {
+                return calculate(p, q);
+            }
+            long[] row = _cache[p];
+            if (row == null) {
+                row = new long[(2 * (_luminances.length - p) + 63) >>> 6];
+                _cache[p] = row;
+                _cacheSizeInBytes.addAndGet(row.length * 8L);
+            }
+            final int i = q - p;
+            final int shift = (2 * i) & 63;
+            int bits = (int) (row[i >>> 5] >>> shift) & 3;
+            if (bits == 0) {
+                bits = calculate(p, q);
+                row[i >>> 5] |= ((long) bits) << shift;
+            }
+            return bits;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return _cacheSizeInBytes.get();
+        }
+
+        private int calculate(int p, int q) {
+            final float l1 = _luminances[p];
+            final float l2 = _luminances[q];
+            return (ImageHelper.contrastAtLeast(l1, l2, threshold) ? AT_LEAST : 0) | (ImageHelper.contrastAtMost(l1, l2, threshold) ? AT_MOST : 0);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+/**
+ * The innermost loops of the pixel helpers (alpha blending and comparing rows of pixels).
+ * There are two implementations, which produce bit-identical results:
+ * <ul>
+ *     <li>{@link #SCALAR} -- the straightforward reference implementation, which processes one channel after the other and</li>
+ *     <li>{@link #PACKED} -- which blends the red and blue channel with a single integer multiplication
+ *         and compares pixels without branches.</li>
+ * </ul>
+ * {@link #get()} returns <code>PACKED</code>, unless the system property
+ * <code>fightinglayoutbugs.pixelKernels</code> is set to <code>scalar</code>.
+ */
+public abstract class PixelKernels {
+
+    public static final String SYSTEM_PROPERTY = "fightinglayoutbugs.pixelKernels";
+
+    public static final PixelKernels SCALAR = new Scalar();
+
+    public static final PixelKernels PACKED = new Packed();
+
+    private static final PixelKernels SELECTED = ("scalar".equalsIgnoreCase(System.getProperty(SYSTEM_PROPERTY)) ? SCALAR : PACKED);
+
+    /**
+     * Returns the implementation selected at runtime.
+     */
+    public static PixelKernels get() {
+        return SELECTED;
+    }
+
+    /**
+     * Blends the pixel <code>p2</code> with the alpha value <code>a</code> (<code>0 &lt; a &lt; 255</code>)
+     * into the pixel <code>p1</code> and returns the result: each channel becomes
+     * <code>(c1 * a + c2 * (255 - a)) / 255</code> rounded to the nearest integer.
+     */
+    public static int blend(int p1, int p2, int a) {
+        final int b = 0xFF - a;
+        final int r = divideBy255(((p1 >> 16) & 0xFF) * a + ((p2 >> 16) & 0xFF) * b);
+        final int g = divideBy255(((p1 >> 8) & 0xFF) * a + ((p2 >> 8) & 0xFF) * b);
+        final int bl = divideBy255((p1 & 0xFF) * a + (p2 & 0xFF) * b);
+        return (r << 16) | (g << 8) | bl;
+    }
+
+    /**
+     * Returns <code>x / 255</code> rounded to the nearest integer for <code>0 &lt;= x &lt;= 255 * 255</code>.
+     */
+    private static int divideBy255(int x) {
+        final int t = x + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+
+    /**
+     * Blends <code>n</code> pixels with alpha from <code>src</code> (starting at <code>srcOffset</code>)
+     * into the pixels of <code>dst</code> (starting at <code>dstOffset</code>). Pixels with an alpha value
+     * of 255 are transparent, pixels with an alpha value of 0 replace the destination pixel.
+     */
+    public abstract void blend(int[] dst, int dstOffset, int[] src, int srcOffset, int n);
+
+    /**
+     * Compares <code>n</code> (at most 64) pixels of <code>data1</code> (starting at <code>offset1</code>)
+     * with <code>n</code> pixels of <code>data2</code> (starting at <code>offset2</code>) and returns
+     * a word, in which bit <code>i</code> is set, if and only if the <code>i</code>-th pixels differ.
+     */
+    public abstract long compare(int[] data1, int offset1, int[] data2, int offset2, int n);
+
+    private static class Scalar extends PixelKernels {
+
+        @Override
+        public void blend(int[] dst, int dstOffset, int[] src, int srcOffset, int n) {
+            for (int i = 0; i < n; ++i) {
+                final int p2 = src[srcOffset + i];
+                final int a = p2 >>> 24;
+                if (a < 0xFF) {
+                    dst[dstOffset + i] = (a == 0 ? p2 : blend(dst[dstOffset + i], p2, a));
+                }
+            }
+        }
+
+        @Override
+        public long compare(int[] data1, int offset1, int[] data2, int offset2, int n) {
+            long word = 0;
+            for (int i = 0; i < n; ++i) {
+                if (data1[offset1 + i] != data2[offset2 + i]) {
+                    word |= 1L << i;
+                }
+            }
+            return word;
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    }
+
+    private static class Packed extends PixelKernels {
+
+        @Override
+        public void blend(int[] dst, int dstOffset, int[] src, int srcOffset, int n) {
+            for (int i = 0; i < n; ++i) {
+                final int p2 = src[srcOffset + i];
+                final int a = p2 >>> 24;
+                if (a == 0) {
+                    dst[dstOffset + i] = p2;
+                } else if (a < 0xFF) {
+                    final int p1 = dst[dstOffset + i];
+                    final int b = 0xFF - a;
+                    // Red (bits 16 to 31) and blue (bits 0 to 15) never exceed 255 * 255 + 128 + 255 < 2^16,
+                    // so both can be multiplied, rounded and divided by 255 at once ...
+                    int rb = (p1 & 0xFF00FF) * a + (p2 & 0xFF00FF) * b + 0x800080;
+                    rb = (((rb + ((rb >>> 8) & 0xFF00FF)) >>> 8) & 0xFF00FF);
+                    int g = (p1 & 0xFF00) * a + (p2 & 0xFF00) * b + 0x8000;
+                    g = (((g >>> 8) + (g >>> 16)) & 0xFF00);
+                    dst[dstOffset + i] = rb | g;
+                }
+            }
+        }
+
+        @Override
+        public long compare(int[] data1, int offset1, int[] data2, int offset2, int n) {
+            long word = 0;
+            for (int i = 0; i < n; ++i) {
+                // (d | -d) has its sign bit set, if and only if d is not zero ...
+                final int d = data1[offset1 + i] ^ data2[offset2 + i];
+                word |= ((long) ((d | -d) >>> 31)) << i;
+            }
+            return word;
+        }
+
+        @Override
+        public String toString() {
+            return "packed";
+        }
+    }
+
+    PixelKernels() {}
+}
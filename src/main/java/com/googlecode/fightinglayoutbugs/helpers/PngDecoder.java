@@ -0,0 +1,453 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes PNG images without using AWT or ImageIO: the image data is
+ * inflated and unfiltered row by row and each row is converted into
+ * RGB values and passed to a {@link ScanlineSink} -- so the caller decides
+ * which representation of the image is built, and only one row of
+ * the raw image data is held in memory at any time (interlaced images
+ * are the exception, they are decoded completely before the first
+ * scanline is passed to the sink).
+ * <p>
+ * All color types and bit depths of the PNG specification are supported.
+ * The alpha channel and ancillary chunks (like <tt>gAMA</tt> or <tt>tRNS</tt>)
+ * are ignored, 16 bit samples are reduced to their most significant byte.
+ */
+public final class PngDecoder {
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGB_ALPHA = 6;
+
+    /** Start and step of the seven Adam7 passes: xStart, yStart, xStep, yStep. */
+    private static final int[][] ADAM7 = {
+        { 0, 0, 8, 8 }, { 4, 0, 8, 8 }, { 0, 4, 4, 8 }, { 2, 0, 4, 4 }, { 0, 2, 2, 4 }, { 1, 0, 2, 2 }, { 0, 1, 1, 2 }
+    };
+
+    /**
+     * Decodes the given PNG image into a new {@link PixelBuffer}.
+     */
+    public static PixelBuffer decode(byte[] png) throws IOException {
+        PixelBufferSink sink = new PixelBufferSink();
+        decode(new ByteArrayInputStream(png), sink);
+        return sink.getPixels();
+    }
+
+    /**
+     * Decodes only the pixels inside the given region of the given PNG image
+     * into a new {@link PixelBuffer} with the size of the region -- the parts
+     * of the region outside of the image are ignored. Only the columns of
+     * the region are converted into RGB values, and the image data after
+     * the last row of the region is not inflated at all.
+     */
+    public static PixelBuffer decode(byte[] png, RectangularRegion region) throws IOException {
+        if (region.x1 < 0 || region.y1 < 0) {
+            throw new IllegalArgumentException("Top left corner of given region " + region + " is outside of the image.");
+        }
+        PixelBufferSink sink = new PixelBufferSink();
+        PngDecoder decoder = new PngDecoder(new ByteArrayInputStream(png));
+        decoder._x1 = region.x1;
+        decoder._x2 = region.x2;
+        decoder.decode(new RowRangeSink(sink, region.y1, region.y2));
+        return sink.getPixels();
+    }
+
+    /**
+     * Decodes the given PNG image and passes its scanlines to the given sink.
+     * The given input stream is not closed, and it is not read beyond the
+     * image data once the sink does not want any more scanlines.
+     */
+    public static void decode(InputStream in, ScanlineSink sink) throws IOException {
+        new PngDecoder(in).decode(sink);
+    }
+
+    private final DataInputStream _in;
+    private final CRC32 _crc = new CRC32();
+    private final byte[] _skipBuffer = new byte[4096];
+    private int _chunkType;
+    private int _chunkRemaining;
+
+    private int _width;
+    private int _height;
+    private int _bitDepth;
+    private int _colorType;
+    private int _interlaceMethod;
+    private int _bitsPerPixel;
+    private int[] _palette;
+    /** The columns to decode, both inclusive. */
+    private int _x1 = 0;
+    private int _x2 = Integer.MAX_VALUE;
+
+    private PngDecoder(InputStream in) {
+        _in = new DataInputStream(in);
+    }
+
+    private void decode(ScanlineSink sink) throws IOException {
+        readSignature();
+        readHeader();
+        nextChunk();
+        while (_chunkType != IDAT) {
+            if (_chunkType == PLTE) {
+                readPalette();
+            } else if (_chunkType == IEND) {
+                throw new IOException("PNG image contains no IDAT chunk.");
+            } else if (isCritical(_chunkType)) {
+                throw new IOException("Unknown critical chunk: " + chunkName(_chunkType));
+            }
+            finishChunk();
+            nextChunk();
+        }
+        if (_colorType == PALETTE && _palette == null) {
+            throw new IOException("PNG image with color type 3 contains no PLTE chunk.");
+        }
+        if (_x1 >= _width) {
+            throw new IllegalArgumentException("x1 (" + _x1 + ") is outside of the image, which is only " + _width + " pixels wide.");
+        }
+        _x2 = Math.min(_x2, _width - 1);
+        sink.startImage(_x2 - _x1 + 1, _height);
+        final Inflater inflater = new Inflater();
+        try {
+            final InputStream data = new InflaterInputStream(new IdatInputStream(), inflater, 65536);
+            if (_interlaceMethod == 0) {
+                decodeRows(data, sink);
+            } else {
+                decodeInterlacedRows(data, sink);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readSignature() throws IOException {
+        final byte[] signature = new byte[SIGNATURE.length];
+        _in.readFully(signature);
+        for (int i = 0; i < SIGNATURE.length; ++i) {
+            if (signature[i] != SIGNATURE[i]) {
+                throw new IOException("Not a PNG image.");
+            }
+        }
+    }
+
+    private void readHeader() throws IOException {
+        nextChunk();
+        if (_chunkType != IHDR || _chunkRemaining != 13) {
+            throw new IOException("PNG image does not start with an IHDR chunk.");
+        }
+        final byte[] header = new byte[13];
+        readChunkData(header, 0, 13);
+        _width = getInt(header, 0);
+        _height = getInt(header, 4);
+        _bitDepth = header[8];
+        _colorType = header[9];
+        final int compressionMethod = header[10];
+        final int filterMethod = header[11];
+        _interlaceMethod = header[12];
+        finishChunk();
+        if (_width <= 0 || _height <= 0) {
+            throw new IOException("Invalid PNG image size: " + _width + "x" + _height);
+        }
+        final int channels;
+        switch (_colorType) {
+            case GRAY:       channels = 1; break;
+            case RGB:        channels = 3; break;
+            case PALETTE:    channels = 1; break;
+            case GRAY_ALPHA: channels = 2; break;
+            case RGB_ALPHA:  channels = 4; break;
+            default: throw new IOException("Invalid PNG color type: " + _colorType);
+        }
+        final boolean validBitDepth;
+        switch (_bitDepth) {
+            case 1: case 2: case 4: validBitDepth = (_colorType == GRAY || _colorType == PALETTE); break;
+            case 8: validBitDepth = true; break;
+            case 16: validBitDepth = (_colorType != PALETTE); break;
+            default: validBitDepth = false;
+        }
+        if (!validBitDepth) {
+            throw new IOException("Invalid PNG bit depth " + _bitDepth + " for color type " + _colorType);
+        }
+        if (compressionMethod != 0 || filterMethod != 0 || (_interlaceMethod != 0 && _interlaceMethod != 1)) {
+            throw new IOException("Unsupported PNG compression method (" + compressionMethod + "), filter method (" + filterMethod + ") or interlace method (" + _interlaceMethod + ").");
+        }
+        _bitsPerPixel = channels * _bitDepth;
+    }
+
+    private void readPalette() throws IOException {
+        final int n = _chunkRemaining / 3;
+        if (n * 3 != _chunkRemaining || n > 256) {
+            throw new IOException("Invalid PLTE chunk length: " + _chunkRemaining);
+        }
+        final byte[] entries = new byte[n * 3];
+        readChunkData(entries, 0, entries.length);
+        // Invalid indices are mapped to black ...
+        _palette = new int[256];
+        for (int i = 0, j = 0; i < n; ++i, j += 3) {
+            _palette[i] = ((entries[j] & 0xFF) << 16) | ((entries[j + 1] & 0xFF) << 8) | (entries[j + 2] & 0xFF);
+        }
+    }
+
+    private void decodeRows(InputStream data, ScanlineSink sink) throws IOException {
+        final int bytesPerRow = bytesPerRow(_width);
+        byte[] previousRow = new byte[bytesPerRow + 1];
+        byte[] row = new byte[bytesPerRow + 1];
+        final int[] rgb = new int[_x2 - _x1 + 1];
+        for (int y = 0; y < _height; ++y) {
+            readRow(data, row, previousRow, bytesPerRow + 1);
+            if (sink.wantsScanline(y)) {
+                convertRow(row, _x1, rgb.length, rgb);
+                if (!sink.scanline(y, rgb)) {
+                    return;
+                }
+            }
+            final byte[] temp = previousRow;
+            previousRow = row;
+            row = temp;
+        }
+    }
+
+    private void decodeInterlacedRows(InputStream data, ScanlineSink sink) throws IOException {
+        final int[] image = new int[_width * _height];
+        final int[] rgb = new int[_width];
+        final int n = _x2 - _x1 + 1;
+        for (int[] pass : ADAM7) {
+            final int xStart = pass[0];
+            final int yStart = pass[1];
+            final int xStep = pass[2];
+            final int yStep = pass[3];
+            final int passWidth = (_width - xStart + xStep - 1) / xStep;
+            final int passHeight = (_height - yStart + yStep - 1) / yStep;
+            if (passWidth > 0 && passHeight > 0) {
+                final int bytesPerRow = bytesPerRow(passWidth);
+                byte[] previousRow = new byte[bytesPerRow + 1];
+                byte[] row = new byte[bytesPerRow + 1];
+                for (int i = 0, y = yStart; i < passHeight; ++i, y += yStep) {
+                    readRow(data, row, previousRow, bytesPerRow + 1);
+                    convertRow(row, 0, passWidth, rgb);
+                    for (int j = 0, k = y * _width + xStart; j < passWidth; ++j, k += xStep) {
+                        image[k] = rgb[j];
+                    }
+                    final byte[] temp = previousRow;
+                    previousRow = row;
+                    row = temp;
+                }
+            }
+        }
+        for (int y = 0; y < _height; ++y) {
+            if (sink.wantsScanline(y)) {
+                System.arraycopy(image, y * _width + _x1, rgb, 0, n);
+                if (!sink.scanline(y, rgb)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int bytesPerRow(int width) {
+        return (int) (((long) width * _bitsPerPixel + 7) / 8);
+    }
+
+    /**
+     * Reads the next filtered row (the filter type byte followed by the row bytes)
+     * from the inflated image data into <code>row</code> and reverses the filter.
+     */
+    private void readRow(InputStream data, byte[] row, byte[] previousRow, int n) throws IOException {
+        int i = 0;
+        while (i < n) {
+            final int k = data.read(row, i, n - i);
+            if (k < 0) {
+                throw new EOFException("PNG image data is truncated.");
+            }
+            i += k;
+        }
+        // distance between corresponding bytes of two adjacent pixels ...
+        final int d = Math.max(1, _bitsPerPixel / 8);
+        switch (row[0]) {
+            case 0: // None
+                break;
+            case 1: // Sub
+                for (i = 1 + d; i < n; ++i) {
+                    row[i] += row[i - d];
+                }
+                break;
+            case 2: // Up
+                for (i = 1; i < n; ++i) {
+                    row[i] += previousRow[i];
+                }
+                break;
+            case 3: // Average
+                for (i = 1; i <= d; ++i) {
+                    row[i] += (previousRow[i] & 0xFF) >>> 1;
+                }
+                for (; i < n; ++i) {
+                    row[i] += ((row[i - d] & 0xFF) + (previousRow[i] & 0xFF)) >>> 1;
+                }
+                break;
+            case 4: // Paeth
+                for (i = 1; i <= d; ++i) {
+                    row[i] += previousRow[i];
+                }
+                for (; i < n; ++i) {
+                    final int a = row[i - d] & 0xFF;
+                    final int b = previousRow[i] & 0xFF;
+                    final int c = previousRow[i - d] & 0xFF;
+                    final int pa = Math.abs(b - c);
+                    final int pb = Math.abs(a - c);
+                    final int pc = Math.abs(a + b - c - c);
+                    row[i] += (pa <= pb && pa <= pc ? a : pb <= pc ? b : c);
+                }
+                break;
+            default:
+                throw new IOException("Invalid PNG filter type: " + row[0]);
+        }
+    }
+
+    /**
+     * Converts <code>n</code> pixels of the given unfiltered row (starting at index 1),
+     * beginning with the pixel <code>x1</code>, into RGB values.
+     */
+    private void convertRow(byte[] row, int x1, int n, int[] rgb) {
+        if (_bitDepth == 8 || _bitDepth == 16) {
+            final int d = (_bitDepth == 8 ? 1 : 2);
+            switch (_colorType) {
+                case RGB:
+                case RGB_ALPHA: {
+                    final int step = (_colorType == RGB ? 3 : 4) * d;
+                    for (int x = 0, i = 1 + x1 * step; x < n; ++x, i += step) {
+                        rgb[x] = ((row[i] & 0xFF) << 16) | ((row[i + d] & 0xFF) << 8) | (row[i + 2 * d] & 0xFF);
+                    }
+                    break;
+                }
+                case GRAY:
+                case GRAY_ALPHA: {
+                    final int step = (_colorType == GRAY ? 1 : 2) * d;
+                    for (int x = 0, i = 1 + x1 * step; x < n; ++x, i += step) {
+                        rgb[x] = (row[i] & 0xFF) * 0x010101;
+                    }
+                    break;
+                }
+                default: { // PALETTE
+                    final int[] palette = _palette;
+                    for (int x = 0, i = 1 + x1; x < n; ++x, ++i) {
+                        rgb[x] = palette[row[i] & 0xFF];
+                    }
+                }
+            }
+        } else {
+            // 1, 2 or 4 bit gray or palette indices, packed from the most significant bit ...
+            final int bitDepth = _bitDepth;
+            final int mask = (1 << bitDepth) - 1;
+            final int samplesPerByte = 8 / bitDepth;
+            for (int x = 0; x < n; ++x) {
+                final int b = row[1 + (x1 + x) / samplesPerByte] & 0xFF;
+                final int shift = 8 - bitDepth * (1 + (x1 + x) % samplesPerByte);
+                final int sample = (b >>> shift) & mask;
+                rgb[x] = (_colorType == PALETTE ? _palette[sample] : (sample * 255 / mask) * 0x010101);
+            }
+        }
+    }
+
+    private void nextChunk() throws IOException {
+        final int length = _in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid PNG chunk length: " + length);
+        }
+        _chunkType = _in.readInt();
+        _chunkRemaining = length;
+        _crc.reset();
+        _crc.update(_chunkType >>> 24);
+        _crc.update(_chunkType >>> 16);
+        _crc.update(_chunkType >>> 8);
+        _crc.update(_chunkType);
+    }
+
+    private int readChunkData(byte[] b, int off, int len) throws IOException {
+        final int n = _in.read(b, off, Math.min(len, _chunkRemaining));
+        if (n < 0) {
+            throw new EOFException("PNG image is truncated.");
+        }
+        _crc.update(b, off, n);
+        _chunkRemaining -= n;
+        if (n < len && _chunkRemaining > 0) {
+            return n + readChunkData(b, off + n, len - n);
+        }
+        return n;
+    }
+
+    /**
+     * Skips the rest of the current chunk and checks its CRC.
+     */
+    private void finishChunk() throws IOException {
+        while (_chunkRemaining > 0) {
+            readChunkData(_skipBuffer, 0, _skipBuffer.length);
+        }
+        final int expectedCrc = _in.readInt();
+        if (expectedCrc != (int) _crc.getValue()) {
+            throw new IOException("CRC error in PNG chunk " + chunkName(_chunkType));
+        }
+    }
+
+    private static boolean isCritical(int chunkType) {
+        return (chunkType & 0x20000000) == 0;
+    }
+
+    private static String chunkName(int chunkType) {
+        return new String(new char[] { (char) (chunkType >>> 24), (char) ((chunkType >>> 16) & 0xFF), (char) ((chunkType >>> 8) & 0xFF), (char) (chunkType & 0xFF) });
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    /**
+     * Provides the concatenated data of consecutive IDAT chunks.
+     */
+    private class IdatInputStream extends InputStream {
+
+        private boolean _eof;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (!_eof && _chunkRemaining == 0) {
+                finishChunk();
+                nextChunk();
+                _eof = (_chunkType != IDAT);
+            }
+            return (_eof ? -1 : readChunkData(b, off, len));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+/**
+ * A {@link ScanlineSink}, which passes only the scanlines from <code>y1</code>
+ * to <code>y2</code> (both inclusive) to another sink, as if the image
+ * would only consist of these rows: the other sink receives the scanline
+ * <code>y1</code> as scanline <code>0</code>. Once the scanline <code>y2</code>
+ * has been passed, the decoder is told to stop.
+ */
+public class RowRangeSink implements ScanlineSink {
+
+    private final ScanlineSink _sink;
+    private final int _y1;
+    private int _y2;
+
+    public RowRangeSink(ScanlineSink sink, int y1, int y2) {
+        if (y1 < 0) {
+            throw new IllegalArgumentException("y1 (" + y1 + ") must not be negative.");
+        }
+        if (y2 < y1) {
+            throw new IllegalArgumentException("y2 (" + y2 + ") must not be less than y1 (" + y1 + ").");
+        }
+        _sink = sink;
+        _y1 = y1;
+        _y2 = y2;
+    }
+
+    @Override
+    public void startImage(int width, int height) {
+        if (_y1 >= height) {
+            throw new IllegalArgumentException("y1 (" + _y1 + ") is outside of the image, which is only " + height + " pixels high.");
+        }
+        _y2 = Math.min(_y2, height - 1);
+        _sink.startImage(width, _y2 - _y1 + 1);
+    }
+
+    @Override
+    public boolean wantsScanline(int y) {
+        return (_y1 <= y && y <= _y2 && _sink.wantsScanline(y - _y1));
+    }
+
+    @Override
+    public boolean scanline(int y, int[] rgb) {
+        return (_sink.scanline(y - _y1, rgb) && y < _y2);
+    }
+}
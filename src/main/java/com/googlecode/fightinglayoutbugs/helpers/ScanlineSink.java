@@ -0,0 +1,46 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+/**
+ * Receives the decoded pixels of an image row by row, see {@link PngDecoder}.
+ */
+public interface ScanlineSink {
+
+    /**
+     * Called once before the first scanline is delivered.
+     */
+    void startImage(int width, int height);
+
+    /**
+     * Returns <code>false</code> if the scanline with the given y coordinate
+     * is not needed -- in this case {@link #scanline} will not be called for it
+     * and the decoder can skip the color conversion of that row.
+     */
+    boolean wantsScanline(int y);
+
+    /**
+     * Called for each wanted scanline in ascending order of <code>y</code>.
+     * The given array contains the RGB values (without alpha) of the
+     * <code>width</code> pixels in the row, it is reused for the next
+     * scanline, so it must not be retained.
+     *
+     * @return <code>false</code> if no more scanlines are needed, which
+     *         allows the decoder to stop early.
+     */
+    boolean scanline(int y, int[] rgb);
+}
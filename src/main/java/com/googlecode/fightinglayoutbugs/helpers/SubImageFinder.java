@@ -0,0 +1,280 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.BandTask;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.googlecode.fightinglayoutbugs.helpers.ParallelHelper.forEachBand;
+
+/**
+ * Finds all occurrences of a sub image in images. Each candidate position is
+ * verified pixel by pixel, but only candidate positions are verified, which
+ * <ul>
+ *     <li>either have the same 2D rolling hash (Rabin-Karp) as the sub image
+ *         -- if the sub image has no transparent pixels,</li>
+ *     <li>or have the right color at the position of the sub image pixel
+ *         (the anchor), whose color is the rarest in the searched image.</li>
+ * </ul>
+ * Occurrences are returned from top to bottom, and from left to right.
+ */
+class SubImageFinder {
+
+    /** Bases of the rolling hash for rows and columns -- overflow is used as modulus. */
+    private static final int ROW_BASE = 0x01000193;
+    private static final int COLUMN_BASE = 0x5BD1E995;
+    private static final int MIN_ROWS_PER_TASK = 32;
+
+    private final int _width;
+    private final int _height;
+    /** The colors and offsets of all opaque pixels of the sub image, row by row. */
+    private final int[] _rgb;
+    private final int[] _offsetX;
+    private final int[] _offsetY;
+    private final boolean _opaque;
+    /** The pixels of the sub image, only used if it has no transparent pixels. */
+    private final PixelBuffer _pixels;
+    private final int _maxOffsetX;
+    private final int _maxOffsetY;
+
+    /**
+     * Constructs a finder for the sub image with the given pixels (row by row).
+     * Pixels with an alpha value lower than 255 are ignored.
+     */
+    SubImageFinder(int[] argb, int width, int height) {
+        _width = width;
+        _height = height;
+        int n = 0;
+        for (int i = 0; i < width * height; ++i) {
+            if ((argb[i] >>> 24) == 255) {
+                ++n;
+            }
+        }
+        _rgb = new int[n];
+        _offsetX = new int[n];
+        _offsetY = new int[n];
+        _opaque = (n == width * height);
+        _pixels = (_opaque ? new PixelBuffer(width, height) : null);
+        int maxOffsetX = 0;
+        int maxOffsetY = 0;
+        for (int y = 0, i = 0, j = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x, ++i) {
+                if ((argb[i] >>> 24) == 255) {
+                    _rgb[j] = argb[i] & 0xFFFFFF;
+                    _offsetX[j] = x;
+                    _offsetY[j] = y;
+                    maxOffsetX = Math.max(maxOffsetX, x);
+                    maxOffsetY = Math.max(maxOffsetY, y);
+                    ++j;
+                }
+            }
+        }
+        if (_opaque) {
+            System.arraycopy(_rgb, 0, _pixels.data, 0, n);
+        }
+        _maxOffsetX = maxOffsetX;
+        _maxOffsetY = maxOffsetY;
+    }
+
+    /**
+     * Returns the first <code>max</code> occurrences of the sub image in the given image.
+     * If <code>executorService</code> is not <code>null</code>, bands of rows are searched in parallel.
+     */
+    List<RectangularRegion> findIn(final PixelBuffer image, final int max, @Nullable ExecutorService executorService) {
+        final int n = _rgb.length;
+        final int nx = image.width - _maxOffsetX;
+        final int ny = image.height - _maxOffsetY;
+        if (n == 0 || nx <= 0 || ny <= 0 || max <= 0) {
+            return new ArrayList<RectangularRegion>();
+        }
+        final long anchorAndCount = findAnchor(image);
+        final int anchor = (int) anchorAndCount;
+        final int anchorCount = (int) (anchorAndCount >>> 32);
+        final boolean useRollingHash = (_opaque && anchorCount > ((long) nx * ny) / 16);
+        // Searched bands are stored by their first row, therefore results are sorted from top to bottom ...
+        final SortedMap<Integer, List<RectangularRegion>> bandResults = Collections.synchronizedSortedMap(new TreeMap<Integer, List<RectangularRegion>>());
+        // First row of the topmost band, which already found max occurrences -- bands below can stop ...
+        final AtomicInteger saturated = new AtomicInteger(Integer.MAX_VALUE);
+        forEachBand(executorService, ny, MIN_ROWS_PER_TASK, 1, new BandTask() {
+            @Override
+            public void process(int from, int to) {
+                final List<RectangularRegion> result = new ArrayList<RectangularRegion>();
+                if (useRollingHash) {
+                    findWithRollingHash(image, from, to, nx, max, saturated, result);
+                } else {
+                    findWithAnchor(image, anchor, from, to, nx, max, saturated, result);
+                }
+                if (result.size() == max) {
+                    int s;
+                    do {
+                        s = saturated.get();
+                    } while (from < s && !saturated.compareAndSet(s, from));
+                }
+                bandResults.put(from, result);
+            }
+        });
+        final List<RectangularRegion> result = new ArrayList<RectangularRegion>();
+        for (List<RectangularRegion> regions : bandResults.values()) {
+            for (RectangularRegion region : regions) {
+                if (result.size() == max) {
+                    return result;
+                }
+                result.add(region);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines the opaque sub image pixel, whose color occurs least often in the given image,
+     * and returns how often its color occurs in the upper and its index in the lower 32 bits.
+     */
+    private long findAnchor(PixelBuffer image) {
+        final int[] colors = _rgb.clone();
+        Arrays.sort(colors);
+        int k = 0;
+        for (int i = 0; i < colors.length; ++i) {
+            if (i == 0 || colors[i] != colors[k - 1]) {
+                colors[k++] = colors[i];
+            }
+        }
+        final int[] counts = new int[k];
+        for (int y = 0; y < image.height; ++y) {
+            final int o = y * image.stride;
+            for (int x = 0; x < image.width; ++x) {
+                final int i = Arrays.binarySearch(colors, 0, k, image.data[o + x]);
+                if (i >= 0) {
+                    ++counts[i];
+                }
+            }
+        }
+        int anchor = 0;
+        int minCount = Integer.MAX_VALUE;
+        for (int j = 0; j < _rgb.length && minCount > 0; ++j) {
+            final int count = counts[Arrays.binarySearch(colors, 0, k, _rgb[j])];
+            if (count < minCount) {
+                anchor = j;
+                minCount = count;
+            }
+        }
+        return ((long) minCount << 32) | anchor;
+    }
+
+    /**
+     * Verifies all candidate positions in the rows from <code>from</code> (inclusive)
+     * to <code>to</code> (exclusive), where the anchor pixel has the right color.
+     */
+    private void findWithAnchor(PixelBuffer image, int anchor, int from, int to, int nx, int max, AtomicInteger saturated, List<RectangularRegion> result) {
+        final int anchorRgb = _rgb[anchor];
+        final int ax = _offsetX[anchor];
+        final int ay = _offsetY[anchor];
+        for (int y = from; y < to && saturated.get() >= from; ++y) {
+            final int o = (y + ay) * image.stride + ax;
+            for (int x = 0; x < nx; ++x) {
+                if (image.data[o + x] == anchorRgb && matches(image, x, y)) {
+                    result.add(new RectangularRegion(x, y, x + (_width - 1), y + (_height - 1)));
+                    if (result.size() == max) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Verifies all candidate positions in the rows from <code>from</code> (inclusive)
+     * to <code>to</code> (exclusive), which have the same 2D rolling hash as the sub image.
+     * The hashes of all windows of the current row are updated with the row hashes of
+     * the row leaving the window (kept in a ring buffer) and the row entering it.
+     */
+    private void findWithRollingHash(PixelBuffer image, int from, int to, int nx, int max, AtomicInteger saturated, List<RectangularRegion> result) {
+        final int rowPower = power(ROW_BASE, _width - 1);
+        final int columnPower = power(COLUMN_BASE, _height - 1);
+        final int[] subImageRowHash = new int[1];
+        int subImageHash = 0;
+        for (int y = 0; y < _height; ++y) {
+            hashRow(_pixels, y, 1, rowPower, subImageRowHash);
+            subImageHash = subImageHash * COLUMN_BASE + subImageRowHash[0];
+        }
+        final int[][] rowHashes = new int[_height][nx];
+        final int[] hashes = new int[nx];
+        final int[] entering = new int[nx];
+        for (int j = 0; j < _height; ++j) {
+            hashRow(image, from + j, nx, rowPower, rowHashes[j]);
+            for (int x = 0; x < nx; ++x) {
+                hashes[x] = hashes[x] * COLUMN_BASE + rowHashes[j][x];
+            }
+        }
+        for (int y = from; y < to && saturated.get() >= from; ++y) {
+            for (int x = 0; x < nx; ++x) {
+                if (hashes[x] == subImageHash && matches(image, x, y)) {
+                    result.add(new RectangularRegion(x, y, x + (_width - 1), y + (_height - 1)));
+                    if (result.size() == max) {
+                        return;
+                    }
+                }
+            }
+            if (y + 1 < to) {
+                final int[] leaving = rowHashes[(y - from) % _height];
+                hashRow(image, y + _height, nx, rowPower, entering);
+                for (int x = 0; x < nx; ++x) {
+                    hashes[x] = (hashes[x] - leaving[x] * columnPower) * COLUMN_BASE + entering[x];
+                }
+                System.arraycopy(entering, 0, leaving, 0, nx);
+            }
+        }
+    }
+
+    /**
+     * Calculates the hashes of the first <code>nx</code> windows of <code>_width</code> pixels in row <code>y</code>.
+     */
+    private void hashRow(PixelBuffer pixels, int y, int nx, int rowPower, int[] hashes) {
+        final int o = y * pixels.stride;
+        int hash = 0;
+        for (int x = 0; x < _width; ++x) {
+            hash = hash * ROW_BASE + pixels.data[o + x];
+        }
+        hashes[0] = hash;
+        for (int x = 1; x < nx; ++x) {
+            hash = (hash - pixels.data[o + x - 1] * rowPower) * ROW_BASE + pixels.data[o + x - 1 + _width];
+            hashes[x] = hash;
+        }
+    }
+
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; ++i) {
+            result *= base;
+        }
+        return result;
+    }
+
+    private boolean matches(PixelBuffer image, int x, int y) {
+        final int[] data = image.data;
+        final int stride = image.stride;
+        for (int i = 0; i < _rgb.length; ++i) {
+            if (data[(y + _offsetY[i]) * stride + x + _offsetX[i]] != _rgb[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+// The in-page runtime of Fighting Layout Bugs, which is installed by WebPage
+// (only once per page) and only uses native DOM APIs ...
+window.__flb = window.__flb || (function(window, document) {
+
+    var flb = {};
+
+    var TRANSPARENT_GIF = 'data:image/gif;base64,R0lGODlhAQABAAAAACH5BAEKAAEALAAAAAABAAEAAAICTAEAOw==';
+
+    function forEach(elements, f) {
+        var i;
+        for (i = 0; i < elements.length; ++i) {
+            f(elements[i]);
+        }
+    }
+
+    function select(selector) {
+        return selector == '*' ? document.getElementsByTagName('*') : document.querySelectorAll(selector);
+    }
+
+    // Same as jQuery(e).is(':visible') ...
+    function isVisible(e) {
+        return e.offsetWidth > 0 || e.offsetHeight > 0;
+    }
+
+    // Returns the position of the border box (relative to the document) and the size of the content box of
+    // the given element -- the same as jQuery(e).offset(), jQuery(e).width(), and jQuery(e).height() ...
+    function box(e) {
+        var r = e.getBoundingClientRect(), s = window.getComputedStyle(e, null), d = document.documentElement;
+        function px(property) {
+            return parseFloat(s.getPropertyValue(property)) || 0;
+        }
+        return {
+            left: r.left + (window.pageXOffset || d.scrollLeft) - (d.clientLeft || 0),
+            top: r.top + (window.pageYOffset || d.scrollTop) - (d.clientTop || 0),
+            width: (r.right - r.left) - px('padding-left') - px('padding-right') - px('border-left-width') - px('border-right-width'),
+            height: (r.bottom - r.top) - px('padding-top') - px('padding-bottom') - px('border-top-width') - px('border-bottom-width')
+        };
+    }
+
+    // Enables the <style> element with the given id (which is injected with the given CSS if not present yet),
+    // and disables all other <style> elements, whose id starts with the given prefix, the id might be empty ...
+    flb.toggleStyle = function(id, css, idPrefix) {
+        var e;
+        forEach(document.getElementsByTagName('style'), function(style) {
+            if (style.id && style.id.indexOf(idPrefix) == 0) {
+                style.disabled = (style.id != id);
+            }
+        });
+        if (id && !document.getElementById(id)) {
+            e = document.createElement('style');
+            e.id = id;
+            e.type = 'text/css';
+            e.appendChild(document.createTextNode(css));
+            (document.head || document.documentElement).appendChild(e);
+        }
+    };
+
+    // Sets the given style property of the given element as inline !important style,
+    // the original inline style is backed up only once, so that it can be restored ...
+    function override(e, property, value) {
+        var s = e.style, backups = e.__flbBackups || (e.__flbBackups = {});
+        if (!(property in backups)) {
+            backups[property] = [s.getPropertyValue(property), s.getPropertyPriority(property)];
+        }
+        s.setProperty(property, value, 'important');
+    }
+
+    function restore(e, property) {
+        var backups = e.__flbBackups, backup = backups && backups[property];
+        if (backup) {
+            if (backup[0]) {
+                e.style.setProperty(property, backup[0], backup[1]);
+            } else {
+                e.style.removeProperty(property);
+            }
+            delete backups[property];
+        }
+    }
+
+    function setAttribute(e, name, value) {
+        if (value === null) {
+            e.removeAttribute(name);
+        } else {
+            e.setAttribute(name, value);
+        }
+    }
+
+    flb.overrideStyle = function(selector, property, value, onlyIfComputedValueIsNot) {
+        forEach(select(selector), function(e) {
+            var backups = e.__flbBackups;
+            if (onlyIfComputedValueIsNot && !(backups && property in backups) && window.getComputedStyle(e, null).getPropertyValue(property) == onlyIfComputedValueIsNot) {
+                return;
+            }
+            override(e, property, value);
+        });
+    };
+
+    flb.restoreStyle = function(selector, property) {
+        forEach(select(selector), function(e) {
+            restore(e, property);
+        });
+    };
+
+    // Replaces the image of all <img> elements with a transparent GIF (after fixing their size, so
+    // that the layout does not change), so that no decoded image content is left in the page, which
+    // could be shown again by style rules (like :hover rules or transitions on opacity) ...
+    flb.hideImgs = function() {
+        forEach(document.getElementsByTagName('img'), function(e) {
+            var b;
+            if (!e.__flbImg) {
+                b = box(e);
+                override(e, 'width', b.width + 'px');
+                override(e, 'height', b.height + 'px');
+                e.__flbImg = [e.getAttribute('src'), e.getAttribute('srcset')];
+                e.removeAttribute('srcset');
+                e.setAttribute('src', TRANSPARENT_GIF);
+            }
+        });
+    };
+
+    flb.restoreImgs = function() {
+        forEach(document.getElementsByTagName('img'), function(e) {
+            var backup = e.__flbImg;
+            if (backup) {
+                setAttribute(e, 'srcset', backup[1]);
+                setAttribute(e, 'src', backup[0]);
+                restore(e, 'width');
+                restore(e, 'height');
+                e.__flbImg = undefined;
+            }
+        });
+    };
+
+    flb.stopTimers = function() {
+        var noop = function() {}, i, n;
+        n = window.setTimeout(noop, 1);
+        for (i = 0; i <= n; ++i) window.clearTimeout(i);
+        window.setTimeout = noop;
+        n = window.setInterval(noop, 1);
+        for (i = 0; i <= n; ++i) window.clearInterval(i);
+        window.setInterval = noop;
+    };
+
+    flb.stopCssAnimations = function() {
+        var prefixes = ['', '-webkit-', '-moz-', '-ms-', '-o-'], css = '', i;
+        for (i = 0; i < prefixes.length; ++i) {
+            css += prefixes[i] + 'animation-play-state: paused !important; ' + prefixes[i] + 'transition-property: none !important; ';
+        }
+        flb.toggleStyle('flb_stop_css_animations', '* { ' + css + '}', 'flb_stop_css_animations');
+    };
+
+    // Returns the regions covered by all visible elements matching one of the given CSS selectors,
+    // selectors not supported by querySelectorAll are handed to jQuery, if it is present, otherwise
+    // { unsupported: [...] } is returned ...
+    flb.regions = function(selectors) {
+        var elements = [], unsupported = [], result = [];
+        forEach(selectors, function(selector) {
+            try {
+                forEach(document.querySelectorAll(selector), function(e) { elements.push(e); });
+            } catch (ex) {
+                if (window.jQuery) {
+                    forEach(window.jQuery(selector).get(), function(e) { elements.push(e); });
+                } else {
+                    unsupported.push(selector);
+                }
+            }
+        });
+        if (unsupported.length > 0) {
+            return { unsupported: unsupported };
+        }
+        forEach(elements, function(e) {
+            if (!e.__flbSeen && isVisible(e)) {
+                e.__flbSeen = true;
+                result.push(box(e));
+            }
+        });
+        forEach(elements, function(e) { e.__flbSeen = undefined; });
+        return result;
+    };
+
+    // Returns a JSON string with the position, the size, and the HTML of the given element ...
+    flb.describe = function(e) {
+        var b = box(e), temp;
+        if (e.outerHTML === undefined) {
+            temp = document.createElement('div');
+            temp.appendChild(e.cloneNode(true));
+        }
+        return JSON.stringify({ x: b.left, y: b.top, w: b.width, h: b.height, html: temp ? temp.innerHTML : e.outerHTML });
+    };
+
+    // Returns a JSON string with the document charset, the src attribute of all visible <img> elements,
+    // all style attributes, the content of all <style> elements (except the ones injected by this runtime),
+    // and the rel, type, href, and charset attribute of all <link> elements. If includeResourceStatus is true,
+    // the result also maps the URLs of all images the browser has decoded and of all resources for which
+    // the browser knows the HTTP response status code to what the browser knows about them ...
+    flb.harvestResources = function(includeResourceStatus) {
+        var result = { charset: document.characterSet || document.charset, visibleImgSrcs: [], styleAttributes: [], styleElements: [], links: [] };
+        forEach(document.getElementsByTagName('img'), function(e) {
+            var src;
+            if (isVisible(e) && window.getComputedStyle(e, null).getPropertyValue('visibility') != 'hidden') {
+                src = e.getAttribute('src');
+                result.visibleImgSrcs.push(src ? e.src : src);
+            }
+        });
+        forEach(document.querySelectorAll('[style]'), function(e) {
+            result.styleAttributes.push({ tagName: e.tagName.toLowerCase(), css: e.getAttribute('style') });
+        });
+        forEach(document.getElementsByTagName('style'), function(e) {
+            if (!(e.id && e.id.indexOf('flb_') == 0)) {
+                result.styleElements.push(e.innerHTML);
+            }
+        });
+        forEach(document.getElementsByTagName('link'), function(e) {
+            result.links.push({ rel: e.getAttribute('rel'), type: e.getAttribute('type'), href: (e.getAttribute('href') == null ? null : e.href), charset: e.getAttribute('charset') });
+        });
+        if (includeResourceStatus) {
+            result.resourceStatus = {};
+            var status = function(url) {
+                return result.resourceStatus[url] || (result.resourceStatus[url] = { decoded: false, responseStatus: 0 });
+            };
+            forEach(document.getElementsByTagName('img'), function(e) {
+                // If srcset is used, the decoded image might not be the one referenced by the src attribute ...
+                if (e.src && e.complete && e.naturalWidth > 0 && (!e.currentSrc || e.currentSrc == e.src)) {
+                    status(e.src).decoded = true;
+                }
+            });
+            if (window.performance && performance.getEntriesByType) {
+                // The response status is 0, if the browser does not support it or if the resource
+                // is a cross-origin resource without Timing-Allow-Origin response header ...
+                forEach(performance.getEntriesByType('resource'), function(entry) {
+                    if (entry.responseStatus > 0) {
+                        status(entry.name).responseStatus = entry.responseStatus;
+                    }
+                });
+            }
+        }
+        return JSON.stringify(result);
+    };
+
+    return flb;
+})(window, document);
@@ -16,6 +16,16 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.ArtifactCacheUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.BitMaskUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.CompressedPixelsUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.ImageHelperUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.IndexedPixelsUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.IntArrayPoolUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBufferUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.PixelContrastsUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.PixelKernelsUnitTest;
+import com.googlecode.fightinglayoutbugs.helpers.PngDecoderUnitTest;
 import com.googlecode.fightinglayoutbugs.helpers.TestHelperUnitTest;
 import com.googlecode.fightinglayoutbugs.helpers.RectangularRegionUnitTest;
 import com.googlecode.fightinglayoutbugs.helpers.SocketHelperUnitTest;
@@ -26,9 +36,25 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
     TestHelperUnitTest.class,
+    PixelBufferUnitTest.class,
+    ArtifactCacheUnitTest.class,
+    PixelKernelsUnitTest.class,
+    PngDecoderUnitTest.class,
+    BitMaskUnitTest.class,
+    CompressedPixelsUnitTest.class,
+    DetectInvalidImageUrlsUnitTest.class,
+    CompareScreenshotsUnitTest.class,
+    DetectTextWithTooLowContrastUnitTest.class,
+    ImageHelperUnitTest.class,
+    IndexedPixelsUnitTest.class,
+    IntArrayPoolUnitTest.class,
+    PixelContrastsUnitTest.class,
     RectangularRegionUnitTest.class,
     ScreenshotCacheUnitTest.class,
+    SimpleEdgeDetectorUnitTest.class,
     SocketHelperUnitTest.class,
-    Utf8BomAwareByteArrayOutputStreamUnitTest.class
+    SurroundBuggyPixelsUnitTest.class,
+    Utf8BomAwareByteArrayOutputStreamUnitTest.class,
+    WebPageUnitTest.class
 })
 public class AllUnitTests {}
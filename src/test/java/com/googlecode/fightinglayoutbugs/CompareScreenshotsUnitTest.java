@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.RectangularRegion;
+import com.googlecode.fightinglayoutbugs.helpers.ScanlineSink;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class CompareScreenshotsUnitTest {
+
+    @Test
+    public void testThatAllDifferentPixelsAreFound() {
+        final Random random = new Random(42);
+        final PixelBuffer pixels1 = new PixelBuffer(150, 20);
+        final PixelBuffer pixels2 = new PixelBuffer(150, 20);
+        for (int i = 0; i < 100; ++i) {
+            pixels2.set(random.nextInt(150), random.nextInt(20), 1 + random.nextInt(0xFFFFFF));
+        }
+        final CompareScreenshots diff = new CompareScreenshots(new Screenshot(pixels1), new Screenshot(pixels2));
+        int n = 0;
+        for (int x = 0; x < 150; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                final boolean different = (pixels1.get(x, y) != pixels2.get(x, y));
+                assertThat(diff.differentPixels.get(x, y), is(different));
+                n += (different ? 1 : 0);
+            }
+        }
+        assertThat(diff.getNumDifferentPixels(), is(n));
+        assertThat(diff.differencesFound());
+    }
+
+    @Test
+    public void testThatScannedScreenshotIsComparedRowByRow() {
+        final Random random = new Random(42);
+        final PixelBuffer pixels1 = new PixelBuffer(150, 20);
+        final PixelBuffer pixels2 = new PixelBuffer(130, 30);
+        for (int i = 0; i < 100; ++i) {
+            pixels2.set(random.nextInt(130), random.nextInt(30), 1 + random.nextInt(0xFFFFFF));
+        }
+        final WebPage webPage = mock(WebPage.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                pixels2.writeTo((ScanlineSink) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(webPage).scanScreenshot(eq(Condition.WITH_ALL_TEXT_WHITE), any(ScanlineSink.class));
+        final CompareScreenshots diff = new CompareScreenshots(new Screenshot(pixels1), webPage, Condition.WITH_ALL_TEXT_WHITE);
+        final CompareScreenshots expectedDiff = new CompareScreenshots(new Screenshot(pixels1), new Screenshot(pixels2));
+        assertThat(diff.width, is(130));
+        assertThat(diff.height, is(20));
+        assertThat(diff.differentPixels, is(expectedDiff.differentPixels));
+        assertThat(diff.getNumDifferentPixels(), is(expectedDiff.getNumDifferentPixels()));
+    }
+
+    @Test
+    public void testIgnoreAndDirtyRegions() {
+        final PixelBuffer pixels1 = new PixelBuffer(100, 30);
+        final PixelBuffer pixels2 = new PixelBuffer(100, 30);
+        pixels2.set(10, 2, 1);
+        pixels2.set(70, 3, 1);
+        pixels2.set(40, 20, 1);
+        final Screenshot screenshot1 = new Screenshot(pixels1);
+        final Screenshot screenshot2 = new Screenshot(pixels2);
+        final CompareScreenshots diff = new CompareScreenshots(screenshot1, screenshot2);
+        assertThat(diff.getDirtyRegions(), is(Arrays.asList(new RectangularRegion(10, 2, 70, 3), new RectangularRegion(40, 20, 40, 20))));
+        final Collection<RectangularRegion> ignoredRegions = Arrays.asList(new RectangularRegion(0, 0, 50, 2), new RectangularRegion(30, 0, 80, 10));
+        assertThat(CompareScreenshots.differencesFound(screenshot1, screenshot2, ignoredRegions));
+        diff.ignore(ignoredRegions);
+        assertThat(diff.getNumDifferentPixels(), is(1));
+        assertThat(diff.getDirtyRegions(), is(Collections.singletonList(new RectangularRegion(40, 20, 40, 20))));
+        final Collection<RectangularRegion> allIgnored = Arrays.asList(new RectangularRegion(0, 0, 50, 2), new RectangularRegion(30, 0, 80, 29));
+        assertThat(CompareScreenshots.differencesFound(screenshot1, screenshot2, allIgnored), is(false));
+        assertThat(diff.ignore(allIgnored).noDifferencesFound());
+        assertThat(diff.getDirtyRegions().isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+import static org.junit.Assert.assertThat;
+
+public class DetectInvalidImageUrlsUnitTest {
+
+    private static final String PAGE_RESOURCES =
+        "{charset: 'UTF-8'," +
+        " visibleImgSrcs: ['http://example.com/ok.png', 'http://example.com/missing.png']," +
+        " styleAttributes: [{tagName: 'div', css: 'background: url(unused.png)'}]," +
+        " styleElements: []," +
+        " links: [{rel: 'icon', type: null, href: 'http://example.com/favicon.png', charset: null}]";
+
+    private static final String RESOURCE_STATUS =
+        " resourceStatus: {" +
+        "  'http://example.com/ok.png': {decoded: true, responseStatus: 0}," +
+        "  'http://example.com/missing.png': {decoded: false, responseStatus: 404}," +
+        "  'http://example.com/favicon.png': {decoded: false, responseStatus: 200}" +
+        " }";
+
+    @Test
+    public void testThatImageUrlsKnownByBrowserAreNotCheckedViaHttp() throws Exception {
+        final WebPage webPage = mockWebPage(PAGE_RESOURCES + "," + RESOURCE_STATUS + "}");
+        final HttpClient httpClient = mockOfflineHttpClient();
+        final DetectInvalidImageUrls detector = newDetector(httpClient);
+        detector.setUseBrowserResourceStatus(true);
+        final List<String> descriptions = getDescriptionsOf(detector.findLayoutBugsIn(webPage));
+        verify(webPage).executeJavaScript("return __flb.harvestResources(arguments[0]);", true);
+        // Only the unused background image and the favicon (which was not decoded by the browser) should be checked via HTTP ...
+        verify(httpClient, times(2)).executeMethod(any(HttpMethod.class));
+        assertThat(descriptions.size(), is(3));
+        assertThat(descriptions.contains("Detected visible <img> element with invalid src attribute \"http://example.com/missing.png\" -- HTTP server responded with: 404"), is(true));
+        assertThat(descriptions.contains("Detected <div> element with invalid image URL \"unused.png\" in its style attribute -- HTTP GET failed: offline"), is(true));
+        assertThat(descriptions.contains("Detected invalid favicon URL \"http://example.com/favicon.png\" -- HTTP GET failed: offline"), is(true));
+    }
+
+    @Test
+    public void testThatAllImageUrlsAreCheckedViaHttpByDefault() throws Exception {
+        final WebPage webPage = mockWebPage(PAGE_RESOURCES + "}");
+        final HttpClient httpClient = mockOfflineHttpClient();
+        final DetectInvalidImageUrls detector = newDetector(httpClient);
+        final List<String> descriptions = getDescriptionsOf(detector.findLayoutBugsIn(webPage));
+        verify(webPage).executeJavaScript("return __flb.harvestResources(arguments[0]);", false);
+        verify(httpClient, times(4)).executeMethod(any(HttpMethod.class));
+        assertThat(descriptions.size(), is(4));
+    }
+
+    @Test
+    public void testThatUrlsAreExtractedFromHarvestedResources() throws Exception {
+        final WebPage webPage = mockWebPage(
+            "{charset: 'UTF-8'," +
+            " visibleImgSrcs: ['img/a.png', 'http://cdn.example.com/b.gif', 'img/a.png', '', null, 'data:image/png;base64,iVBORw0KGgo=']," +
+            " styleAttributes: [" +
+            "  {tagName: 'div', css: \"background-image: url('bg/div.png')\"}," +
+            "  {tagName: 'span', css: '@import \"attr.css\"; color: red'}" +
+            " ]," +
+            " styleElements: ['@charset \"UTF-8\"; @import url(imported.css); body { background: url(\"bg/body.jpg\") } @font-face { src: url(font.woff) }']," +
+            " links: [" +
+            "  {rel: 'StyleSheet', type: null, href: '/css/main.css', charset: null}," +
+            "  {rel: 'shortcut icon', type: null, href: '/icons/favicon.png', charset: null}," +
+            "  {rel: 'alternate', type: 'application/rss+xml', href: '/feed.xml', charset: null}" +
+            " ]}");
+        final HttpClient httpClient = mockOfflineHttpClient();
+        final DetectInvalidImageUrls detector = newDetector(httpClient);
+        detector.setUseBrowserResourceStatus(false);
+        final List<String> descriptions = getDescriptionsOf(detector.findLayoutBugsIn(webPage));
+        final ArgumentCaptor<HttpMethod> httpMethods = ArgumentCaptor.forClass(HttpMethod.class);
+        verify(httpClient, atLeastOnce()).executeMethod(httpMethods.capture());
+        final Set<String> requestedUrls = new HashSet<String>();
+        for (HttpMethod httpMethod : httpMethods.getAllValues()) {
+            requestedUrls.add(httpMethod.getURI().toString());
+        }
+        final Set<String> expectedUrls = new HashSet<String>(asList(
+            "http://example.com/img/a.png",
+            "http://cdn.example.com/b.gif",
+            "http://example.com/bg/div.png",
+            "http://example.com/attr.css",
+            "http://example.com/imported.css",
+            "http://example.com/bg/body.jpg",
+            "http://example.com/css/main.css",
+            "http://example.com/icons/favicon.png"
+        ));
+        assertThat(requestedUrls, is(expectedUrls));
+        assertThat(descriptions.contains("Detected visible <img> element with empty src attribute."), is(true));
+        assertThat(descriptions.contains("Detected <div> element with invalid image URL \"bg/div.png\" in its style attribute -- HTTP GET failed: offline"), is(true));
+        assertThat(descriptions.contains("Detected <style> element with invalid image URL \"bg/body.jpg\" -- HTTP GET failed: offline"), is(true));
+        assertThat(descriptions.contains("Detected invalid favicon URL \"/icons/favicon.png\" -- HTTP GET failed: offline"), is(true));
+    }
+
+    private DetectInvalidImageUrls newDetector(HttpClient httpClient) {
+        final DetectInvalidImageUrls detector = new DetectInvalidImageUrls();
+        detector.setHttpClient(httpClient);
+        detector.setScreenshotDir(null);
+        return detector;
+    }
+
+    private WebPage mockWebPage(String pageResources) throws Exception {
+        final WebPage webPage = mock(WebPage.class);
+        when(webPage.getUrl()).thenReturn(new URL("http://example.com/index.html"));
+        when(webPage.executeJavaScript(anyString(), anyVararg())).thenReturn(pageResources);
+        final WebDriver driver = mock(WebDriver.class);
+        final WebDriver.Options options = mock(WebDriver.Options.class);
+        when(driver.manage()).thenReturn(options);
+        when(options.getCookies()).thenReturn(Collections.<Cookie>emptySet());
+        when(webPage.getDriver()).thenReturn(driver);
+        return webPage;
+    }
+
+    private HttpClient mockOfflineHttpClient() throws Exception {
+        final HttpClient httpClient = mock(HttpClient.class);
+        when(httpClient.executeMethod(any(HttpMethod.class))).thenThrow(new IOException("offline"));
+        return httpClient;
+    }
+
+    private List<String> getDescriptionsOf(Collection<LayoutBug> layoutBugs) {
+        final List<String> descriptions = new ArrayList<String>();
+        for (LayoutBug layoutBug : layoutBugs) {
+            descriptions.add(layoutBug.getDescription());
+        }
+        return descriptions;
+    }
+}
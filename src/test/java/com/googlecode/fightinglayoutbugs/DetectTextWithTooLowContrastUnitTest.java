@@ -0,0 +1,161 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class DetectTextWithTooLowContrastUnitTest {
+
+    @Test
+    public void testThatTextComponentsAreTheSameAsFoundByFloodFill() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20; ++i) {
+            BitMask text = createRandomTextMask(random, 1 + random.nextInt(300), 1 + random.nextInt(150), 0.1 + 0.5 * random.nextDouble());
+            assertThatTextComponentsAreTheSameAsFoundByFloodFill(text, text.width, text.height);
+            assertThatTextComponentsAreTheSameAsFoundByFloodFill(text, (text.width + 1) / 2, (text.height + 1) / 2);
+        }
+    }
+
+    @Test
+    public void testThatParallelAnalysisYieldsSameResultAsSerialAnalysis() {
+        Random random = new Random(42);
+        int w = 801;
+        int h = 603;
+        PixelBuffer pixels = new PixelBuffer(w, h);
+        pixels.fill(0xFFFFFF);
+        BitMask text = new BitMask(w, h);
+        // Draw enough text areas to be analyzed by more than one task,
+        // some of them with low contrast to the background ...
+        for (int i = 0; i < 2000; ++i) {
+            int x1 = random.nextInt(w);
+            int y1 = random.nextInt(h);
+            int x2 = Math.min(w, x1 + 1 + random.nextInt(20));
+            int y2 = Math.min(h, y1 + 1 + random.nextInt(8));
+            int rgb = (random.nextBoolean() ? 0x000000 : 0xEEEEEE);
+            for (int y = y1; y < y2; ++y) {
+                for (int x = x1; x < x2; ++x) {
+                    pixels.set(x, y, rgb);
+                    text.set(x, y);
+                }
+            }
+        }
+        WebPage webPage = mock(WebPage.class);
+        when(webPage.getScreenshot()).thenReturn(new Screenshot(pixels));
+        when(webPage.getTextPixels()).thenReturn(text);
+        when(webPage.get(Artifact.TEXT_COMPONENTS)).thenReturn(TextComponent.findIn(text, w, h));
+        DetectTextWithTooLowContrast detector = new DetectTextWithTooLowContrast();
+        BitMask buggyPixels = detector.findBuggyPixelsIn(webPage);
+        assertThat(buggyPixels != null && buggyPixels.any());
+        assertThat(text.copy().andNot(buggyPixels).any());
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            detector.setExecutorService(executorService);
+            assertThat(detector.findBuggyPixelsIn(webPage), is(buggyPixels));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private BitMask createRandomTextMask(Random random, int w, int h, double density) {
+        BitMask text = new BitMask(w, h);
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                if (random.nextDouble() < density) {
+                    text.set(x, y);
+                }
+            }
+        }
+        return text;
+    }
+
+    private void assertThatTextComponentsAreTheSameAsFoundByFloodFill(BitMask text, int w, int h) {
+        List<TextComponent> components = TextComponent.findIn(text, w, h);
+        List<int[][]> expectedComponents = floodFill(text, w, h);
+        assertThat(components.size(), is(expectedComponents.size()));
+        for (int i = 0; i < components.size(); ++i) {
+            TextComponent component = components.get(i);
+            int[][] expected = expectedComponents.get(i);
+            int[] expectedMinY = expected[0];
+            int[] expectedMaxY = expected[1];
+            int expectedMinX = 0;
+            while (expectedMinY[expectedMinX] == Integer.MAX_VALUE) {
+                ++expectedMinX;
+            }
+            int expectedMaxX = w - 1;
+            while (expectedMinY[expectedMaxX] == Integer.MAX_VALUE) {
+                --expectedMaxX;
+            }
+            assertThat(component.minX, is(expectedMinX));
+            assertThat(component.maxX, is(expectedMaxX));
+            for (int x = expectedMinX; x <= expectedMaxX; ++x) {
+                assertThat(component.getMinY(x), is(expectedMinY[x]));
+                if (expectedMinY[x] != Integer.MAX_VALUE) {
+                    assertThat(component.getMaxY(x), is(expectedMaxY[x]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest and the biggest y coordinate in each column of each
+     * 4-connected component, ordered by the position of its topmost leftmost pixel.
+     */
+    private List<int[][]> floodFill(BitMask text, int w, int h) {
+        List<int[][]> components = new ArrayList<int[][]>();
+        boolean[][] visited = new boolean[w][h];
+        int[] stack = new int[w * h];
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                if (text.get(x, y) && !visited[x][y]) {
+                    int[] minY = new int[w];
+                    int[] maxY = new int[w];
+                    Arrays.fill(minY, Integer.MAX_VALUE);
+                    int n = 0;
+                    stack[n++] = y * w + x;
+                    visited[x][y] = true;
+                    while (n > 0) {
+                        int p = stack[--n];
+                        int px = p % w;
+                        int py = p / w;
+                        minY[px] = Math.min(minY[px], py);
+                        maxY[px] = Math.max(maxY[px], py);
+                        int[][] neighbours = { { px - 1, py }, { px + 1, py }, { px, py - 1 }, { px, py + 1 } };
+                        for (int[] q : neighbours) {
+                            if (q[0] >= 0 && q[0] < w && q[1] >= 0 && q[1] < h && text.get(q[0], q[1]) && !visited[q[0]][q[1]]) {
+                                visited[q[0]][q[1]] = true;
+                                stack[n++] = q[1] * w + q[0];
+                            }
+                        }
+                    }
+                    components.add(new int[][] { minY, maxY });
+                }
+            }
+        }
+        return components;
+    }
+}
@@ -17,6 +17,10 @@
 package com.googlecode.fightinglayoutbugs;
 
 import com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition;
+import com.googlecode.fightinglayoutbugs.helpers.ArtifactCache;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBufferSink;
+import com.googlecode.fightinglayoutbugs.helpers.RowRangeSink;
 import org.junit.Test;
 import org.junit.experimental.theories.DataPoints;
 import org.junit.experimental.theories.Theories;
@@ -24,6 +28,7 @@ import org.junit.experimental.theories.Theory;
 import org.junit.runner.RunWith;
 
 import javax.annotation.Nonnull;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
@@ -52,11 +57,132 @@ public class ScreenshotCacheUnitTest {
         ScreenshotCache spy = spy(cache);
         for (Condition condition : ALL_CONDITIONS) {
             Screenshot screenshot = spy.getScreenshot(condition);
-            assertThat(screenshot.pixels[0][0], is(condition.ordinal()));
+            assertThat(screenshot.pixels.get(0, 0), is(condition.ordinal()));
         }
         verify(spy, never()).takeScreenshot();
     }
 
+    @Test
+    public void testThatEvictedScreenshotsAreStillCached() {
+        final AtomicInteger i = new AtomicInteger(0);
+        ScreenshotCache cache = new ScreenshotCache(null, new ArtifactCache(0)) {
+            @Override void hideImages() {}
+            @Override void restoreImages() {}
+            @Override void colorAllText(@Nonnull String color) {}
+            @Override void restoreTextColors() {}
+            @Override protected Screenshot takeScreenshot() { return new Screenshot(new int[][] { new int[] { i.getAndIncrement(), 42 } }); }
+        };
+        for (Condition condition : ALL_CONDITIONS) {
+            cache.getScreenshot(condition);
+        }
+        ScreenshotCache spy = spy(cache);
+        for (Condition condition : ALL_CONDITIONS) {
+            Screenshot screenshot = spy.getScreenshot(condition);
+            assertThat(screenshot.pixels.get(0, 0), is(condition.ordinal()));
+            assertThat(screenshot.pixels.get(0, 1), is(42));
+        }
+        verify(spy, never()).takeScreenshot();
+    }
+
+    @Test
+    public void testThatCompressedScreenshotsOfAllCachesShareOneBudget() {
+        // Each screenshot occupies 40000 bytes, but less than 200 bytes compressed,
+        // so only a few compressed screenshots fit into the budget ...
+        final ArtifactCache artifactCache = new ArtifactCache(1000);
+        final AtomicInteger i = new AtomicInteger(0);
+        final ScreenshotCache[] caches = new ScreenshotCache[2];
+        for (int j = 0; j < caches.length; ++j) {
+            caches[j] = new ScreenshotCache(null, artifactCache) {
+                @Override void hideImages() {}
+                @Override void restoreImages() {}
+                @Override void colorAllText(@Nonnull String color) {}
+                @Override void restoreTextColors() {}
+                @Override protected Screenshot takeScreenshot() {
+                    final PixelBuffer pixels = new PixelBuffer(100, 100);
+                    Arrays.fill(pixels.data, i.getAndIncrement());
+                    return new Screenshot(pixels);
+                }
+            };
+        }
+        for (Condition condition : ALL_CONDITIONS) {
+            for (ScreenshotCache cache : caches) {
+                cache.getScreenshot(condition);
+            }
+        }
+        ScreenshotCache.awaitPendingBackups();
+        assertThat(artifactCache.getSizeInBytes() > 0);
+        assertThat(artifactCache.getSizeInBytes() <= 1000);
+        for (int j = 0; j < caches.length; ++j) {
+            ScreenshotCache spy = spy(caches[j]);
+            for (Condition condition : ALL_CONDITIONS) {
+                Screenshot screenshot = spy.getScreenshot(condition);
+                assertThat(screenshot.pixels.get(99, 99), is(2 * condition.ordinal() + j));
+            }
+            verify(spy, never()).takeScreenshot();
+        }
+        for (ScreenshotCache cache : caches) {
+            cache.dispose();
+        }
+    }
+
+    @Test
+    public void testThatEvictedScreenshotsAreScannedWithoutRestoringThem() {
+        // Only a few compressed screenshots fit into the budget, the others are written to disk ...
+        final ArtifactCache artifactCache = new ArtifactCache(1000);
+        final AtomicInteger i = new AtomicInteger(0);
+        ScreenshotCache cache = new ScreenshotCache(null, artifactCache) {
+            @Override void hideImages() {}
+            @Override void restoreImages() {}
+            @Override void colorAllText(@Nonnull String color) {}
+            @Override void restoreTextColors() {}
+            @Override protected Screenshot takeScreenshot() {
+                final PixelBuffer pixels = new PixelBuffer(100, 50);
+                for (int y = 0; y < 50; ++y) {
+                    for (int x = 0; x < 100; ++x) {
+                        pixels.set(x, y, 1000 * i.get() + y);
+                    }
+                }
+                i.getAndIncrement();
+                return new Screenshot(pixels);
+            }
+        };
+        for (Condition condition : ALL_CONDITIONS) {
+            cache.getScreenshot(condition);
+        }
+        ScreenshotCache.awaitPendingBackups();
+        ScreenshotCache spy = spy(cache);
+        for (Condition condition : ALL_CONDITIONS) {
+            final PixelBufferSink sink = new PixelBufferSink();
+            spy.scanScreenshot(condition, new RowRangeSink(sink, 10, 19));
+            assertThat(sink.getPixels().width, is(100));
+            assertThat(sink.getPixels().height, is(10));
+            assertThat(sink.getPixels().get(99, 9), is(1000 * condition.ordinal() + 19));
+        }
+        verify(spy, never()).takeScreenshot();
+        verify(spy, never()).getScreenshot(any(Condition.class));
+        assertThat(artifactCache.getSizeInBytes() <= 1000);
+        cache.dispose();
+    }
+
+    @Test
+    public void testThatLazilyCalculatedDataOfScreenshotsIsAccountedFor() {
+        final ArtifactCache artifactCache = new ArtifactCache(1000000);
+        ScreenshotCache cache = new ScreenshotCache(null, artifactCache) {
+            @Override void hideImages() {}
+            @Override void restoreImages() {}
+            @Override void colorAllText(@Nonnull String color) {}
+            @Override void restoreTextColors() {}
+            @Override protected Screenshot takeScreenshot() { return new Screenshot(new PixelBuffer(10, 10)); }
+        };
+        final Screenshot screenshot = cache.getScreenshot(Condition.UNMODIFIED);
+        assertThat(artifactCache.getSizeInBytes(), is(400L));
+        screenshot.getLuminancePlane();
+        cache.getScreenshot(Condition.UNMODIFIED);
+        assertThat(artifactCache.getSizeInBytes(), is(800L));
+        cache.dispose();
+        assertThat(artifactCache.getSizeInBytes(), is(0L));
+    }
+
     /**
      * Test for <a href="http://code.google.com/p/fighting-layout-bugs/issues/detail?id=7">issue 7</a>.
      */
@@ -80,6 +206,39 @@ public class ScreenshotCacheUnitTest {
         }
     }
 
+    @Test
+    public void testThatConditionsAreSwitchedByTogglingStyleElements() {
+        final WebPage webPage = mock(WebPage.class);
+        final ScreenshotCache cache = new ScreenshotCache(webPage) {
+            @Override protected Screenshot takeScreenshot() { return new Screenshot(new int[][] { new int[] { 0 } }); }
+        };
+        cache.setUseStylesheets(true);
+        cache.takeScreenshot(Condition.WITH_NO_IMAGES_AND_ALL_TEXT_BLACK);
+        verify(webPage).queueJavaScript(anyString(), eq("flb_text_color_transparent"), anyString(), eq("flb_text_color_"));
+        verify(webPage).queueJavaScript(anyString(), eq("flb_text_color_000000"), anyString(), eq("flb_text_color_"));
+        verify(webPage).queueJavaScript(endsWith("__flb.hideImgs();"), eq("flb_hide_images"), anyString(), eq("flb_hide_images"));
+        cache.takeScreenshot(Condition.UNMODIFIED);
+        verify(webPage).queueJavaScript(anyString(), eq(""), eq(""), eq("flb_text_color_"));
+        verify(webPage).queueJavaScript(endsWith("__flb.restoreImgs();"), eq(""), eq(""), eq("flb_hide_images"));
+        verify(webPage, times(5)).queueJavaScript(anyString(), anyVararg());
+    }
+
+    @Test
+    public void testThatConditionsAreSwitchedByOverridingInlineStylesByDefault() {
+        final WebPage webPage = mock(WebPage.class);
+        final ScreenshotCache cache = new ScreenshotCache(webPage) {
+            @Override protected Screenshot takeScreenshot() { return new Screenshot(new int[][] { new int[] { 0 } }); }
+        };
+        cache.takeScreenshot(Condition.WITH_NO_IMAGES_AND_ALL_TEXT_BLACK);
+        verify(webPage).queueJavaScript("__flb.overrideStyle('*', 'color', arguments[0]);", "transparent");
+        verify(webPage).queueJavaScript("__flb.overrideStyle('*', 'color', arguments[0]);", "#000000");
+        verify(webPage).queueJavaScript("__flb.overrideStyle('*', 'background-image', 'none', 'none'); __flb.hideImgs();");
+        cache.takeScreenshot(Condition.UNMODIFIED);
+        verify(webPage).queueJavaScript("__flb.restoreStyle('*', 'color');");
+        verify(webPage).queueJavaScript("__flb.restoreStyle('*', 'background-image'); __flb.restoreImgs();");
+        verify(webPage, times(5)).queueJavaScript(anyString(), anyVararg());
+    }
+
     @Theory
     public void testTakeScreenshot(Condition condition1, Condition condition2) {
         ScreenshotCache cache = new ScreenshotCache(null) {
@@ -123,9 +282,7 @@ public class ScreenshotCacheUnitTest {
         if (largeScreenshotSize == 0) {
             largeScreenshotSize = determineLargeScreenshotSize();
         }
-        int[][] pixels = new int[1][];
-        pixels[0] = new int[largeScreenshotSize];
-        return new Screenshot(pixels);
+        return new Screenshot(new PixelBuffer(1, largeScreenshotSize));
     }
 
     private int determineLargeScreenshotSize() {
@@ -16,6 +16,7 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 import org.junit.Test;
 
 import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
@@ -27,13 +28,13 @@ public class SimpleEdgeDetectorTest extends TestUsingSelenium {
         WebPage testPage = getWebPageFor("/Yahoo!_Profile_Updates.html");
         testPage.executeJavaScript("window.resizeTo(1008, 706)");
         final EdgeDetector edgeDetector = new SimpleEdgeDetector();
-        final boolean[][] horizontalEdges = edgeDetector.detectHorizontalEdgesIn(testPage);
+        final BitMask horizontalEdges = edgeDetector.detectHorizontalEdgesIn(testPage);
         // TODO: add assertion
-        final int w = horizontalEdges.length;
-        final int h = horizontalEdges[0].length;
-        final boolean[][] verticalEdges = edgeDetector.detectVerticalEdgesIn(testPage);
-        assertThat(verticalEdges.length == w);
-        assertThat(verticalEdges[0].length == h);
+        final int w = horizontalEdges.width;
+        final int h = horizontalEdges.height;
+        final BitMask verticalEdges = edgeDetector.detectVerticalEdgesIn(testPage);
+        assertThat(verticalEdges.width == w);
+        assertThat(verticalEdges.height == h);
         // TODO: add assertion
     }
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.googlecode.fightinglayoutbugs.ScreenshotCache.Condition.WITH_ALL_TEXT_TRANSPARENT;
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class SimpleEdgeDetectorUnitTest {
+
+    @Test
+    public void testThatParallelDetectionYieldsSameResultAsSerialDetection() {
+        WebPage webPage = mock(WebPage.class);
+        when(webPage.getScreenshot(WITH_ALL_TEXT_TRANSPARENT)).thenReturn(new Screenshot(createScreenshotWithRandomBoxes(701, 903)));
+        SimpleEdgeDetector detector = new SimpleEdgeDetector();
+        BitMask horizontalEdges = detector.detectHorizontalEdgesIn(webPage);
+        BitMask verticalEdges = detector.detectVerticalEdgesIn(webPage);
+        assertThat(horizontalEdges.any());
+        assertThat(verticalEdges.any());
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            detector.setExecutorService(executorService);
+            assertThat(detector.detectHorizontalEdgesIn(webPage), is(horizontalEdges));
+            assertThat(detector.detectVerticalEdgesIn(webPage), is(verticalEdges));
+            Edges edges = detector.detectEdgesIn(webPage);
+            assertThat(edges.horizontalEdges, is(horizontalEdges));
+            assertThat(edges.verticalEdges, is(verticalEdges));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatDetectEdgesInYieldsSameResultAsSeparateDetection() {
+        WebPage webPage = mock(WebPage.class);
+        when(webPage.getScreenshot(WITH_ALL_TEXT_TRANSPARENT)).thenReturn(new Screenshot(createScreenshotWithRandomBoxes(301, 203)));
+        SimpleEdgeDetector detector = new SimpleEdgeDetector();
+        Edges edges = detector.detectEdgesIn(webPage);
+        assertThat(edges.horizontalEdges, is(detector.detectHorizontalEdgesIn(webPage)));
+        assertThat(edges.verticalEdges, is(detector.detectVerticalEdgesIn(webPage)));
+    }
+
+    private PixelBuffer createScreenshotWithRandomBoxes(int w, int h) {
+        Random random = new Random(42);
+        PixelBuffer pixels = new PixelBuffer(w, h);
+        pixels.fill(0xFFFFFF);
+        for (int i = 0; i < 200; ++i) {
+            int x1 = random.nextInt(w);
+            int y1 = random.nextInt(h);
+            int x2 = Math.min(w, x1 + 1 + random.nextInt(200));
+            int y2 = Math.min(h, y1 + 1 + random.nextInt(200));
+            int rgb = random.nextInt(0x1000000);
+            for (int y = y1; y < y2; ++y) {
+                for (int x = x1; x < x2; ++x) {
+                    pixels.set(x, y, rgb);
+                }
+            }
+        }
+        return pixels;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.googlecode.fightinglayoutbugs;
 
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
 import org.junit.Test;
 
 public class SimpleTextDetectorTest extends TestUsingSelenium {
@@ -25,7 +26,7 @@ public class SimpleTextDetectorTest extends TestUsingSelenium {
         WebPage testPage = getWebPageFor("/Yahoo!_Profile_Updates.html");
         testPage.executeJavaScript("window.resizeTo(1008, 706)");
         final TextDetector detector = new SimpleTextDetector();
-        final boolean[][] textPixels = detector.detectTextPixelsIn(testPage);
+        final BitMask textPixels = detector.detectTextPixelsIn(testPage);
         // TODO: add assertion(s)
     }
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import com.googlecode.fightinglayoutbugs.helpers.BitMask;
+import com.googlecode.fightinglayoutbugs.helpers.PixelBuffer;
+import com.googlecode.fightinglayoutbugs.helpers.PixelKernels;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class SurroundBuggyPixelsUnitTest {
+
+    private static final int BLACK = 0x000000;
+    private static final int RED = 0xFF0000;
+
+    @Test
+    public void testThatScreenshotIsOnlyFadedOutIfThereAreNoBuggyPixels() {
+        PixelBuffer screenshot = markBuggyPixels(new BitMask(30, 20), 30, 20);
+        for (int y = 0; y < 20; ++y) {
+            for (int x = 0; x < 30; ++x) {
+                assertThat(screenshot.get(x, y), is(fadedOut(BLACK, 128)));
+            }
+        }
+    }
+
+    @Test
+    public void testThatSingleBuggyPixelIsSurroundedWithRedLine() {
+        BitMask buggyPixels = new BitMask(300, 200);
+        buggyPixels.set(100, 80);
+        PixelBuffer screenshot = markBuggyPixels(buggyPixels, 300, 200);
+        // Buggy area ...
+        assertThat(screenshot.get(100, 80), is(BLACK));
+        assertThat(screenshot.get(104, 80), is(BLACK));
+        assertThat(screenshot.get(100, 76), is(BLACK));
+        // Red line ...
+        assertThat(screenshot.get(105, 80), is(RED));
+        assertThat(screenshot.get(95, 80), is(RED));
+        assertThat(screenshot.get(100, 85), is(RED));
+        assertThat(screenshot.get(104, 84), is(RED));
+        assertThat(screenshot.get(107, 80), is(fadedOut(RED, 254)));
+        // Fade out halo ...
+        assertThat(screenshot.get(108, 80), is(fadedOut(BLACK, 254)));
+        assertThat(screenshot.get(110, 80), is(fadedOut(BLACK, 252)));
+        assertThat(screenshot.get(130, 80), is(fadedOut(BLACK, 192)));
+        assertThat(screenshot.get(150, 80), is(fadedOut(BLACK, 131)));
+        assertThat(screenshot.get(154, 80), is(fadedOut(BLACK, 128)));
+        // Outside of the fade out halo ...
+        assertThat(screenshot.get(200, 80), is(fadedOut(BLACK, 128)));
+        assertThat(screenshot.get(10, 80), is(fadedOut(BLACK, 128)));
+        assertThat(screenshot.get(100, 199), is(fadedOut(BLACK, 128)));
+        assertThat(screenshot.get(0, 0), is(fadedOut(BLACK, 128)));
+    }
+
+    @Test
+    public void testThatBuggyPixelInCornerIsSurroundedWithRedLine() {
+        BitMask buggyPixels = new BitMask(100, 100);
+        buggyPixels.set(0, 0);
+        PixelBuffer screenshot = markBuggyPixels(buggyPixels, 100, 100);
+        assertThat(screenshot.get(0, 0), is(BLACK));
+        assertThat(screenshot.get(4, 0), is(BLACK));
+        assertThat(screenshot.get(5, 0), is(RED));
+        assertThat(screenshot.get(0, 5), is(RED));
+        assertThat(screenshot.get(4, 4), is(RED));
+        assertThat(screenshot.get(30, 0), is(fadedOut(BLACK, 192)));
+        assertThat(screenshot.get(99, 99), is(fadedOut(BLACK, 128)));
+    }
+
+    @Test
+    public void testThatBuggyPixelsOutsideOfScreenshotAreIgnored() {
+        BitMask buggyPixels = new BitMask(400, 300);
+        buggyPixels.set(298, 198);
+        buggyPixels.set(305, 190);
+        PixelBuffer screenshot = markBuggyPixels(buggyPixels, 300, 200);
+        assertThat(screenshot.get(298, 198), is(BLACK));
+        assertThat(screenshot.get(299, 199), is(BLACK));
+        assertThat(screenshot.get(293, 198), is(RED));
+        assertThat(screenshot.get(298, 193), is(RED));
+        // (299, 190) would be on the red line around (305, 190) ...
+        assertThat(screenshot.get(299, 190), is(fadedOut(BLACK, 253)));
+        assertThat(screenshot.get(0, 0), is(fadedOut(BLACK, 128)));
+    }
+
+    @Test
+    public void testThatRedLinesHaveTheRightDistanceToRandomBuggyPixels() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10; ++i) {
+            int w = 1 + random.nextInt(150);
+            int h = 1 + random.nextInt(150);
+            int n = random.nextInt(10);
+            int[] bx = new int[n];
+            int[] by = new int[n];
+            BitMask buggyPixels = new BitMask(w, h);
+            for (int j = 0; j < n; ++j) {
+                bx[j] = random.nextInt(w);
+                by[j] = random.nextInt(h);
+                buggyPixels.set(bx[j], by[j]);
+            }
+            PixelBuffer screenshot = markBuggyPixels(buggyPixels, w, h);
+            for (int y = 0; y < h; ++y) {
+                for (int x = 0; x < w; ++x) {
+                    // Chamfer distance in thirds of a pixel ...
+                    int d = Integer.MAX_VALUE;
+                    for (int j = 0; j < n; ++j) {
+                        int dx = Math.abs(x - bx[j]);
+                        int dy = Math.abs(y - by[j]);
+                        d = Math.min(d, 3 * Math.max(dx, dy) + Math.min(dx, dy));
+                    }
+                    int p = screenshot.get(x, y);
+                    boolean red = ((p >> 16) & 0xFF) != ((p >> 8) & 0xFF);
+                    assertThat(red, is(12 < d && d <= 21));
+                    if (d <= 15) {
+                        assertThat(p, is(red ? RED : BLACK));
+                    }
+                }
+            }
+        }
+    }
+
+    private PixelBuffer markBuggyPixels(BitMask buggyPixels, int w, int h) {
+        PixelBuffer screenshot = new PixelBuffer(w, h);
+        screenshot.fill(BLACK);
+        new SurroundBuggyPixels(buggyPixels).mark(screenshot);
+        return screenshot;
+    }
+
+    /**
+     * Returns the given pixel blended with white with the given alpha value.
+     */
+    private int fadedOut(int pixel, int alpha) {
+        return (alpha == 255 ? pixel : PixelKernels.blend(pixel, 0xFFFFFF, alpha));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class WebPageUnitTest {
+
+    private final List<String> _computed = new ArrayList<String>();
+
+    private final Artifact<String> _a = new TestArtifact("a");
+    private final Artifact<String> _b = new TestArtifact("b", _a);
+    private final Artifact<String> _c = new TestArtifact("c", _a, _b);
+
+    private class TestArtifact extends Artifact<String> {
+        private TestArtifact(String name, Artifact<?>... dependencies) {
+            super(name, dependencies);
+        }
+
+        @Override
+        protected String computeFor(WebPage webPage) {
+            _computed.add(toString());
+            final StringBuilder sb = new StringBuilder(toString());
+            for (Artifact<?> dependency : getDependencies()) {
+                sb.append(webPage.get(dependency));
+            }
+            return sb.toString();
+        }
+
+        @Override
+        protected long sizeInBytes(String value) {
+            return value.length() * 2L;
+        }
+    }
+
+    /**
+     * Returns a driver, which pretends that each JavaScript returns <code>true</code>.
+     */
+    private static RemoteWebDriver newDriver() {
+        final RemoteWebDriver driver = mock(RemoteWebDriver.class);
+        when(driver.executeScript(anyString(), anyVararg())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                final Object[] arguments = invocation.getArguments();
+                if (arguments.length == 1) {
+                    return true;
+                }
+                // Several JavaScripts were executed at once, each of them gets its own arguments ...
+                final List<Object> results = new ArrayList<Object>();
+                for (int i = 1; i < arguments.length; ++i) {
+                    results.add(Collections.singletonList(true));
+                }
+                return results;
+            }
+        });
+        return driver;
+    }
+
+    @Test
+    public void testThatRuntimeIsOnlyEvaluatedIfMissingAndSentWithoutLicenseHeader() {
+        final RemoteWebDriver driver = newDriver();
+        new WebPage(driver);
+        final ArgumentCaptor<String> script = ArgumentCaptor.forClass(String.class);
+        verify(driver).executeScript(script.capture(), anyVararg());
+        assertThat(script.getValue().contains("if (typeof window.__flb != 'object') {"));
+        assertThat(!script.getValue().contains("Licensed under the Apache License"));
+    }
+
+    @Test
+    public void testThatQueuedJavaScriptsAreExecutedInOneRoundTrip() {
+        final RemoteWebDriver driver = newDriver();
+        final WebPage webPage = new WebPage(driver);
+        verify(driver, times(1)).executeScript(anyString(), anyVararg());
+        final WebPage.QueuedJavaScript first = webPage.queueJavaScript("return true;");
+        webPage.queueJavaScript("return true;", 42);
+        assertThat(webPage.executeJavaScript("return true;"), is((Object) true));
+        assertThat(first.getResult(), is((Object) true));
+        verify(driver, times(1)).executeScript(anyString(), eq(Collections.emptyList()), eq(Collections.singletonList(42)), eq(Collections.emptyList()));
+        webPage.flushJavaScript();
+        verify(driver, times(2)).executeScript(anyString(), anyVararg());
+    }
+
+    @Test
+    public void testThatArtifactsAreComputedOnlyOnceAfterTheirDependencies() {
+        final WebPage webPage = new WebPage(newDriver());
+        assertThat(webPage.get(_c), is("caba"));
+        assertThat(_computed, is(asList("a", "b", "c")));
+        assertThat(webPage.get(_b), is("ba"));
+        assertThat(webPage.get(_c), is("caba"));
+        assertThat(_computed, is(asList("a", "b", "c")));
+    }
+
+    @Test
+    public void testThatArtifactsAreComputedAgainAfterClose() {
+        final WebPage webPage = new WebPage(newDriver());
+        assertThat(webPage.get(_b), is("ba"));
+        webPage.close();
+        assertThat(webPage.get(_b), is("ba"));
+        assertThat(_computed, is(asList("a", "b", "a", "b")));
+    }
+
+    @Test
+    public void testThatCyclicDependenciesAreDetected() {
+        final WebPage webPage = new WebPage(newDriver());
+        final Artifact<String> cyclic = new Artifact<String>("cyclic") {
+            @Override
+            protected String computeFor(WebPage webPage) {
+                return webPage.get(this);
+            }
+
+            @Override
+            protected long sizeInBytes(String value) {
+                return value.length() * 2L;
+            }
+        };
+        try {
+            webPage.get(cyclic);
+            fail("IllegalStateException expected.");
+        } catch (IllegalStateException expected) {}
+    }
+}
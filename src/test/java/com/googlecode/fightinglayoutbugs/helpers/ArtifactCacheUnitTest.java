@@ -0,0 +1,142 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class ArtifactCacheUnitTest {
+
+    @Test
+    public void testThatLeastRecentlyUsedEntryIsEvicted() {
+        final ArtifactCache cache = new ArtifactCache(300);
+        final ArtifactCache.Entry<String> a = cache.put("a", 100, 1000);
+        final ArtifactCache.Entry<String> b = cache.put("b", 100, 1000);
+        final ArtifactCache.Entry<String> c = cache.put("c", 100, 1000);
+        assertThat(a.get(), is("a"));
+        final ArtifactCache.Entry<String> d = cache.put("d", 100, 1000);
+        assertThat(b.get(), isNull());
+        assertThat(a.get(), is("a"));
+        assertThat(c.get(), is("c"));
+        assertThat(d.get(), is("d"));
+        assertThat(cache.getSizeInBytes(), is(300L));
+        assertThat(cache.getHits(), is(4L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+
+    @Test
+    public void testThatEntriesWhichAreCheapToRecomputeAreEvictedFirst() {
+        final ArtifactCache cache = new ArtifactCache(300);
+        final ArtifactCache.Entry<String> expensive = cache.put("expensive", 100, 1000000);
+        final ArtifactCache.Entry<String> cheap = cache.put("cheap", 100, 1000);
+        cache.put("x", 100, 1000);
+        cache.put("y", 100, 1000);
+        assertThat(cheap.get(), isNull());
+        assertThat(expensive.get(), is("expensive"));
+    }
+
+    @Test
+    public void testThatPinnedEntriesAreNotEvicted() {
+        final ArtifactCache cache = new ArtifactCache(100);
+        final ArtifactCache.Entry<String> a = cache.putPinned("a", 100, 1000);
+        final ArtifactCache.Entry<String> b = cache.put("b", 100, 1000000);
+        assertThat(a.get(), is("a"));
+        assertThat(b.get(), isNull());
+        b.evict();
+        a.evict();
+        assertThat(a.get(), is("a"));
+        a.pin();
+        a.unpin();
+        assertThat(a.get(), is("a"));
+        a.unpin();
+        assertThat(a.get(), is("a"));
+        cache.setMaxSizeInBytes(0);
+        assertThat(a.get(), isNull());
+        assertThat(cache.getSizeInBytes(), is(0L));
+    }
+
+    @Test
+    public void testEvictionListener() {
+        final ArtifactCache cache = new ArtifactCache(1000);
+        final List<String> evicted = new ArrayList<String>();
+        final ArtifactCache.EvictionListener<String> listener = new ArtifactCache.EvictionListener<String>() {
+            @Override
+            public void evicted(String value) {
+                evicted.add(value);
+            }
+        };
+        cache.put("a", 600, 1000, listener);
+        final ArtifactCache.Entry<String> b = cache.put("b", 600, 1000, listener);
+        assertThat(evicted, is(asList("a")));
+        b.remove();
+        cache.setMaxSizeInBytes(0);
+        assertThat(evicted, is(asList("a")));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+
+    @Test
+    public void testThatGrowingEntriesCauseEvictions() {
+        final ArtifactCache cache = new ArtifactCache(300);
+        final ArtifactCache.Entry<String> a = cache.put("a", 100, 1000);
+        final ArtifactCache.Entry<String> b = cache.put("b", 100, 1000);
+        b.setSizeInBytes(250);
+        assertThat(a.peek(), isNull());
+        assertThat(b.peek(), is("b"));
+        assertThat(cache.getSizeInBytes(), is(250L));
+        assertThat(cache.getHits(), is(0L));
+        assertThat(cache.getMisses(), is(0L));
+    }
+
+    @Test
+    public void testThatAllEntriesOfAnOwnerCanBeRemoved() {
+        final ArtifactCache cache = new ArtifactCache(1000);
+        final Object owner = new Object();
+        final ArtifactCache.Entry<String> a = cache.put(owner, "a", 100, 1000, null);
+        final ArtifactCache.Entry<String> b = cache.putPinned(owner, "b", 100, 1000);
+        final ArtifactCache.Entry<String> c = cache.put(new Object(), "c", 100, 1000, null);
+        final ArtifactCache.Entry<String> d = cache.put("d", 100, 1000);
+        cache.removeAllOf(owner);
+        assertThat(a.get(), isNull());
+        assertThat(b.get(), isNull());
+        assertThat(c.get(), is("c"));
+        assertThat(d.get(), is("d"));
+        assertThat(cache.getSizeInBytes(), is(200L));
+        assertThat(cache.getEvictions(), is(0L));
+    }
+
+    @Test
+    public void testThatEntriesOfGarbageCollectedOwnersAreRemoved() throws Exception {
+        final ArtifactCache cache = new ArtifactCache(1000);
+        Object owner = new Object();
+        final ArtifactCache.Entry<String> a = cache.put(owner, "a", 100, 1000, null);
+        final ArtifactCache.Entry<String> b = cache.put("b", 100, 1000);
+        // noinspection UnusedAssignment
+        owner = null;
+        for (int i = 0; i < 100 && cache.getSizeInBytes() > 100; ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(a.get(), isNull());
+        assertThat(b.get(), is("b"));
+        assertThat(cache.getSizeInBytes(), is(100L));
+    }
+}
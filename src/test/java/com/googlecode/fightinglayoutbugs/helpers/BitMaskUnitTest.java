@@ -0,0 +1,103 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class BitMaskUnitTest {
+
+    @Test
+    public void testSetRangeAcrossWordBoundaries() {
+        BitMask m = new BitMask(200, 2);
+        m.setRange(60, 130, 1);
+        assertThat(m.cardinality(), is(70));
+        assertThat(m.get(59, 1), is(false));
+        assertThat(m.get(60, 1), is(true));
+        assertThat(m.get(129, 1), is(true));
+        assertThat(m.get(130, 1), is(false));
+        assertThat(m.nextSetBit(0, 1), is(60));
+        assertThat(m.nextClearBit(60, 1), is(130));
+        assertThat(m.nextSetBit(0, 0), is(-1));
+        m.clearRange(64, 128, 1);
+        assertThat(m.cardinality(), is(6));
+        assertThat(m.nextSetBit(61, 1), is(61));
+        assertThat(m.nextSetBit(64, 1), is(128));
+    }
+
+    @Test
+    public void testPreviousSetBit() {
+        BitMask m = new BitMask(200, 2);
+        m.set(3, 0);
+        m.set(63, 0);
+        m.set(130, 0);
+        assertThat(m.previousSetBit(199, 0), is(130));
+        assertThat(m.previousSetBit(129, 0), is(63));
+        assertThat(m.previousSetBit(63, 0), is(63));
+        assertThat(m.previousSetBit(62, 0), is(3));
+        assertThat(m.previousSetBit(2, 0), is(-1));
+        assertThat(m.previousSetBit(199, 1), is(-1));
+    }
+
+    @Test
+    public void testDilate() {
+        BitMask m = new BitMask(130, 3);
+        m.set(63, 1);
+        m.set(129, 0);
+        BitMask d = m.dilate();
+        assertThat(d.cardinality(), is(5 + 3));
+        assertThat(d.get(62, 1) && d.get(64, 1) && d.get(63, 0) && d.get(63, 2));
+        assertThat(d.get(128, 0) && d.get(129, 1));
+        assertThat(m.cardinality(), is(2));
+    }
+
+    @Test
+    public void testBitwiseOperations() {
+        BitMask a = new BitMask(70, 3);
+        BitMask b = new BitMask(70, 3);
+        a.set(1, 1);
+        a.set(69, 2);
+        b.set(69, 2);
+        b.set(0, 0);
+        assertThat(a.intersects(b));
+        assertThat(a.copy().and(b).cardinality(), is(1));
+        assertThat(a.copy().or(b).cardinality(), is(3));
+        BitMask c = a.copy().andNot(b);
+        assertThat(c.cardinality(), is(1));
+        assertThat(c.get(1, 1), is(true));
+        assertThat(new BitMask(70, 3).any(), is(false));
+    }
+
+    @Test
+    public void testConversionFromAndToArray() {
+        boolean[][] a = new boolean[100][3];
+        a[0][0] = true;
+        a[99][2] = true;
+        a[64][1] = true;
+        BitMask m = BitMask.fromArray(a);
+        assertThat(m.cardinality(), is(3));
+        assertThat(m.get(64, 1), is(true));
+        boolean[][] b = m.toArray();
+        for (int x = 0; x < 100; ++x) {
+            for (int y = 0; y < 3; ++y) {
+                assertThat(b[x][y], is(a[x][y]));
+            }
+        }
+        assertThat(BitMask.fromArray(b), is(m));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class CompressedPixelsUnitTest {
+
+    @Test
+    public void testCompressAndDecompress() {
+        final Random random = new Random(42);
+        for (int[] size : new int[][] { { 1, 1000 }, { 300, 200 }, { 1000, 70 }, { 7, 3 } }) {
+            final int w = size[0];
+            final int h = size[1];
+            // Create an image with large flat areas and some noise ...
+            final PixelBuffer pixels = new PixelBuffer(w, h);
+            int rgb = 0;
+            for (int i = 0; i < pixels.data.length; ++i) {
+                if (random.nextInt(100) == 0) {
+                    rgb = random.nextInt(0x1000000);
+                }
+                pixels.data[i] = (random.nextInt(20) == 0 ? random.nextInt(0x1000000) : rgb);
+            }
+            final CompressedPixels compressedPixels = CompressedPixels.compress(pixels);
+            assertThat(compressedPixels.decompress(), is(pixels));
+            final PixelBufferSink sink = new PixelBufferSink();
+            compressedPixels.writeTo(sink);
+            assertThat(sink.getPixels(), is(pixels));
+            // Skipped rows must not disturb the decompression of the following ones ...
+            final PixelBufferSink lowerHalf = new PixelBufferSink();
+            compressedPixels.writeTo(new RowRangeSink(lowerHalf, h / 2, h - 1));
+            for (int y = h / 2; y < h; ++y) {
+                for (int x = 0; x < w; ++x) {
+                    assertThat(lowerHalf.getPixels().get(x, y - h / 2), is(pixels.get(x, y)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testThatFlatAreasShrinkToAlmostNothing() {
+        final PixelBuffer pixels = new PixelBuffer(1000, 20000);
+        pixels.fill(0xFFFFFF);
+        final CompressedPixels compressedPixels = CompressedPixels.compress(pixels);
+        assertThat(compressedPixels.sizeInBytes() < pixels.data.length / 50);
+        assertThat(compressedPixels.decompress(), is(pixels));
+        assertThat(CompressedPixels.compress(pixels, 100), is((CompressedPixels) null));
+    }
+
+    @Test
+    public void testEmptyPixelBuffers() {
+        for (PixelBuffer pixels : new PixelBuffer[] { new PixelBuffer(0, 0), new PixelBuffer(0, 10), new PixelBuffer(10, 0) }) {
+            final CompressedPixels compressedPixels = CompressedPixels.compress(pixels);
+            assertThat(compressedPixels.sizeInBytes(), is(0L));
+            assertThat(compressedPixels.decompress(), is(pixels));
+            final PixelBufferSink sink = new PixelBufferSink();
+            compressedPixels.writeTo(sink);
+            assertThat(sink.getPixels(), is(pixels));
+        }
+    }
+}
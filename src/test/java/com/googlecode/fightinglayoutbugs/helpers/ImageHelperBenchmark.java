@@ -0,0 +1,116 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import com.googlecode.fightinglayoutbugs.WebPage;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.commons.io.FileUtils.readFileToByteArray;
+
+/**
+ * Compares the speed of the {@link java.awt.image.DataBuffer} fast paths of
+ * {@link ImageHelper#imageToPixelBuffer} with the generic conversion, which calls
+ * {@link ColorModel#getRGB(Object)} for each pixel, on real screenshots.
+ * This is not a unit test, run it manually via its <code>main</code> method and
+ * either pass the paths of PNG screenshots as arguments or let it take screenshots
+ * of the HTML pages under <code>src/test/webapp</code> with the FirefoxDriver.
+ */
+public class ImageHelperBenchmark {
+
+    private static final String[] PAGES = {
+        "/ESPRIT_newsletter.html",
+        "/Microsoft_Newsletter.html",
+        "/Yahoo!_Sports.html",
+        "/odesk.html"
+    };
+
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<byte[]> pngs = new ArrayList<byte[]>();
+        if (args.length > 0) {
+            for (String path : args) {
+                names.add(path);
+                pngs.add(readFileToByteArray(new File(path)));
+            }
+        } else {
+            try {
+                for (String page : PAGES) {
+                    WebPage webPage = TestWebPageFactory.UsingFirefoxDriver.createFor(page);
+                    names.add(page);
+                    pngs.add(((TakesScreenshot) webPage.getDriver()).getScreenshotAs(OutputType.BYTES));
+                }
+            } finally {
+                TestWebPageFactory.disposeLastFactory();
+            }
+        }
+        for (int i = 0; i < pngs.size(); ++i) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(pngs.get(i)));
+            System.out.println(names.get(i) + ": " + image.getWidth() + "x" + image.getHeight() + " pixels, image type " + image.getType());
+            long colorModelNanos = Long.MAX_VALUE;
+            long getRgbNanos = Long.MAX_VALUE;
+            long fastPathNanos = Long.MAX_VALUE;
+            for (int j = 0; j < ITERATIONS; ++j) {
+                long t0 = System.nanoTime();
+                imageToPixelsViaColorModel(image);
+                long t1 = System.nanoTime();
+                image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+                long t2 = System.nanoTime();
+                ImageHelper.imageToPixelBuffer(image);
+                long t3 = System.nanoTime();
+                colorModelNanos = Math.min(colorModelNanos, t1 - t0);
+                getRgbNanos = Math.min(getRgbNanos, t2 - t1);
+                fastPathNanos = Math.min(fastPathNanos, t3 - t2);
+            }
+            System.out.printf("    ColorModel.getRGB per pixel:    %8.2f ms%n", colorModelNanos / 1e6);
+            System.out.printf("    BufferedImage.getRGB:           %8.2f ms%n", getRgbNanos / 1e6);
+            System.out.printf("    ImageHelper.imageToPixelBuffer: %8.2f ms (%.1fx faster)%n", fastPathNanos / 1e6, (double) colorModelNanos / fastPathNanos);
+        }
+    }
+
+    /**
+     * Converts the given image without any knowledge about the layout of its
+     * {@link java.awt.image.DataBuffer} -- works for all raster types.
+     */
+    private static int[] imageToPixelsViaColorModel(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] pixels = new int[w * h];
+        Raster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        Object dataElements = null;
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                dataElements = raster.getDataElements(x, y, dataElements);
+                pixels[x + y * w] = colorModel.getRGB(dataElements) & 0xFFFFFF;
+            }
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class ImageHelperUnitTest {
+
+    private static final int[] IMAGE_TYPES = new int[] {
+        BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_BYTE_INDEXED,
+        BufferedImage.TYPE_BYTE_GRAY,
+        // The following types are handled by the generic fallback ...
+        BufferedImage.TYPE_INT_ARGB_PRE,
+        BufferedImage.TYPE_INT_BGR,
+        BufferedImage.TYPE_USHORT_GRAY,
+        BufferedImage.TYPE_BYTE_BINARY
+    };
+
+    @Test
+    public void testImageToPixelBuffer() {
+        for (int type : IMAGE_TYPES) {
+            BufferedImage image = createRandomImage(type, 67, 31);
+            assertThatPixelsAreEqual(ImageHelper.imageToPixelBuffer(image), image);
+            BufferedImage subImage = image.getSubimage(5, 3, 40, 20);
+            assertThatPixelsAreEqual(ImageHelper.imageToPixelBuffer(subImage), subImage);
+        }
+    }
+
+    @Test
+    public void testRawFile() throws IOException {
+        final PixelBuffer pixels = ImageHelper.imageToPixelBuffer(createRandomImage(BufferedImage.TYPE_INT_RGB, 67, 31));
+        final File rawFile = File.createTempFile("ImageHelperUnitTest-", ".raw");
+        try {
+            ImageHelper.pixelsToRawFile(pixels, rawFile);
+            assertThat(ImageHelper.rawFileToPixels(rawFile), is(pixels));
+            final PixelBufferSink lowerHalf = new PixelBufferSink();
+            ImageHelper.scanRawFile(rawFile, new RowRangeSink(lowerHalf, 15, 30));
+            for (int y = 15; y <= 30; ++y) {
+                for (int x = 0; x < 67; ++x) {
+                    assertThat(lowerHalf.getPixels().get(x, y - 15), is(pixels.get(x, y)));
+                }
+            }
+            ImageHelper.compressedPixelsToRawFile(CompressedPixels.compress(pixels), rawFile);
+            assertThat(ImageHelper.rawFileToPixels(rawFile), is(pixels));
+        } finally {
+            // Must succeed on all platforms, because the file is not mapped into memory ...
+            assertThat(rawFile.delete(), is(true));
+        }
+    }
+
+    @Test
+    public void testContrastAtLeastAndContrastAtMost() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            int rgb1 = random.nextInt(0x1000000);
+            int rgb2 = random.nextInt(0x1000000);
+            double l1 = ImageHelper.getLuminance(rgb1);
+            double l2 = ImageHelper.getLuminance(rgb2);
+            double contrast = ImageHelper.getContrast(rgb1, rgb2);
+            for (double threshold : new double[] { 1.5, 3, 4.5, 7 }) {
+                // Ignore rounding differences for contrasts very close to the threshold ...
+                if (Math.abs(contrast - threshold) > 1e-9) {
+                    assertThat(ImageHelper.contrastAtLeast(l1, l2, threshold), is(contrast >= threshold));
+                    assertThat(ImageHelper.contrastAtMost(l1, l2, threshold), is(contrast <= threshold));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCalculateLuminancePlane() {
+        PixelBuffer pixels = ImageHelper.imageToPixelBuffer(createRandomImage(BufferedImage.TYPE_INT_RGB, 23, 17));
+        float[] luminances = ImageHelper.calculateLuminancePlane(pixels);
+        for (int x = 0; x < pixels.width; ++x) {
+            for (int y = 0; y < pixels.height; ++y) {
+                assertThat(luminances[pixels.indexOf(x, y)], is((float) ImageHelper.getLuminance(pixels.get(x, y))));
+            }
+        }
+    }
+
+    @Test
+    public void testFindSubImageInImage() {
+        final Random random = new Random(4711);
+        // Few colors (rolling hash) and many colors (anchor), opaque and partly transparent sub images ...
+        for (int numColors : new int[] { 2, 1 << 24 }) {
+            for (boolean transparent : new boolean[] { false, true }) {
+                final BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+                for (int x = 0; x < 300; ++x) {
+                    for (int y = 0; y < 200; ++y) {
+                        image.setRGB(x, y, random.nextInt(numColors));
+                    }
+                }
+                final BufferedImage subImage = new BufferedImage(5, 4, BufferedImage.TYPE_INT_ARGB);
+                for (int x = 0; x < 5; ++x) {
+                    for (int y = 0; y < 4; ++y) {
+                        subImage.setRGB(x, y, (transparent && x == 4 ? 0 : 0xFF000000 | image.getRGB(100 + x, 50 + y)));
+                    }
+                }
+                // Copy the sub image to some more places ...
+                for (int[] p : new int[][] { { 0, 0 }, { 295, 196 }, { 7, 150 }, { 250, 150 } }) {
+                    for (int x = 0; x < 5; ++x) {
+                        for (int y = 0; y < 4; ++y) {
+                            image.setRGB(p[0] + x, p[1] + y, image.getRGB(100 + x, 50 + y));
+                        }
+                    }
+                }
+                final List<RectangularRegion> expected = findSubImageInImageNaively(subImage, image);
+                assertThat(expected.size() >= 5);
+                assertThat(new ArrayList<RectangularRegion>(ImageHelper.findSubImageInImage(subImage, image)), is(expected));
+                assertThat(ImageHelper.findFirstSubImageInImage(subImage, image), is(expected.get(0)));
+                final ExecutorService executorService = Executors.newFixedThreadPool(3);
+                try {
+                    assertThat(ImageHelper.findSubImageInImage(subImage, image, executorService), is(expected));
+                } finally {
+                    executorService.shutdown();
+                }
+            }
+        }
+    }
+
+    private List<RectangularRegion> findSubImageInImageNaively(BufferedImage subImage, BufferedImage image) {
+        final List<RectangularRegion> result = new ArrayList<RectangularRegion>();
+        final int sw = subImage.getWidth();
+        final int sh = subImage.getHeight();
+        for (int y = 0; y + sh <= image.getHeight(); ++y) {
+            for (int x = 0; x + sw <= image.getWidth(); ++x) {
+                boolean matches = true;
+                for (int i = 0; i < sw && matches; ++i) {
+                    for (int j = 0; j < sh && matches; ++j) {
+                        final int argb = subImage.getRGB(i, j);
+                        matches = ((argb >>> 24) < 255 || (argb & 0xFFFFFF) == (image.getRGB(x + i, y + j) & 0xFFFFFF));
+                    }
+                }
+                if (matches) {
+                    result.add(new RectangularRegion(x, y, x + sw - 1, y + sh - 1));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testGaussianBlur() {
+        final PixelBuffer pixels = ImageHelper.imageToPixelBuffer(createRandomImage(BufferedImage.TYPE_INT_RGB, 31, 23));
+        final int[][] expected = pixels.toArray();
+        ImageHelper.applyConvolutionFilter(expected, createGaussianKernel(2));
+        final PixelBuffer blurred = pixels.copy();
+        ImageHelper.gaussianBlur(blurred, 2);
+        assertThatPixelsAreAlmostEqual(blurred, PixelBuffer.fromArray(expected), 1);
+        final PixelBuffer blurredInParallel = pixels.copy();
+        final ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            ImageHelper.gaussianBlur(blurredInParallel, 2, executorService);
+        } finally {
+            executorService.shutdown();
+        }
+        assertThat(blurredInParallel, is(blurred));
+    }
+
+    @Test
+    public void testApproximateGaussianBlur() {
+        final PixelBuffer pixels = ImageHelper.imageToPixelBuffer(createRandomImage(BufferedImage.TYPE_INT_RGB, 200, 150));
+        final PixelBuffer blurred = pixels.copy();
+        ImageHelper.gaussianBlur(blurred, 3);
+        final PixelBuffer approximated = pixels.copy();
+        ImageHelper.approximateGaussianBlur(approximated, 3);
+        assertThatPixelsAreAlmostEqual(approximated, blurred, 8);
+        final PixelBuffer approximatedInParallel = pixels.copy();
+        final ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            ImageHelper.approximateGaussianBlur(approximatedInParallel, 3, executorService);
+        } finally {
+            executorService.shutdown();
+        }
+        assertThat(approximatedInParallel, is(approximated));
+        final PixelBuffer uniform = new PixelBuffer(50, 40);
+        uniform.fill(0x123456);
+        final PixelBuffer uniformCopy = uniform.copy();
+        ImageHelper.approximateGaussianBlur(uniform, 5);
+        assertThat(uniform, is(uniformCopy));
+    }
+
+    @Test
+    public void testFindOutlinesIgnoresEnclosedHoles() {
+        BitMask pixels = new BitMask(7, 7);
+        for (int y = 1; y <= 5; ++y) {
+            pixels.setRange(1, 6, y);
+        }
+        pixels.clear(3, 3);
+        BitMask outlines = ImageHelper.findOutlines(pixels);
+        assertThat(outlines.cardinality(), is(4 * 5));
+        assertThat(outlines.get(3, 3), is(false));
+        assertThat(outlines.get(0, 0), is(false));
+        assertThat(outlines.get(0, 1), is(true));
+        assertThat(outlines.get(6, 5), is(true));
+        assertThat(outlines.get(3, 6), is(true));
+    }
+
+    @Test
+    public void testFindOutlinesOfRandomBitMasks() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 20; ++i) {
+            final int w = 2 + random.nextInt(150);
+            final int h = 2 + random.nextInt(50);
+            final BitMask pixels = new BitMask(w, h);
+            for (int y = 0; y < h; ++y) {
+                for (int x = 0; x < w; ++x) {
+                    if (random.nextInt(100) < 45) {
+                        pixels.set(x, y);
+                    }
+                }
+            }
+            // Start from a cleared border pixel like findOutlines does ...
+            pixels.clear(0, 0);
+            assertThat(ImageHelper.findOutlines(pixels), is(findOutlinesNaively(pixels, 0, 0)));
+        }
+    }
+
+    private BitMask findOutlinesNaively(BitMask pixels, int x0, int y0) {
+        final int w = pixels.width;
+        final int h = pixels.height;
+        final BitMask background = new BitMask(w, h);
+        background.set(x0, y0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int y = 0; y < h; ++y) {
+                for (int x = 0; x < w; ++x) {
+                    if (!pixels.get(x, y) && !background.get(x, y) && (
+                        (x > 0 && background.get(x - 1, y)) || (x < w - 1 && background.get(x + 1, y)) ||
+                        (y > 0 && background.get(x, y - 1)) || (y < h - 1 && background.get(x, y + 1))
+                    )) {
+                        background.set(x, y);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        final BitMask outlines = new BitMask(w, h);
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                if (background.get(x, y) && (
+                    (x > 0 && pixels.get(x - 1, y)) || (x < w - 1 && pixels.get(x + 1, y)) ||
+                    (y > 0 && pixels.get(x, y - 1)) || (y < h - 1 && pixels.get(x, y + 1))
+                )) {
+                    outlines.set(x, y);
+                }
+            }
+        }
+        return outlines;
+    }
+
+    private BufferedImage createRandomImage(int type, int w, int h) {
+        final Random random = new Random(type);
+        final BufferedImage image = new BufferedImage(w, h, type);
+        for (int x = 0; x < w; ++x) {
+            for (int y = 0; y < h; ++y) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private float[][] createGaussianKernel(float sigma) {
+        final int n = 2 * (int) Math.ceil(3 * sigma) + 1;
+        final float[][] kernel = new float[n][n];
+        for (int x = 0; x < n; ++x) {
+            for (int y = 0; y < n; ++y) {
+                final int dx = x - n / 2;
+                final int dy = y - n / 2;
+                kernel[x][y] = (float) Math.exp(-(dx * dx + dy * dy) / (2.0 * sigma * sigma));
+            }
+        }
+        return kernel;
+    }
+
+    private void assertThatPixelsAreAlmostEqual(PixelBuffer pixels, PixelBuffer expected, int maxDifference) {
+        for (int x = 0; x < pixels.width; ++x) {
+            for (int y = 0; y < pixels.height; ++y) {
+                final int p1 = pixels.get(x, y);
+                final int p2 = expected.get(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    assertThat(Math.abs(((p1 >>> shift) & 0xFF) - ((p2 >>> shift) & 0xFF)) <= maxDifference);
+                }
+            }
+        }
+    }
+
+    private void assertThatPixelsAreEqual(PixelBuffer pixels, BufferedImage image) {
+        assertThat(pixels.width, is(image.getWidth()));
+        assertThat(pixels.height, is(image.getHeight()));
+        for (int x = 0; x < pixels.width; ++x) {
+            for (int y = 0; y < pixels.height; ++y) {
+                assertThat(pixels.get(x, y), is(image.getRGB(x, y) & 0xFFFFFF));
+            }
+        }
+    }
+}
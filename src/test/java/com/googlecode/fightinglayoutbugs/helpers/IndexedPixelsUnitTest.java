@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class IndexedPixelsUnitTest {
+
+    @Test
+    public void testConversionFromAndToPixelBuffer() {
+        final Random random = new Random(42);
+        final PixelBuffer pixels = new PixelBuffer(300, 200);
+        for (int y = 0; y < 200; ++y) {
+            for (int x = 0; x < 300; ++x) {
+                pixels.set(x, y, random.nextInt(5000));
+            }
+        }
+        final IndexedPixels indexedPixels = IndexedPixels.fromPixelBuffer(pixels);
+        assertThat(indexedPixels.palette.length <= 5000);
+        assertThat(indexedPixels.get(17, 42), is(pixels.get(17, 42)));
+        assertThat(indexedPixels.toPixelBuffer(), is(pixels));
+    }
+
+    @Test
+    public void testThatPixelsWithTooManyColorsAreNotIndexed() {
+        final PixelBuffer pixels = new PixelBuffer(300, 300);
+        for (int i = 0; i < pixels.data.length; ++i) {
+            pixels.data[i] = i;
+        }
+        assertThat(IndexedPixels.fromPixelBuffer(pixels), is((IndexedPixels) null));
+    }
+
+    @Test
+    public void testThatPixelsWithTooManyColorsInSampledRowsAreNotIndexed() {
+        final PixelBuffer pixels = new PixelBuffer(1000, 600);
+        for (int i = 0; i < pixels.data.length; ++i) {
+            pixels.data[i] = i;
+        }
+        assertThat(IndexedPixels.fromPixelBuffer(pixels), is((IndexedPixels) null));
+    }
+
+    @Test
+    public void testThatColorsOfSampledRowsKeepTheirPaletteIndex() {
+        final PixelBuffer pixels = new PixelBuffer(10, 20);
+        for (int y = 0; y < 20; ++y) {
+            for (int x = 0; x < 10; ++x) {
+                pixels.set(x, y, (y % 8 == 0 ? 0xFF0000 : 100 * y + x));
+            }
+        }
+        final IndexedPixels indexedPixels = IndexedPixels.fromPixelBuffer(pixels);
+        assertThat(indexedPixels.palette[0], is(0xFF0000));
+        assertThat(indexedPixels.toPixelBuffer(), is(pixels));
+    }
+
+    @Test
+    public void testEmptyPixelBuffers() {
+        for (PixelBuffer pixels : new PixelBuffer[] { new PixelBuffer(0, 0), new PixelBuffer(0, 10), new PixelBuffer(10, 0) }) {
+            final IndexedPixels indexedPixels = IndexedPixels.fromPixelBuffer(pixels);
+            assertThat(indexedPixels.palette.length, is(0));
+            assertThat(indexedPixels.toPixelBuffer(), is(pixels));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class IntArrayPoolUnitTest {
+
+    @Test
+    public void testThatReleasedArraysAreReused() {
+        final IntArrayPool pool = new IntArrayPool(2);
+        final int[] a = pool.take(100);
+        assertThat(a.length, is(100));
+        pool.release(a);
+        // Too short arrays are not returned ...
+        final int[] b = pool.take(200);
+        assertThat(b != a);
+        assertThat(pool.take(50) == a);
+        pool.release(b);
+        assertThat(pool.take(150) == b);
+    }
+
+    @Test
+    public void testThatTheLeastRecentlyReleasedArrayIsDroppedIfThePoolIsFull() {
+        final IntArrayPool pool = new IntArrayPool(2);
+        final int[] a = new int[10];
+        final int[] b = new int[10];
+        final int[] c = new int[10];
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertThat(pool.take(10) == b);
+        assertThat(pool.take(10) == c);
+        assertThat(pool.take(10) != a);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class PixelBufferUnitTest {
+
+    @Test
+    public void testThatPixelsAreStoredInRowMajorOrder() {
+        PixelBuffer pixels = new PixelBuffer(3, 2);
+        pixels.set(2, 0, 42);
+        pixels.set(0, 1, 4711);
+        assertThat(pixels.data[2], is(42));
+        assertThat(pixels.data[3], is(4711));
+        assertThat(pixels.get(2, 0), is(42));
+        assertThat(pixels.get(0, 1), is(4711));
+    }
+
+    @Test
+    public void testConversionFromAndToArray() {
+        int[][] a = new int[][] { new int[] { 1, 2, 3 }, new int[] { 4, 5, 6 } };
+        PixelBuffer pixels = PixelBuffer.fromArray(a);
+        assertThat(pixels.width, is(2));
+        assertThat(pixels.height, is(3));
+        assertThat(pixels.get(1, 0), is(4));
+        assertThat(pixels.get(0, 2), is(3));
+        int[][] b = pixels.toArray();
+        for (int x = 0; x < 2; ++x) {
+            for (int y = 0; y < 3; ++y) {
+                assertThat(b[x][y], is(a[x][y]));
+            }
+        }
+    }
+
+    @Test
+    public void testCopyRemovesGapsBetweenRows() {
+        PixelBuffer pixels = new PixelBuffer(2, 2, 5, new int[] { 1, 2, 0, 0, 0, 3, 4 });
+        PixelBuffer copy = pixels.copy();
+        assertThat(copy.stride, is(2));
+        assertThat(copy.data.length, is(4));
+        assertThat(copy.get(0, 1), is(3));
+        assertThat(copy.get(1, 1), is(4));
+        assertThat(copy.rowEquals(1, pixels, 0, 2));
+    }
+
+    @Test
+    public void testEqualsAndHashCodeIgnoreStride() {
+        PixelBuffer pixels = new PixelBuffer(2, 2, 5, new int[] { 1, 2, 0, 0, 0, 3, 4 });
+        PixelBuffer copy = pixels.copy();
+        assertThat(copy.equals(pixels));
+        assertThat(copy.hashCode(), is(pixels.hashCode()));
+        copy.set(1, 1, 5);
+        assertThat(!copy.equals(pixels));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class PixelContrastsUnitTest {
+
+    @Test
+    public void testThatPaletteCacheAndLuminancePlaneAgree() {
+        assertThatPaletteAndLuminancePlaneAgree(new PixelBuffer(100, 100), 50);
+    }
+
+    @Test
+    public void testThatPaletteWithoutCacheAndLuminancePlaneAgree() {
+        final PixelBuffer pixels = new PixelBuffer(200, 100);
+        assertThatPaletteAndLuminancePlaneAgree(pixels, PixelContrasts.MAX_CACHED_PALETTE_SIZE + 1);
+        assertThat(IndexedPixels.fromPixelBuffer(pixels).palette.length, is(PixelContrasts.MAX_CACHED_PALETTE_SIZE + 1));
+    }
+
+    private void assertThatPaletteAndLuminancePlaneAgree(PixelBuffer pixels, int numColors) {
+        final Random random = new Random(42);
+        final int[] colors = new int[numColors];
+        for (int i = 0; i < colors.length; ++i) {
+            // distinct colors ...
+            colors[i] = (random.nextInt(0x100) << 16) | i;
+        }
+        for (int i = 0; i < pixels.data.length; ++i) {
+            // ... each of them is used at least once ...
+            pixels.data[i] = colors[i < colors.length ? i : random.nextInt(colors.length)];
+        }
+        final float[] luminances = ImageHelper.calculateLuminancePlane(pixels);
+        final IndexedPixels indexedPixels = IndexedPixels.fromPixelBuffer(pixels);
+        for (double threshold : new double[] { 1, 1.5, 4.5 }) {
+            final PixelContrasts withLuminancePlane = PixelContrasts.of(pixels, luminances, threshold);
+            final PixelContrasts withPalette = PixelContrasts.of(indexedPixels, threshold);
+            for (int n = 0; n < 10000; ++n) {
+                final int i1 = random.nextInt(pixels.data.length);
+                final int i2 = random.nextInt(pixels.data.length);
+                assertThat(withPalette.haveSameColor(i1, i2), is(withLuminancePlane.haveSameColor(i1, i2)));
+                assertThat(withPalette.atLeast(i1, i2), is(withLuminancePlane.atLeast(i1, i2)));
+                assertThat(withPalette.atMost(i1, i2), is(withLuminancePlane.atMost(i1, i2)));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+
+public class PixelKernelsUnitTest {
+
+    @Test
+    public void testBlendPixel() {
+        assertThat(PixelKernels.blend(0xFFFFFF, 0x000000, 0x80), is(0x808080));
+        assertThat(PixelKernels.blend(0x000000, 0xFF0000, 0x01), is(0xFE0000));
+        for (int i = 0; i < 10000; ++i) {
+            final int p1 = (i * 0x9E3779B1) & 0xFFFFFF;
+            final int p2 = (i * 0x7F4A7C15) & 0xFFFFFF;
+            final int a = 1 + i % 254;
+            for (int shift = 0; shift < 24; shift += 8) {
+                final double expected = (((p1 >> shift) & 0xFF) * a + ((p2 >> shift) & 0xFF) * (255 - a)) / 255.0;
+                assertThat(Math.abs(((PixelKernels.blend(p1, p2, a) >> shift) & 0xFF) - expected) <= 0.5);
+            }
+        }
+    }
+
+    @Test
+    public void testThatAllKernelsBlendIdentically() {
+        final Random random = new Random(42);
+        final int[] src = new int[1000];
+        final int[] dst = new int[1000];
+        for (int i = 0; i < src.length; ++i) {
+            src[i] = random.nextInt();
+            dst[i] = random.nextInt();
+        }
+        // Include fully transparent and fully opaque pixels ...
+        src[0] = 0xFF123456;
+        src[1] = 0x00123456;
+        final int[] scalar = dst.clone();
+        PixelKernels.SCALAR.blend(scalar, 0, src, 0, src.length);
+        final int[] packed = dst.clone();
+        PixelKernels.PACKED.blend(packed, 0, src, 0, src.length);
+        assertThat(Arrays.equals(packed, scalar));
+        assertThat(scalar[0], is(dst[0]));
+        assertThat(scalar[1], is(0x00123456));
+    }
+
+    @Test
+    public void testThatAllKernelsCompareIdentically() {
+        final Random random = new Random(42);
+        final int[] data1 = new int[100];
+        final int[] data2 = new int[100];
+        for (int i = 0; i < data1.length; ++i) {
+            data1[i] = random.nextInt(4) - 2;
+            data2[i] = random.nextInt(4) - 2;
+        }
+        for (int n = 0; n <= 64; ++n) {
+            final long word = PixelKernels.SCALAR.compare(data1, 3, data2, 5, n);
+            assertThat(PixelKernels.PACKED.compare(data1, 3, data2, 5, n), is(word));
+            for (int i = 0; i < n; ++i) {
+                assertThat(((word >>> i) & 1) != 0, is(data1[3 + i] != data2[5 + i]));
+            }
+        }
+    }
+}
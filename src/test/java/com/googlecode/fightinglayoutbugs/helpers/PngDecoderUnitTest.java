@@ -0,0 +1,172 @@
+/*
+ * Copyright 2009-2012 Michael Tamm
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.fightinglayoutbugs.helpers;
+
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.googlecode.fightinglayoutbugs.helpers.TestHelper.*;
+import static org.junit.Assert.fail;
+
+public class PngDecoderUnitTest {
+
+    private static final int[] IMAGE_TYPES = new int[] {
+        BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_BYTE_INDEXED,
+        BufferedImage.TYPE_BYTE_BINARY
+    };
+
+    @Test
+    public void testDecode() throws Exception {
+        for (int type : IMAGE_TYPES) {
+            for (boolean interlaced : new boolean[] { false, true }) {
+                BufferedImage image = createImage(type, 53, 29);
+                byte[] png = toPng(image, interlaced);
+                PixelBuffer expected = ImageHelper.imageToPixelBuffer(ImageIO.read(new ByteArrayInputStream(png)));
+                PixelBuffer actual = PngDecoder.decode(png);
+                assertThatPixelsAreEqual(actual, expected);
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeGrayImages() throws Exception {
+        for (int type : new int[] { BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY }) {
+            BufferedImage image = createImage(type, 17, 11);
+            WritableRaster raster = image.getRaster();
+            PixelBuffer pixels = PngDecoder.decode(toPng(image, false));
+            for (int x = 0; x < 17; ++x) {
+                for (int y = 0; y < 11; ++y) {
+                    int gray = raster.getSample(x, y, 0) >> (type == BufferedImage.TYPE_BYTE_GRAY ? 0 : 8);
+                    assertThat(pixels.get(x, y), is(gray * 0x010101));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRowRangeSink() throws Exception {
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB, 40, 30);
+        byte[] png = toPng(image, false);
+        PixelBuffer expected = PngDecoder.decode(png);
+        PixelBufferSink sink = new PixelBufferSink();
+        PngDecoder.decode(new ByteArrayInputStream(png), new RowRangeSink(sink, 10, 19));
+        PixelBuffer actual = sink.getPixels();
+        assertThat(actual.width, is(40));
+        assertThat(actual.height, is(10));
+        for (int x = 0; x < 40; ++x) {
+            for (int y = 0; y < 10; ++y) {
+                assertThat(actual.get(x, y), is(expected.get(x, y + 10)));
+            }
+        }
+    }
+
+    @Test
+    public void testLuminancePlaneSink() throws Exception {
+        for (boolean interlaced : new boolean[] { false, true }) {
+            byte[] png = toPng(createImage(BufferedImage.TYPE_INT_RGB, 40, 30), interlaced);
+            PixelBufferSink pixelBufferSink = new PixelBufferSink();
+            LuminancePlaneSink sink = new LuminancePlaneSink(pixelBufferSink);
+            PngDecoder.decode(new ByteArrayInputStream(png), sink);
+            PixelBuffer pixels = pixelBufferSink.getPixels();
+            assertThatPixelsAreEqual(pixels, PngDecoder.decode(png));
+            assertThat(sink.getLuminancePlane(), is(ImageHelper.calculateLuminancePlane(pixels)));
+        }
+    }
+
+    @Test
+    public void testDecodeRegion() throws Exception {
+        for (int type : IMAGE_TYPES) {
+            for (boolean interlaced : new boolean[] { false, true }) {
+                byte[] png = toPng(createImage(type, 53, 29), interlaced);
+                PixelBuffer all = PngDecoder.decode(png);
+                for (RectangularRegion region : new RectangularRegion[] { new RectangularRegion(3, 5, 17, 11), new RectangularRegion(40, 20, 99, 99) }) {
+                    PixelBuffer actual = PngDecoder.decode(png, region);
+                    assertThat(actual.width, is(Math.min(53, region.x2 + 1) - region.x1));
+                    assertThat(actual.height, is(Math.min(29, region.y2 + 1) - region.y1));
+                    for (int x = 0; x < actual.width; ++x) {
+                        for (int y = 0; y < actual.height; ++y) {
+                            assertThat(actual.get(x, y), is(all.get(region.x1 + x, region.y1 + y)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testThatCorruptedImageIsRejected() throws Exception {
+        byte[] png = toPng(createImage(BufferedImage.TYPE_INT_RGB, 20, 20), false);
+        // Flip a bit in the width stored in the IHDR chunk, so that its CRC is wrong ...
+        png[16 + 3] ^= 1;
+        try {
+            PngDecoder.decode(png);
+            fail("IOException expected");
+        } catch (IOException expected) {}
+    }
+
+    private BufferedImage createImage(int type, int w, int h) {
+        final Random random = new Random(type);
+        final BufferedImage image = new BufferedImage(w, h, type);
+        for (int x = 0; x < w; ++x) {
+            for (int y = 0; y < h; ++y) {
+                // Mix areas with random pixels and areas with smooth gradients,
+                // so that the PNG encoder uses different filter types ...
+                image.setRGB(x, y, (y < h / 2 ? random.nextInt() : 0xFF000000 | (x * 4 << 16) | (y * 4 << 8) | (x + y)));
+            }
+        }
+        return image;
+    }
+
+    private byte[] toPng(BufferedImage image, boolean interlaced) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private void assertThatPixelsAreEqual(PixelBuffer actual, PixelBuffer expected) {
+        assertThat(actual.width, is(expected.width));
+        assertThat(actual.height, is(expected.height));
+        for (int y = 0; y < expected.height; ++y) {
+            assertThat(actual.rowEquals(y, expected, 0, expected.width), is(true));
+        }
+    }
+}